@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.recordmapping.DslRecordMapper;
+
+/**
+ * Measures serializing a mapped record into the buffer that is handed to the sinks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AvroRecordBufferBenchmark {
+    private DivolteEvent event;
+    private GenericRecord record;
+    private DatumWriter<GenericRecord> writer;
+
+    @Setup
+    public void setup() {
+        final ValidatedConfiguration vc = BenchmarkFixtures.loadConfiguration();
+        final DslRecordMapper mapper =
+                new DslRecordMapper(vc,
+                                    vc.configuration().mappings.get("benchmark").mappingScriptFile.get(),
+                                    new SchemaRegistry(vc).getSchemaByMappingName("benchmark").avroSchema,
+                                    Optional.empty());
+        event = BenchmarkFixtures.createParsedBrowserEvent();
+        record = mapper.newRecordFromExchange(event);
+        writer = new SpecificDatumWriter<>(record.getSchema());
+    }
+
+    @Benchmark
+    public AvroRecordBuffer fromRecord() {
+        // Never released, so the memory is not reused.
+        return AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record);
+    }
+
+    @Benchmark
+    public int fromRecordAndRelease() {
+        // Released straight away, as if all sinks flushed it, so the memory is reused.
+        final AvroRecordBuffer buffer =
+                AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record);
+        final int size = buffer.size();
+        buffer.release();
+        return size;
+    }
+
+    @Benchmark
+    public int fromRecordWithHeldWriter() {
+        // As done by a mapping, which holds on to the writer for its schema.
+        final AvroRecordBuffer buffer =
+                AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record, writer);
+        final int size = buffer.size();
+        buffer.release();
+        return size;
+    }
+
+    @Benchmark
+    public int fromRecordWithNewWriter() {
+        // Baseline: the cost of building a writer for every record.
+        final AvroRecordBuffer buffer =
+                AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record,
+                                            new SpecificDatumWriter<>(record.getSchema()));
+        final int size = buffer.size();
+        buffer.release();
+        return size;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+import com.typesafe.config.ConfigFactory;
+
+import io.divolte.server.config.ValidatedConfiguration;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import io.undertow.util.Headers;
+
+/**
+ * Shared fixtures for the benchmarks: configuration, and realistic browser events
+ * that can be fed into the processing stages without a running server.
+ */
+@ParametersAreNonnullByDefault
+public final class BenchmarkFixtures {
+    private static final HashFunction CHECKSUM_HASH = Hashing.murmur3_32();
+
+    private static final String USER_AGENT =
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_13_6) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/69.0.3497.100 Safari/537.36";
+    private static final String LOCATION =
+            "https://www.example.com/category/shoes/running/trail-runner-5000.html?q=trail%20shoes&p=1";
+    private static final String REFERER =
+            "https://www.example.com/search?q=trail+shoes";
+
+    private BenchmarkFixtures() {
+        // Prevent external instantiation.
+    }
+
+    /**
+     * Load the benchmark configuration. This uses a script-based mapping onto
+     * the test schema; both are copied to temporary files because that's what
+     * the configuration requires.
+     *
+     * @return the validated benchmark configuration.
+     */
+    public static ValidatedConfiguration loadConfiguration() {
+        final File mappingFile = copyResourceToTemporaryFile("benchmark-mapping.groovy", ".groovy");
+        final File schemaFile = copyResourceToTemporaryFile("TestRecord.avsc", ".avsc");
+        final Map<String, Object> mappingConfig = ImmutableMap.of(
+                "divolte.mappings.benchmark.mapping_script_file", mappingFile.getAbsolutePath(),
+                "divolte.mappings.benchmark.schema_file", schemaFile.getAbsolutePath());
+        final ValidatedConfiguration vc =
+                new ValidatedConfiguration(() -> ConfigFactory.parseMap(mappingConfig, "Benchmark mapping")
+                                                              .withFallback(ConfigFactory.parseResources("benchmark.conf"))
+                                                              .resolve());
+        Preconditions.checkState(vc.isValid(), "Invalid benchmark configuration: %s", vc.errors());
+        return vc;
+    }
+
+    private static File copyResourceToTemporaryFile(final String resourceName, final String suffix) {
+        try {
+            final File file = File.createTempFile("divolte-benchmark-", suffix);
+            file.deleteOnExit();
+            Files.write(Resources.toByteArray(Resources.getResource(resourceName)), file);
+            return file;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not copy benchmark resource: " + resourceName, e);
+        }
+    }
+
+    /**
+     * Create an unparsed browser event, as it would be queued by the browser source.
+     *
+     * @param eventId the event identifier to use; this should be unique to avoid duplicate detection.
+     * @return an event that has not yet been parsed.
+     */
+    public static UndertowEvent createBrowserEvent(final String eventId) {
+        final DivolteIdentifier partyId = DivolteIdentifier.generate();
+        final DivolteIdentifier sessionId = DivolteIdentifier.generate();
+        final Instant now = Instant.now();
+
+        final SortedMap<String, String> queryParameters = new TreeMap<>();
+        queryParameters.put("p", partyId.value);
+        queryParameters.put("s", sessionId.value);
+        queryParameters.put("v", "0:" + eventId);
+        queryParameters.put("e", eventId);
+        queryParameters.put("c", Long.toString(now.toEpochMilli(), 36));
+        queryParameters.put("n", "f");
+        queryParameters.put("f", "f");
+        queryParameters.put("l", LOCATION);
+        queryParameters.put("r", REFERER);
+        queryParameters.put("i", "1ak");
+        queryParameters.put("j", "sj");
+        queryParameters.put("k", "2");
+        queryParameters.put("w", "uq");
+        queryParameters.put("h", "qd");
+        queryParameters.put("t", "pageView");
+        queryParameters.put("x", calculateChecksum(queryParameters));
+
+        final HttpServerExchange exchange = new HttpServerExchange(mock(ServerConnection.class));
+        exchange.setSourceAddress(new InetSocketAddress("192.0.2.1", 54321));
+        exchange.getRequestHeaders().put(Headers.USER_AGENT, USER_AGENT);
+        queryParameters.forEach(exchange::addQueryParam);
+
+        return new ClientSideCookieEventHandler.BrowserUndertowEvent(now, exchange, partyId);
+    }
+
+    /**
+     * Create an array of unparsed browser events, each with a unique event identifier.
+     *
+     * @param count the number of events to create.
+     * @return the events.
+     */
+    public static UndertowEvent[] createBrowserEvents(final int count) {
+        final UndertowEvent[] events = new UndertowEvent[count];
+        for (int i = 0; i < count; ++i) {
+            events[i] = createBrowserEvent("0:benchmark" + i);
+        }
+        return events;
+    }
+
+    /**
+     * Create a parsed browser event, as it would be presented to the mappings.
+     *
+     * @return a parsed event.
+     */
+    public static DivolteEvent createParsedBrowserEvent() {
+        try {
+            return createBrowserEvent("0:benchmark").parseRequest();
+        } catch (final IncompleteRequestException e) {
+            throw new IllegalStateException("Benchmark event could not be parsed.", e);
+        }
+    }
+
+    private static String calculateChecksum(final SortedMap<String, String> queryParameters) {
+        // This mirrors the client-side checksum; each parameter here has a single value.
+        final StringBuilder builder = new StringBuilder();
+        queryParameters.forEach((name, value) -> builder.append(name).append('=').append(value).append(",;"));
+        return Integer.toString(CHECKSUM_HASH.hashString(builder.toString(), StandardCharsets.UTF_8).asInt(), 36);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.processing.Item;
+import io.divolte.server.processing.ItemProcessor.ProcessingDirective;
+
+/**
+ * Measures the complete mapper stage for a browser event: parsing, duplicate
+ * detection, mapping and serialization. No sinks are attached, so nothing is
+ * enqueued downstream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IncomingRequestProcessorBenchmark {
+    // Must be a power of two.
+    private static final int EVENT_COUNT = 1024;
+
+    private IncomingRequestProcessor processor;
+    private Item<UndertowEvent>[] items;
+    private int nextItem;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        final ValidatedConfiguration vc = BenchmarkFixtures.loadConfiguration();
+        processor = new IncomingRequestProcessor(vc,
+                                                 ImmutableMap.of(),
+                                                 Optional.empty(),
+                                                 new SchemaRegistry(vc),
+                                                 (event, buffer, record) -> {});
+        final int sourceIndex = vc.configuration().sourceIndex("browser");
+        final UndertowEvent[] events = BenchmarkFixtures.createBrowserEvents(EVENT_COUNT);
+        items = new Item[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; ++i) {
+            items[i] = Item.of(sourceIndex, events[i].partyId.value, events[i]);
+        }
+    }
+
+    @Benchmark
+    public ProcessingDirective process() {
+        final Item<UndertowEvent> item = items[nextItem];
+        nextItem = (nextItem + 1) & (EVENT_COUNT - 1);
+        return processor.process(item);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.recordmapping;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.BenchmarkFixtures;
+import io.divolte.server.DivolteEvent;
+import io.divolte.server.SchemaRegistry;
+import io.divolte.server.config.ValidatedConfiguration;
+
+/**
+ * Measures applying the benchmark mapping script to a parsed browser event, on its
+ * own and together with serializing the result in both regular and compiled mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DslRecordMapperBenchmark {
+    private DslRecordMapper mapper;
+    private DivolteEvent event;
+    private DatumWriter<GenericRecord> writer;
+    private DatumWriter<GenericRecord> compiledWriter;
+
+    @Setup
+    public void setup() {
+        final ValidatedConfiguration vc = BenchmarkFixtures.loadConfiguration();
+        final Schema schema = new SchemaRegistry(vc).getSchemaByMappingName("benchmark").avroSchema;
+        mapper = new DslRecordMapper(vc,
+                                     vc.configuration().mappings.get("benchmark").mappingScriptFile.get(),
+                                     schema,
+                                     Optional.empty());
+        event = BenchmarkFixtures.createParsedBrowserEvent();
+        writer = new SpecificDatumWriter<>(schema);
+        compiledWriter = new MappedRecordWriter(schema);
+    }
+
+    private int serialize(final GenericRecord record, final DatumWriter<GenericRecord> writer) {
+        final AvroRecordBuffer buffer =
+                AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record, writer);
+        final int size = buffer.size();
+        buffer.release();
+        return size;
+    }
+
+    @Benchmark
+    public GenericRecord newRecordFromExchange() {
+        return mapper.newRecordFromExchange(event);
+    }
+
+    @Benchmark
+    public int newRecordAndSerialize() {
+        return serialize(mapper.newRecordFromExchange(event), writer);
+    }
+
+    @Benchmark
+    public int newMappedRecordAndSerialize() {
+        return serialize(mapper.newMappedRecordFromExchange(event), compiledWriter);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.topicsinks.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.BenchmarkFixtures;
+import io.divolte.server.DivolteEvent;
+import io.divolte.server.DivolteIdentifier;
+import io.divolte.server.SchemaRegistry;
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.recordmapping.DslRecordMapper;
+
+/**
+ * Measures sending a micro-batch of records through the Kafka flusher. A mock
+ * producer is used, so this covers serialization and the flusher's own overhead
+ * but not the network. Results are reported per record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KafkaFlusherBenchmark {
+    // This matches the largest micro-batch that a processing pool hands to a flusher.
+    private static final int BATCH_SIZE = 128;
+
+    private MockProducer<DivolteIdentifier, AvroRecordBuffer> producer;
+    private KafkaFlusher flusher;
+    private KafkaFlusher pipelinedFlusher;
+    private List<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> batch;
+
+    @Setup
+    public void setup() {
+        final ValidatedConfiguration vc = BenchmarkFixtures.loadConfiguration();
+        final DslRecordMapper mapper =
+                new DslRecordMapper(vc,
+                                    vc.configuration().mappings.get("benchmark").mappingScriptFile.get(),
+                                    new SchemaRegistry(vc).getSchemaByMappingName("benchmark").avroSchema,
+                                    Optional.empty());
+        producer = new MockProducer<>(true, Serializers.createKeySerializer(), new AvroRecordBufferSerializer());
+        flusher = new KafkaFlusher("benchmark", producer);
+        pipelinedFlusher = new KafkaFlusher("benchmark", producer, BATCH_SIZE);
+
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            final DivolteEvent event = BenchmarkFixtures.createParsedBrowserEvent();
+            final GenericRecord record = mapper.newRecordFromExchange(event);
+            final AvroRecordBuffer buffer =
+                    AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record);
+            batch.add(flusher.buildRecord(buffer));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public ImmutableList<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> sendBatch() throws InterruptedException {
+        return sendBatch(flusher);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public ImmutableList<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> sendBatchPipelined() throws InterruptedException {
+        return sendBatch(pipelinedFlusher);
+    }
+
+    private ImmutableList<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> sendBatch(final KafkaFlusher flusher) throws InterruptedException {
+        // The flusher releases each record once it has been sent, but we send the same records every time.
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            batch.get(i).value().retain();
+        }
+        final ImmutableList<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> remaining = flusher.sendBatch(batch);
+        // The mock producer remembers everything sent; discard that so it doesn't grow.
+        producer.clear();
+        return remaining;
+    }
+}
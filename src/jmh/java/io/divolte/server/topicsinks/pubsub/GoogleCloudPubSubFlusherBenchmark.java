@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.topicsinks.pubsub;
+
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericRecord;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.cloud.pubsub.v1.Publisher;
+import com.google.protobuf.ByteString;
+import com.google.pubsub.v1.PubsubMessage;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.BenchmarkFixtures;
+import io.divolte.server.DivolteEvent;
+import io.divolte.server.DivolteSchema;
+import io.divolte.server.SchemaRegistry;
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.recordmapping.DslRecordMapper;
+
+/**
+ * Measures building a Pub/Sub message for a record, which the flusher does for every
+ * record it publishes. The baseline builds the message the way the flusher used to:
+ * formatting the attributes from scratch and copying the record.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GoogleCloudPubSubFlusherBenchmark {
+    private GoogleCloudPubSubFlusher flusher;
+    private AvroRecordBuffer buffer;
+
+    @Setup
+    public void setup() {
+        final ValidatedConfiguration vc = BenchmarkFixtures.loadConfiguration();
+        final DivolteSchema schema = new SchemaRegistry(vc).getSchemaByMappingName("benchmark");
+        final DslRecordMapper mapper =
+                new DslRecordMapper(vc,
+                                    vc.configuration().mappings.get("benchmark").mappingScriptFile.get(),
+                                    schema.avroSchema,
+                                    Optional.empty());
+        // Messages are only built; nothing is published.
+        flusher = new GoogleCloudPubSubFlusher(Mockito.mock(Publisher.class), schema);
+
+        final DivolteEvent event = BenchmarkFixtures.createParsedBrowserEvent();
+        final GenericRecord record = mapper.newRecordFromExchange(event);
+        buffer = AvroRecordBuffer.fromRecord(event.partyId, event.sessionId, event.eventId, event.requestStartTime, record);
+    }
+
+    @Benchmark
+    public PubsubMessage buildRecord() {
+        return flusher.buildRecord(buffer).message;
+    }
+
+    @Benchmark
+    public PubsubMessage buildRecordBaseline() {
+        return PubsubMessage.newBuilder()
+            .putAttributes("schemaFingerprint", "fingerprint")
+            .putAttributes("partyIdentifier", buffer.getPartyId().toString())
+            .putAttributes("eventIdentifier", buffer.getEventId())
+            .putAttributes("timestamp", DateTimeFormatter.ISO_INSTANT.format(buffer.getTimestamp()))
+            .setData(ByteString.copyFrom(buffer.getByteBuffer()))
+            .build();
+    }
+}
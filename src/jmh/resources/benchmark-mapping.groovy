@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+mapping {
+    map corrupt() onto 'unreliable'
+    map duplicate() onto 'dupe'
+    map firstInSession() onto 'sessionStart'
+    map timestamp() onto 'ts'
+    map remoteHost() onto 'remoteHost'
+    map referer() onto 'referer'
+    map location() onto 'location'
+    map viewportPixelWidth() onto 'viewportWidth'
+    map viewportPixelHeight() onto 'viewportHeight'
+    map screenPixelWidth() onto 'screenWidth'
+    map screenPixelHeight() onto 'screenHeight'
+    map devicePixelRatio() onto 'pixelRatio'
+    map partyId() onto 'client'
+    map sessionId() onto 'session'
+    map pageViewId() onto 'pageview'
+    map eventId() onto 'event'
+    map eventType() onto 'eventType'
+
+    map userAgentString() onto 'userAgentString'
+
+    def ua = userAgent()
+    map ua.name() onto 'userAgentName'
+    map ua.family() onto 'userAgentFamily'
+    map ua.vendor() onto 'userAgentVendor'
+    map ua.type() onto 'userAgentType'
+    map ua.version() onto 'userAgentVersion'
+    map ua.deviceCategory() onto 'userAgentDeviceCategory'
+    map ua.osFamily() onto 'userAgentOsFamily'
+    map ua.osVersion() onto 'userAgentOsVersion'
+    map ua.osVendor() onto 'userAgentOsVendor'
+
+    def locationUri = parse location() to uri
+    map locationUri.scheme() onto 'locationProtocol'
+    map locationUri.path() onto 'uriPath'
+    map locationUri.host() onto 'uriHost'
+    map locationUri.port() onto 'uriPort'
+    map locationUri.query().value('q') onto 'uriQueryStringValue'
+
+    def refererUri = parse referer() to uri
+    map refererUri.scheme() onto 'refererProtocol'
+
+    def pathMatcher = match '^https?://[^/]+/category/([^/]+)/([^/]+)/(?<page>[^/\\.]+)\\.html' against location()
+    map pathMatcher.group(1) onto 'toplevelCategory'
+    map pathMatcher.group(2) onto 'subCategory'
+    map pathMatcher.group('page') onto 'contentPage'
+}
@@ -16,62 +16,112 @@
 
 package io.divolte.server;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.UncheckedIOException;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import com.google.common.base.MoreObjects;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumWriter;
-import org.apache.avro.io.Encoder;
+import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.EncoderFactory;
-import org.apache.avro.specific.SpecificDatumWriter;
+
+import io.divolte.server.processing.SpillSerializer;
 
 @ParametersAreNonnullByDefault
 public final class AvroRecordBuffer {
-    private static final int INITIAL_BUFFER_SIZE = 100;
-    private static final AtomicInteger BUFFER_SIZE = new AtomicInteger(INITIAL_BUFFER_SIZE);
+    private static final ThreadLocal<BufferArena> ARENA = ThreadLocal.withInitial(BufferArena::new);
+    private static final AtomicIntegerFieldUpdater<AvroRecordBuffer> REFERENCES_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(AvroRecordBuffer.class, "references");
 
     private final DivolteIdentifier partyId;
     private final DivolteIdentifier sessionId;
     private final String eventId;
     private final Instant timestamp;
     private final ByteBuffer byteBuffer;
+    // The array backing the (read-only) buffer, and where the record starts in it.
+    private final byte[] memory;
+    private final int offset;
+    @Nullable private final BufferArena.Slab slab;
+    // When the record has memory of its own: the whole array, which starts with a header.
+    @Nullable private final byte[] ownMemory;
+    private final int headerLength;
+    private volatile int references = 1;
 
     private AvroRecordBuffer(final DivolteIdentifier partyId,
                              final DivolteIdentifier sessionId,
                              final String eventId,
                              final Instant timestamp,
-                             final GenericRecord record) throws IOException {
+                             final GenericRecord record,
+                             final DatumWriter<GenericRecord> writer,
+                             @Nullable final byte[] header) throws IOException {
         this.partyId = Objects.requireNonNull(partyId);
         this.sessionId = Objects.requireNonNull(sessionId);
         this.eventId = Objects.requireNonNull(eventId);
         this.timestamp = Objects.requireNonNull(timestamp);
 
         /*
-         * We avoid ByteArrayOutputStream as it is fully synchronized and performs
-         * a lot of copying. Instead, we create a byte array and point a
-         * ByteBuffer to it and create a custom OutputStream implementation that
-         * writes directly to the ByteBuffer. If we under-allocate, we recreate
-         * the entire object using a larger byte array. All subsequent instances
-         * will also allocate the larger size array from that point onward.
+         * We serialize into a growable per-thread scratch stream first, so that we
+         * know the exact size of the record without having to guess (and retry if we
+         * guess wrong). The record is then copied into a region of a per-thread slab
+         * which is recycled once all records in it have been released. Only records
+         * that are too large for pooling get memory of their own.
+         * The (buffered) encoder is reused, and only needs flushing into the scratch
+         * stream once the record has been written.
          */
-        final ByteBuffer byteBuffer = ByteBuffer.allocate(BUFFER_SIZE.get());
-        final DatumWriter<GenericRecord> writer = new SpecificDatumWriter<>(record.getSchema());
-        final Encoder encoder = EncoderFactory.get().directBinaryEncoder(new ByteBufferOutputStream(byteBuffer), null);
-
+        final BufferArena arena = ARENA.get();
+        final BufferArena.ChunkedOutputStream scratch = arena.scratch;
+        scratch.reset();
+        final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(scratch, arena.encoder);
+        arena.encoder = encoder;
         writer.write(record, encoder);
+        encoder.flush();
 
-        // Prepare buffer for reading, and store it (read-only).
-        byteBuffer.flip();
-        this.byteBuffer = byteBuffer.asReadOnlyBuffer();
+        final int size = scratch.size();
+        this.slab = null == header ? arena.slabFor(size) : null;
+        if (null != slab) {
+            memory = slab.memory;
+            offset = slab.claim(size);
+            this.ownMemory = null;
+            this.headerLength = 0;
+        } else {
+            final int length = null == header ? 0 : header.length;
+            memory = new byte[length + size];
+            if (null != header) {
+                System.arraycopy(header, 0, memory, 0, length);
+            }
+            offset = length;
+            this.ownMemory = memory;
+            this.headerLength = length;
+        }
+        scratch.copyTo(memory, offset);
+        this.byteBuffer = ByteBuffer.wrap(memory, offset, size).slice().asReadOnlyBuffer();
+    }
+
+    private AvroRecordBuffer(final DivolteIdentifier partyId,
+                             final DivolteIdentifier sessionId,
+                             final String eventId,
+                             final Instant timestamp,
+                             final byte[] memory) {
+        this.partyId = Objects.requireNonNull(partyId);
+        this.sessionId = Objects.requireNonNull(sessionId);
+        this.eventId = Objects.requireNonNull(eventId);
+        this.timestamp = Objects.requireNonNull(timestamp);
+        this.memory = memory;
+        this.offset = 0;
+        this.byteBuffer = ByteBuffer.wrap(memory).asReadOnlyBuffer();
+        this.slab = null;
+        this.ownMemory = null;
+        this.headerLength = 0;
     }
 
     public DivolteIdentifier getPartyId() {
@@ -95,19 +145,75 @@ public final class AvroRecordBuffer {
                                               final String eventId,
                                               final Instant timestamp,
                                               final GenericRecord record) {
-        for (;;) {
-            try {
-                return new AvroRecordBuffer(partyId, sessionId, eventId, timestamp, record);
-            } catch (final BufferOverflowException boe) {
-                // Increase the buffer size by about 10%
-                // Because we only ever increase the buffer size, we discard the
-                // scenario where this thread fails to set the new size,
-                // as we can assume another thread increased it.
-                int currentSize = BUFFER_SIZE.get();
-                BUFFER_SIZE.compareAndSet(currentSize, (int) (currentSize * 1.1));
-            } catch (final IOException ioe) {
-                throw new UncheckedIOException("Serialization error.", ioe);
+        return fromRecord(partyId, sessionId, eventId, timestamp, record, ARENA.get().writerFor(record.getSchema()));
+    }
+
+    /**
+     * Serialize a record using a writer supplied by the caller. Callers that always
+     * serialize records with the same schema can hold on to a writer, which avoids
+     * looking one up for each record. Writers must not be shared between threads.
+     *
+     * @param writer a writer for the schema of the record.
+     */
+    public static AvroRecordBuffer fromRecord(final DivolteIdentifier partyId,
+                                              final DivolteIdentifier sessionId,
+                                              final String eventId,
+                                              final Instant timestamp,
+                                              final GenericRecord record,
+                                              final DatumWriter<GenericRecord> writer) {
+        return fromRecord(partyId, sessionId, eventId, timestamp, record, writer, Optional.empty());
+    }
+
+    /**
+     * Serialize a record, optionally into memory of its own that starts with a header.
+     * Such buffers can be handed over as a single array, header included, without
+     * copying: see {@link #getFramedBytes(byte[])}. They are not pooled.
+     *
+     * @param writer a writer for the schema of the record.
+     * @param header if present, the (possibly empty) header to place before the record.
+     */
+    public static AvroRecordBuffer fromRecord(final DivolteIdentifier partyId,
+                                              final DivolteIdentifier sessionId,
+                                              final String eventId,
+                                              final Instant timestamp,
+                                              final GenericRecord record,
+                                              final DatumWriter<GenericRecord> writer,
+                                              final Optional<byte[]> header) {
+        try {
+            return new AvroRecordBuffer(partyId, sessionId, eventId, timestamp, record, writer, header.orElse(null));
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException("Serialization error.", ioe);
+        }
+    }
+
+    /**
+     * Add a reference to this buffer. Each reference must eventually be
+     * {@link #release() released}, after which the memory backing the buffer may be
+     * reused. A new buffer starts out with a single reference.
+     *
+     * @return this buffer.
+     */
+    public AvroRecordBuffer retain() {
+        if (REFERENCES_UPDATER.getAndIncrement(this) <= 0) {
+            throw new IllegalStateException("Cannot retain a buffer that has already been released.");
+        }
+        return this;
+    }
+
+    /**
+     * Drop a reference to this buffer. When the last reference has been dropped the
+     * memory backing the buffer may be reused, so this must only be called once the
+     * holder of the reference no longer needs the contents. Not releasing a buffer is
+     * harmless: its memory will be garbage collected instead of reused.
+     */
+    public void release() {
+        final int remaining = REFERENCES_UPDATER.decrementAndGet(this);
+        if (0 == remaining) {
+            if (null != slab) {
+                slab.release();
             }
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Buffer released more often than retained.");
         }
     }
 
@@ -115,6 +221,27 @@ public final class AvroRecordBuffer {
         return byteBuffer.slice();
     }
 
+    /**
+     * Get the record, preceded by a header, as a single array without copying. This
+     * is only possible if the record was serialized into memory of its own, preceded
+     * by exactly the same header.
+     *
+     * @param header the header that must precede the record.
+     * @return the array holding the header and the record, if available. It must not
+     *      be modified.
+     */
+    public Optional<byte[]> getFramedBytes(final byte[] header) {
+        if (null == ownMemory || header.length != headerLength) {
+            return Optional.empty();
+        }
+        for (int i = 0; i < headerLength; ++i) {
+            if (header[i] != ownMemory[i]) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(ownMemory);
+    }
+
     /**
      * Convenience getter for determining the size without materializing a slice of the buffer.
      * @return The internal buffer's size.
@@ -123,6 +250,13 @@ public final class AvroRecordBuffer {
         return byteBuffer.limit();
     }
 
+    /**
+     * @return a serializer that allows buffers to be spilled to disk by sink pools.
+     */
+    public static SpillSerializer<AvroRecordBuffer> spillSerializer() {
+        return BufferSpillSerializer.INSTANCE;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -133,21 +267,35 @@ public final class AvroRecordBuffer {
     }
 
     @ParametersAreNonnullByDefault
-    private static final class ByteBufferOutputStream extends OutputStream {
-        private final ByteBuffer underlying;
+    private static final class BufferSpillSerializer implements SpillSerializer<AvroRecordBuffer> {
+        private static final BufferSpillSerializer INSTANCE = new BufferSpillSerializer();
 
-        public ByteBufferOutputStream(final ByteBuffer underlying) {
-            this.underlying = Objects.requireNonNull(underlying);
+        @Override
+        public void serialize(final AvroRecordBuffer payload, final DataOutput output) throws IOException {
+            output.writeUTF(payload.partyId.value);
+            output.writeUTF(payload.sessionId.value);
+            output.writeUTF(payload.eventId);
+            output.writeLong(payload.timestamp.getEpochSecond());
+            output.writeInt(payload.timestamp.getNano());
+            // Written straight from the backing array; the buffer itself is read-only.
+            output.writeInt(payload.size());
+            output.write(payload.memory, payload.offset, payload.size());
         }
 
         @Override
-        public void write(final int b) throws IOException {
-            underlying.put((byte) b);
+        public AvroRecordBuffer deserialize(final DataInput input) throws IOException {
+            final DivolteIdentifier partyId = parseIdentifier(input.readUTF());
+            final DivolteIdentifier sessionId = parseIdentifier(input.readUTF());
+            final String eventId = input.readUTF();
+            final Instant timestamp = Instant.ofEpochSecond(input.readLong(), input.readInt());
+            final byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            return new AvroRecordBuffer(partyId, sessionId, eventId, timestamp, bytes);
         }
 
-        @Override
-        public void write(final byte[] b, final int off, final int len) throws IOException {
-            underlying.put(b, off, len);
+        private static DivolteIdentifier parseIdentifier(final String value) throws IOException {
+            return DivolteIdentifier.tryParse(value)
+                                    .orElseThrow(() -> new IOException("Invalid identifier in spilled record: " + value));
         }
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+/**
+ * Per-thread memory for serialized {@link AvroRecordBuffer} instances.
+ *
+ * <p>Records are first serialized into a growable scratch stream, after which
+ * their exact size is known. They are then copied into a region carved out of a
+ * larger slab. A slab is recycled once the arena has moved on to a new slab and
+ * every record in it has been released; recycled slabs are kept in a bounded
+ * free list, which is safe to add to from any thread.
+ *
+ * <p>Records that are never released simply keep their slab from being recycled;
+ * it will be garbage collected like any other memory.
+ *
+ * <p>The arena also caches the writers used to serialize records, by schema.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class BufferArena {
+    private static final int SLAB_SIZE = 64 * 1024;
+    // Records larger than this get memory of their own, to avoid wasting the end of slabs.
+    private static final int MAX_POOLED_RECORD_SIZE = SLAB_SIZE / 8;
+    private static final int MAX_FREE_SLABS = 32;
+    // Schemas are normally shared, so this is plenty; it only guards against schemas built on the fly.
+    private static final int MAX_CACHED_WRITERS = 64;
+
+    private final BlockingQueue<Slab> freeSlabs = new ArrayBlockingQueue<>(MAX_FREE_SLABS);
+    @Nullable private Slab currentSlab;
+    // Keyed by identity: schema equality and hashing walk the entire schema.
+    private final Map<Schema, DatumWriter<GenericRecord>> writers = new IdentityHashMap<>();
+
+    final ChunkedOutputStream scratch = new ChunkedOutputStream();
+    @Nullable BinaryEncoder encoder;
+
+    /**
+     * Find the slab to place a record of a given size in.
+     *
+     * @param size the size of the record, in bytes.
+     * @return the slab to claim the record's memory from, or <code>null</code> if the
+     *      record is too large to be pooled.
+     */
+    @Nullable
+    Slab slabFor(final int size) {
+        if (MAX_POOLED_RECORD_SIZE < size) {
+            return null;
+        }
+        if (null == currentSlab || currentSlab.remaining() < size) {
+            if (null != currentSlab) {
+                // Give up our own reference; the slab is recycled once its records are released.
+                currentSlab.release();
+            }
+            final Slab recycled = freeSlabs.poll();
+            currentSlab = null != recycled ? recycled : new Slab(this);
+            currentSlab.reset();
+        }
+        return currentSlab;
+    }
+
+    /**
+     * Get a writer for records with a given schema, creating it if necessary.
+     *
+     * @param schema the schema of the records that will be written.
+     * @return a writer that may only be used by the thread owning this arena.
+     */
+    DatumWriter<GenericRecord> writerFor(final Schema schema) {
+        final DatumWriter<GenericRecord> cached = writers.get(schema);
+        if (null != cached) {
+            return cached;
+        }
+        if (MAX_CACHED_WRITERS <= writers.size()) {
+            writers.clear();
+        }
+        final DatumWriter<GenericRecord> writer = new SpecificDatumWriter<>(schema);
+        writers.put(schema, writer);
+        return writer;
+    }
+
+    private void recycle(final Slab slab) {
+        // If the free list is full, the slab is left for the garbage collector.
+        freeSlabs.offer(slab);
+    }
+
+    @ParametersAreNonnullByDefault
+    @ThreadSafe
+    static final class Slab {
+        final byte[] memory = new byte[SLAB_SIZE];
+        private final BufferArena owner;
+        // One reference for each unreleased record, plus one while the arena is filling the slab.
+        private final AtomicInteger references = new AtomicInteger();
+        private int used;
+
+        private Slab(final BufferArena owner) {
+            this.owner = Objects.requireNonNull(owner);
+        }
+
+        private void reset() {
+            used = 0;
+            references.set(1);
+        }
+
+        private int remaining() {
+            return memory.length - used;
+        }
+
+        /**
+         * Claim a region of this slab. Only the owning arena's thread may do this.
+         *
+         * @param size the size of the region.
+         * @return the offset of the region within {@link #memory}.
+         */
+        int claim(final int size) {
+            references.incrementAndGet();
+            final int offset = used;
+            used += size;
+            return offset;
+        }
+
+        void release() {
+            final int remaining = references.decrementAndGet();
+            if (0 == remaining) {
+                owner.recycle(this);
+            } else if (remaining < 0) {
+                throw new IllegalStateException("Slab released more often than claimed.");
+            }
+        }
+    }
+
+    /**
+     * An output stream that grows by adding chunks, so it never has to copy what
+     * has already been written. Chunks are retained when the stream is reset.
+     */
+    @ParametersAreNonnullByDefault
+    @NotThreadSafe
+    static final class ChunkedOutputStream extends OutputStream {
+        private static final int INITIAL_CHUNK_SIZE = 1024;
+
+        private final List<byte[]> chunks = new ArrayList<>();
+        private byte[] chunk;
+        private int chunkIndex;
+        private int chunkPosition;
+        private int size;
+
+        ChunkedOutputStream() {
+            chunk = new byte[INITIAL_CHUNK_SIZE];
+            chunks.add(chunk);
+        }
+
+        void reset() {
+            chunkIndex = 0;
+            chunk = chunks.get(0);
+            chunkPosition = 0;
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void nextChunk() {
+            ++chunkIndex;
+            if (chunks.size() == chunkIndex) {
+                chunks.add(new byte[2 * chunk.length]);
+            }
+            chunk = chunks.get(chunkIndex);
+            chunkPosition = 0;
+        }
+
+        @Override
+        public void write(final int b) {
+            if (chunk.length == chunkPosition) {
+                nextChunk();
+            }
+            chunk[chunkPosition++] = (byte) b;
+            ++size;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            int offset = off;
+            int remaining = len;
+            while (0 < remaining) {
+                if (chunk.length == chunkPosition) {
+                    nextChunk();
+                }
+                final int count = Math.min(remaining, chunk.length - chunkPosition);
+                System.arraycopy(b, offset, chunk, chunkPosition, count);
+                chunkPosition += count;
+                offset += count;
+                remaining -= count;
+            }
+            size += len;
+        }
+
+        /**
+         * Copy everything written since the last reset.
+         *
+         * @param destination the array to copy into.
+         * @param offset where in the array to start.
+         */
+        void copyTo(final byte[] destination, final int offset) {
+            int position = offset;
+            for (int i = 0; i < chunkIndex; ++i) {
+                final byte[] full = chunks.get(i);
+                System.arraycopy(full, 0, destination, position, full.length);
+                position += full.length;
+            }
+            System.arraycopy(chunk, 0, destination, position, chunkPosition);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Nothing to do; everything is already in memory.
+        }
+    }
+}
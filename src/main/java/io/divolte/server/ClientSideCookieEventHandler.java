@@ -61,6 +61,8 @@ public final class ClientSideCookieEventHandler implements HttpHandler {
     private final ByteBuffer transparentImage;
     private final IncomingRequestProcessingPool processingPool;
     private final int sourceIndex;
+    private final boolean dispatchToWorker;
+    private final boolean respondAfterQueueing;
 
     private static final String TRUE_STRING = "t";
 
@@ -87,6 +89,9 @@ public final class ClientSideCookieEventHandler implements HttpHandler {
     public ClientSideCookieEventHandler(final IncomingRequestProcessingPool processingPool, final int sourceIndex) {
         this.sourceIndex = sourceIndex;
         this.processingPool = Objects.requireNonNull(processingPool);
+        this.dispatchToWorker = processingPool.mayBlock();
+        // Only a rejected event changes the response, so only then must it wait for the event to be queued.
+        this.respondAfterQueueing = processingPool.mayReject();
 
         try {
             this.transparentImage = ByteBuffer.wrap(
@@ -99,6 +104,11 @@ public final class ClientSideCookieEventHandler implements HttpHandler {
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) {
+        if (dispatchToWorker && exchange.isInIoThread()) {
+            // Queueing the event may block, which must not hold up the other connections of the I/O thread.
+            exchange.dispatch(this);
+            return;
+        }
         final InetSocketAddress sourceAddress = captureAndPersistSourceAddress(exchange);
 
         /*
@@ -118,15 +128,20 @@ public final class ClientSideCookieEventHandler implements HttpHandler {
 
         // If an ETag is present, this is a duplicate event.
         if (ETagUtils.handleIfNoneMatch(exchange, SENTINEL_ETAG, true)) {
-            // Default status code what we want: 200 OK.
-            // Sending the response before logging the event!
-            exchange.getResponseSender().send(transparentImage.slice());
-
-            try {
-                logEvent(exchange);
-            } catch (final IncompleteRequestException ire) {
-                // improper request, could be anything
-                logger.debug("Improper request received from {}.", Optional.ofNullable(exchange.getSourceAddress()).map(InetSocketAddress::getHostString).orElse("<UNKNOWN HOST>"));
+            if (respondAfterQueueing) {
+                if (tryLogEvent(exchange)) {
+                    // Default status code what we want: 200 OK.
+                    exchange.getResponseSender().send(transparentImage.slice());
+                } else {
+                    // The event was rejected because we're overloaded; let the client know.
+                    exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+                    exchange.endExchange();
+                }
+            } else {
+                // Default status code what we want: 200 OK.
+                // Sending the response before logging the event!
+                exchange.getResponseSender().send(transparentImage.slice());
+                tryLogEvent(exchange);
             }
         } else {
             if (logger.isDebugEnabled()) {
@@ -145,14 +160,24 @@ public final class ClientSideCookieEventHandler implements HttpHandler {
                 : requestUrl + '?' + queryString;
     }
 
-    private void logEvent(final HttpServerExchange exchange) throws IncompleteRequestException {
+    private boolean tryLogEvent(final HttpServerExchange exchange) {
+        try {
+            return logEvent(exchange);
+        } catch (final IncompleteRequestException ire) {
+            // improper request, could be anything
+            logger.debug("Improper request received from {}.", Optional.ofNullable(exchange.getSourceAddress()).map(InetSocketAddress::getHostString).orElse("<UNKNOWN HOST>"));
+            return true;
+        }
+    }
+
+    private boolean logEvent(final HttpServerExchange exchange) throws IncompleteRequestException {
         final DivolteIdentifier partyId = queryParamFromExchange(exchange, PARTY_ID_QUERY_PARAM).flatMap(DivolteIdentifier::tryParse).orElseThrow(IncompleteRequestException::new);
         final UndertowEvent event = new BrowserUndertowEvent(Instant.now(), exchange, partyId);
-        processingPool.enqueue(Item.of(sourceIndex, partyId.value, event));
+        return processingPool.enqueue(Item.of(sourceIndex, partyId.value, event));
     }
 
-    private static final class BrowserUndertowEvent extends UndertowEvent {
-        private BrowserUndertowEvent(final Instant requestTime, final HttpServerExchange exchange, final DivolteIdentifier partyId) {
+    static final class BrowserUndertowEvent extends UndertowEvent {
+        BrowserUndertowEvent(final Instant requestTime, final HttpServerExchange exchange, final DivolteIdentifier partyId) {
             super(requestTime, exchange, partyId);
         }
 
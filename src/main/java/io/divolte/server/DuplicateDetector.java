@@ -0,0 +1,42 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Detection of duplicate events, based on the hashes of their properties.
+ * <p>
+ * Events are checked in batches, so that implementations that consult a remote
+ * store need only a single round trip for all the events that a mapper thread
+ * handles at once. By default the mapper threads use a {@link DuplicateMemory},
+ * which only knows about the events seen by this server.
+ */
+@ParametersAreNonnullByDefault
+interface DuplicateDetector {
+    /**
+     * Determine for a batch of events whether they have been seen before or not.
+     * Either way, the events are remembered as having been seen.
+     *
+     * @param hashLows      The low longs of the hashes of the event properties, as computed by {@link EventHasher}.
+     * @param hashHighs     The high longs of the hashes of the event properties.
+     * @param count         The number of events in the batch.
+     * @param duplicates    Set to <code>true</code> for each event that we have probably
+     *                      seen previously, or <code>false</code> otherwise.
+     */
+    void detectDuplicates(long[] hashLows, long[] hashHighs, int count, boolean[] duplicates);
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.divolte.server.config.MapperConfiguration;
+
+/**
+ * Probabilistic memory of the events that have been seen recently, for detecting
+ * duplicate events.
+ */
+@ParametersAreNonnullByDefault
+interface DuplicateMemory extends DuplicateDetector {
+    /**
+     * Query whether an event has been seen before or not, based on the hash of its
+     * properties. Either way, the event is remembered as having been seen.
+     *
+     * @param hashLow   The low long of the hash of the event properties, as computed by {@link EventHasher}.
+     * @param hashHigh  The high long of the hash of the event properties.
+     * @return <code>true</code> if we have probably seen this event previously, or
+     *  false otherwise.
+     */
+    boolean isProbableDuplicate(long hashLow, long hashHigh);
+
+    /**
+     * Query whether an event has been seen before or not, based on event properties.
+     * Either way, the event is remembered as having been seen.
+     *
+     * @param eventProperties   An array of values that are specific to the event.
+     * @return <code>true</code> if we have probably seen this event previously, or
+     *  false otherwise.
+     */
+    default boolean isProbableDuplicate(final String... eventProperties) {
+        final EventHasher hasher = new EventHasher().hash(eventProperties);
+        return isProbableDuplicate(hasher.low(), hasher.high());
+    }
+
+    @Override
+    default void detectDuplicates(final long[] hashLows, final long[] hashHighs, final int count, final boolean[] duplicates) {
+        for (int i = 0; i < count; ++i) {
+            duplicates[i] = isProbableDuplicate(hashLows[i], hashHighs[i]);
+        }
+    }
+
+    /**
+     * The size of a snapshot of this memory, in bytes. Memories of the same class and
+     * snapshot size can restore each other's snapshots.
+     *
+     * @return the number of bytes needed to hold a snapshot.
+     */
+    long snapshotSize();
+
+    /**
+     * Copy part of the state of this memory into a snapshot. This must not be
+     * invoked while the memory is in use.
+     *
+     * @param offset    The offset, in bytes, within the snapshot at which to start.
+     *                  This is a multiple of 64.
+     * @param snapshot  The buffer to copy the state into; it is filled up to its limit.
+     */
+    void saveSnapshot(long offset, ByteBuffer snapshot);
+
+    /**
+     * Restore part of the state of this memory from a snapshot. This must not be
+     * invoked while the memory is in use.
+     *
+     * @param offset    The offset, in bytes, within the snapshot at which to start.
+     *                  This is a multiple of 64.
+     * @param snapshot  The buffer to copy the state from; it is read up to its limit.
+     */
+    void restoreSnapshot(long offset, ByteBuffer snapshot);
+
+    static DuplicateMemory forConfiguration(final MapperConfiguration configuration) {
+        return configuration.duplicateMemoryWindow
+                            .<DuplicateMemory>map(window -> new WindowedDuplicateMemory(configuration.duplicateMemorySize, window, Clock.systemUTC()))
+                            .orElseGet(() -> new ShortTermDuplicateMemory(configuration.duplicateMemorySize));
+    }
+}
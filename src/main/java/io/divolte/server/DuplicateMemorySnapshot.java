@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the duplicate memories of the mapper threads to a file, and restores them
+ * from it, so that duplicates are still detected after a restart.
+ * <p>
+ * The file starts with a header holding a version, the class of the memories, their
+ * number and the size of each of their snapshots. This is followed by the snapshots
+ * themselves. The file is memory-mapped, in regions of at most {@link #MAX_REGION_SIZE}
+ * bytes. A snapshot is only restored if its header matches the memories exactly; if
+ * the configuration has changed in the meantime, the memories start out empty.
+ */
+@ParametersAreNonnullByDefault
+final class DuplicateMemorySnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateMemorySnapshot.class);
+
+    private static final int MAGIC = 0x44564d53; // "DVMS"
+    private static final int VERSION = 1;
+    // A multiple of 64, which the memories need their offsets to be.
+    static final int MAX_REGION_SIZE = 1 << 30;
+
+    private DuplicateMemorySnapshot() {
+        // Prevent external instantiation.
+    }
+
+    /**
+     * Save a snapshot of the memories. This must not be invoked while they are in use.
+     * The file is replaced atomically, so that a failure leaves any previous snapshot
+     * intact.
+     *
+     * @param file      the file to save the snapshot to.
+     * @param memories  the memories to save.
+     * @throws IOException if the snapshot could not be saved.
+     */
+    static void save(final Path file, final List<? extends DuplicateMemory> memories) throws IOException {
+        final ByteBuffer header = header(memories);
+        final long snapshotSize = snapshotSize(memories);
+        final Path inflightFile = file.resolveSibling(file.getFileName() + ".inflight");
+        try (final FileChannel channel = FileChannel.open(inflightFile,
+                                                          StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.READ,
+                                                          StandardOpenOption.WRITE)) {
+            long position = header.remaining();
+            for (final DuplicateMemory memory : memories) {
+                for (long offset = 0; offset < snapshotSize; offset += MAX_REGION_SIZE) {
+                    final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                                position + offset,
+                                                                Math.min(snapshotSize - offset, MAX_REGION_SIZE));
+                    memory.saveSnapshot(offset, region);
+                    region.force();
+                }
+                position += snapshotSize;
+            }
+            // The header goes last, so that an incomplete snapshot is never restored.
+            channel.write(header, 0);
+            channel.force(true);
+        }
+        Files.move(inflightFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restore the memories from a snapshot, if there is one that matches them.
+     *
+     * @param file      the file to restore the snapshot from.
+     * @param memories  the memories to restore; they must not be in use yet.
+     * @return <code>true</code> if the memories were restored, or <code>false</code>
+     *  if the file does not exist or holds a snapshot of different memories.
+     * @throws IOException if the snapshot could not be read.
+     */
+    static boolean restore(final Path file, final List<? extends DuplicateMemory> memories) throws IOException {
+        if (!Files.exists(file)) {
+            logger.info("No duplicate memory snapshot found at {}; starting with an empty memory.", file);
+            return false;
+        }
+        final ByteBuffer expectedHeader = header(memories);
+        final long snapshotSize = snapshotSize(memories);
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long expectedSize = expectedHeader.remaining() + snapshotSize * memories.size();
+            if (channel.size() != expectedSize
+                    || !channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedHeader.remaining()).equals(expectedHeader)) {
+                logger.warn("Duplicate memory snapshot at {} does not match the configured memory; starting with an empty memory.", file);
+                return false;
+            }
+            long position = expectedHeader.remaining();
+            for (final DuplicateMemory memory : memories) {
+                for (long offset = 0; offset < snapshotSize; offset += MAX_REGION_SIZE) {
+                    memory.restoreSnapshot(offset, channel.map(FileChannel.MapMode.READ_ONLY,
+                                                               position + offset,
+                                                               Math.min(snapshotSize - offset, MAX_REGION_SIZE)));
+                }
+                position += snapshotSize;
+            }
+        }
+        logger.info("Restored duplicate memory from snapshot at {}.", file);
+        return true;
+    }
+
+    private static long snapshotSize(final List<? extends DuplicateMemory> memories) {
+        return memories.isEmpty() ? 0 : memories.get(0).snapshotSize();
+    }
+
+    private static ByteBuffer header(final List<? extends DuplicateMemory> memories) {
+        final byte[] memoryClass = (memories.isEmpty() ? "" : memories.get(0).getClass().getName()).getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate(3 * Integer.BYTES + Long.BYTES + Integer.BYTES + memoryClass.length);
+        header.putInt(MAGIC)
+              .putInt(VERSION)
+              .putInt(memories.size())
+              .putLong(snapshotSize(memories))
+              .putInt(memoryClass.length)
+              .put(memoryClass)
+              .flip();
+        return header;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Hashes the properties of an event without allocating anything.
+ * <p>
+ * This is the 128-bit x64 variant of MurmurHash3 over the UTF-16 characters of the
+ * properties; the result is the same as that of
+ * <code>Hashing.murmur3_128().newHasher().putUnencodedChars(...)...hash()</code> in
+ * Guava. Instead of a {@link com.google.common.hash.HashCode}, the hash is available
+ * as two longs: {@link #low()} (like <code>HashCode.asLong()</code>) and {@link #high()}.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class EventHasher {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    // A block is 16 bytes: 8 characters.
+    private static final int CHARS_PER_BLOCK = 8;
+
+    private long h1;
+    private long h2;
+
+    // The block being filled, and how many characters it holds.
+    private long k1;
+    private long k2;
+    private int blockLength;
+    private long length;
+
+    EventHasher hash(final String property1, final String property2, final String property3) {
+        reset();
+        put(property1);
+        put(property2);
+        put(property3);
+        return finish();
+    }
+
+    EventHasher hash(final String... properties) {
+        reset();
+        for (final String property : properties) {
+            put(property);
+        }
+        return finish();
+    }
+
+    long low() {
+        return h1;
+    }
+
+    long high() {
+        return h2;
+    }
+
+    private void reset() {
+        h1 = h2 = k1 = k2 = 0;
+        blockLength = 0;
+        length = 0;
+    }
+
+    private void put(final String property) {
+        final int propertyLength = property.length();
+        for (int i = 0; i < propertyLength; ++i) {
+            // Characters are little-endian, like the longs of a block.
+            final long c = property.charAt(i);
+            if (blockLength < CHARS_PER_BLOCK / 2) {
+                k1 |= c << (16 * blockLength);
+            } else {
+                k2 |= c << (16 * (blockLength - CHARS_PER_BLOCK / 2));
+            }
+            if (++blockLength == CHARS_PER_BLOCK) {
+                mixBlock();
+            }
+        }
+        length += 2L * propertyLength;
+    }
+
+    private void mixBlock() {
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        k1 = k2 = 0;
+        blockLength = 0;
+    }
+
+    private EventHasher finish() {
+        if (blockLength > 0) {
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return this;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        return k2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
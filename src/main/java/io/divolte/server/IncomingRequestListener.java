@@ -19,5 +19,9 @@ package io.divolte.server;
 import org.apache.avro.generic.GenericRecord;
 
 interface IncomingRequestListener {
+    /*
+     * The buffer may be reused once the sinks have flushed it. Listeners that
+     * hold on to it after returning must retain it.
+     */
     void incomingRequest(DivolteEvent event, AvroRecordBuffer avroBuffer, GenericRecord avroRecord);
 }
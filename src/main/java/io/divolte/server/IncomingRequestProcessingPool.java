@@ -18,16 +18,23 @@ package io.divolte.server;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
+import io.divolte.server.config.DuplicateDetectorConfiguration;
+import io.divolte.server.config.MapperConfiguration;
 import io.divolte.server.config.ValidatedConfiguration;
 import io.divolte.server.ip2geo.ExternalDatabaseLookupService;
 import io.divolte.server.ip2geo.LookupService;
@@ -37,6 +44,11 @@ import io.divolte.server.processing.ProcessingPool;
 public final class IncomingRequestProcessingPool extends ProcessingPool<IncomingRequestProcessor, UndertowEvent> {
     private final static Logger logger = LoggerFactory.getLogger(IncomingRequestProcessingPool.class);
 
+    private final ImmutableMap<String, MappingProcessingPool> mappingPoolsByName;
+    private final ImmutableList<DuplicateMemory> duplicateMemories;
+    private final Optional<Path> duplicateMemorySnapshot;
+    private final Optional<RedisDuplicateStore> duplicateStore;
+
     public IncomingRequestProcessingPool(final ValidatedConfiguration vc,
                                          final SchemaRegistry schemaRegistry,
                                          final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
@@ -56,11 +68,130 @@ public final class IncomingRequestProcessingPool extends ProcessingPool<Incoming
             final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
             final Optional<LookupService> geoipLookupService,
             final IncomingRequestListener listener) {
+        this(
+                vc,
+                schemaRegistry,
+                sinksByName,
+                MappingProcessingPool.createPools(vc, sinksByName, geoipLookupService, schemaRegistry, listener),
+                geoipLookupService,
+                listener
+                );
+    }
+
+    private IncomingRequestProcessingPool(
+            final ValidatedConfiguration vc,
+            final SchemaRegistry schemaRegistry,
+            final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
+            final ImmutableMap<String, MappingProcessingPool> mappingPoolsByName,
+            final Optional<LookupService> geoipLookupService,
+            final IncomingRequestListener listener) {
+        this(
+                vc,
+                schemaRegistry,
+                sinksByName,
+                mappingPoolsByName,
+                createDuplicateMemories(vc.configuration().global.mapper),
+                createDuplicateStore(vc.configuration().global.mapper.duplicateDetector),
+                geoipLookupService,
+                listener
+                );
+    }
+
+    private IncomingRequestProcessingPool(
+            final ValidatedConfiguration vc,
+            final SchemaRegistry schemaRegistry,
+            final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
+            final ImmutableMap<String, MappingProcessingPool> mappingPoolsByName,
+            final ImmutableList<DuplicateMemory> duplicateMemories,
+            final Optional<RedisDuplicateStore> duplicateStore,
+            final Optional<LookupService> geoipLookupService,
+            final IncomingRequestListener listener) {
         super(
                 vc.configuration().global.mapper.threads,
                 vc.configuration().global.mapper.bufferSize,
+                vc.configuration().global.mapper.queueType,
+                vc.configuration().global.mapper.overflowPolicy,
+                vc.configuration().global.mapper.overflowTimeout,
                 "Incoming Request Processor",
-                () -> new IncomingRequestProcessor(vc, sinksByName, geoipLookupService, schemaRegistry, listener));
+                processorFactory(vc, sinksByName, mappingPoolsByName, duplicateMemories, duplicateStore, geoipLookupService, schemaRegistry, listener));
+        this.mappingPoolsByName = mappingPoolsByName;
+        this.duplicateMemories = duplicateMemories;
+        this.duplicateStore = duplicateStore;
+        this.duplicateMemorySnapshot = vc.configuration().global.mapper.duplicateMemorySnapshot.map(Paths::get);
+    }
+
+    private static ImmutableList<DuplicateMemory> createDuplicateMemories(final MapperConfiguration configuration) {
+        // Either a single memory shared by all mapper threads, or one for each of them.
+        final int memoryCount = configuration.duplicateMemoryShared ? 1 : configuration.threads;
+        final ImmutableList<DuplicateMemory> memories =
+                IntStream.range(0, memoryCount)
+                         .mapToObj(ignored -> DuplicateMemory.forConfiguration(configuration))
+                         .collect(ImmutableList.toImmutableList());
+        configuration.duplicateMemorySnapshot.map(Paths::get).ifPresent(file -> {
+            try {
+                DuplicateMemorySnapshot.restore(file, memories);
+            } catch (final IOException e) {
+                // Not fatal: the memory merely starts out empty.
+                logger.warn("Failed to restore duplicate memory from snapshot: " + file, e);
+            }
+        });
+        return memories;
+    }
+
+    private static Optional<RedisDuplicateStore> createDuplicateStore(final DuplicateDetectorConfiguration configuration) {
+        switch (configuration.type) {
+            case REDIS:
+                return Optional.of(new RedisDuplicateStore(configuration.host,
+                                                           configuration.port,
+                                                           configuration.keyPrefix,
+                                                           configuration.window,
+                                                           configuration.timeout,
+                                                           configuration.retryInterval));
+            case LOCAL:
+            default:
+                return Optional.empty();
+        }
+    }
+
+    private static Supplier<IncomingRequestProcessor> processorFactory(
+            final ValidatedConfiguration vc,
+            final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
+            final ImmutableMap<String, MappingProcessingPool> mappingPoolsByName,
+            final ImmutableList<DuplicateMemory> duplicateMemories,
+            final Optional<RedisDuplicateStore> duplicateStore,
+            final Optional<LookupService> geoipLookupService,
+            final SchemaRegistry schemaRegistry,
+            final IncomingRequestListener listener) {
+        // Each mapper thread gets the next memory. A processor that replaces one that
+        // failed shares an existing memory (which is safe), so that every memory in use
+        // is included in the snapshot.
+        final AtomicInteger nextMemory = new AtomicInteger();
+        return () -> {
+            final MapperConfiguration mapperConfiguration = vc.configuration().global.mapper;
+            final DuplicateMemory duplicateMemory =
+                duplicateMemories.get(nextMemory.getAndIncrement() % duplicateMemories.size());
+            final DuplicateDetector duplicateDetector = duplicateStore
+                .<DuplicateDetector>map(store -> new SharedDuplicateDetector(duplicateMemory, store, mapperConfiguration.duplicateDetector.timeout))
+                .orElse(duplicateMemory);
+            return new IncomingRequestProcessor(vc, sinksByName, mappingPoolsByName, geoipLookupService, schemaRegistry, listener, Optional.of(duplicateDetector));
+        };
+    }
+
+    @Override
+    public void stop() {
+        // Stop the mapper threads first, so that they no longer hand events to the mapping pools.
+        super.stop();
+        mappingPoolsByName.values().forEach(ProcessingPool::stop);
+        // With the mapper threads stopped, the duplicate memories are no longer in use.
+        duplicateMemorySnapshot.ifPresent(file -> {
+            logger.info("Saving duplicate memory snapshot to {}.", file);
+            try {
+                DuplicateMemorySnapshot.save(file, duplicateMemories);
+            } catch (final IOException e) {
+                logger.warn("Failed to save duplicate memory snapshot: " + file, e);
+            }
+        });
+        duplicateStore.ifPresent(RedisDuplicateStore::close);
     }
 
     private static Optional<LookupService> lookupServiceFromConfig(final ValidatedConfiguration vc) {
@@ -45,10 +45,27 @@ public final class IncomingRequestProcessor implements ItemProcessor<UndertowEve
 
     public static final AttachmentKey<Boolean> DUPLICATE_EVENT_KEY = AttachmentKey.create(Boolean.class);
 
-    private final ShortTermDuplicateMemory memory;
+    // Duplicates are detected for up to this many events at once.
+    private static final int MAX_BATCH_SIZE = 128;
+
+    private final DuplicateDetector duplicateDetector;
+    private final EventHasher hasher = new EventHasher();
+
+    // The events whose duplicates are yet to be detected; reused for every batch.
+    @SuppressWarnings("unchecked")
+    private final Item<UndertowEvent>[] batchItems = (Item<UndertowEvent>[]) new Item<?>[MAX_BATCH_SIZE];
+    private final DivolteEvent[] batchEvents = new DivolteEvent[MAX_BATCH_SIZE];
+    private final long[] batchHashLows = new long[MAX_BATCH_SIZE];
+    private final long[] batchHashHighs = new long[MAX_BATCH_SIZE];
+    private final boolean[] batchDuplicates = new boolean[MAX_BATCH_SIZE];
+    private int batchSize;
 
     // Given a source index, which mappings do we need to apply.
+    // (Empty if the mappings have pools of their own.)
     private final ImmutableList<ImmutableList<Mapping>> mappingsBySourceIndex;
+    // Given a source index, which mapping pools do we need to hand the event to.
+    // (Empty if the mappings are applied on this thread.)
+    private final ImmutableList<ImmutableList<MappingProcessingPool>> mappingPoolsBySourceIndex;
     // Given a mapping index, which sinks do we need to send it to.
     private final ImmutableList<ImmutableList<ProcessingPool<?, AvroRecordBuffer>>> sinksByMappingIndex;
 
@@ -57,52 +74,41 @@ public final class IncomingRequestProcessor implements ItemProcessor<UndertowEve
                                     final Optional<LookupService> geoipLookupService,
                                     final SchemaRegistry schemaRegistry,
                                     final IncomingRequestListener listener) {
+        this(vc, sinksByName, ImmutableMap.of(), geoipLookupService, schemaRegistry, listener, Optional.empty());
+    }
 
-        memory = new ShortTermDuplicateMemory(vc.configuration().global.mapper.duplicateMemorySize);
-
-        /*
-         * Create all Mapping instances based on their config.
-         */
-        final Map<String, Mapping> mappingsByName = vc.configuration()
-          .mappings
-          .entrySet()
-          .stream()
-          .collect(Collectors.toMap(Map.Entry::getKey,
-                                    kv -> new Mapping(vc,
-                                                      kv.getKey(),
-                                                      geoipLookupService,
-                                                      schemaRegistry,
-                                                      listener)));
-
-        /*
-         * Create a mapping from source index to a list of Mapping's that apply
-         * to events generated from that source index. Finally, we use a
-         * ImmutableList<ImmutableList<Mapping>> as result, not a
-         * Map<Integer, ImmutableList<Mapping>> because that way the backing
-         * data structure is effectively a two-dimensional array and no hashing
-         * is required for retrieval (list indexes are ints already).
-         */
-        final ArrayList<ImmutableList<Mapping>> sourceMappingResult =             // temporary mutable container for the result
-                IntStream.range(0, vc.configuration().sources.size())
-                         .<ImmutableList<Mapping>>mapToObj(ignored -> ImmutableList.of())     // initialized with empty lists per default
-                         .collect(Collectors.toCollection(ArrayList::new));
+    public IncomingRequestProcessor(final ValidatedConfiguration vc,
+                                    final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
+                                    final ImmutableMap<String, MappingProcessingPool> mappingPoolsByName,
+                                    final Optional<LookupService> geoipLookupService,
+                                    final SchemaRegistry schemaRegistry,
+                                    final IncomingRequestListener listener,
+                                    final Optional<DuplicateDetector> duplicateDetector) {
 
-        vc.configuration()
-          .mappings
-          .entrySet()
-          .stream()                                                               // stream of entries (mapping_name, mapping_configuration)
-          .flatMap(kv -> kv.getValue()
-                           .sources
-                           .stream()
-                           .map(s -> Maps.immutableEntry(vc.configuration().sourceIndex(s),
-                                                         kv.getKey())))           // Results in stream of (source_index, mapping_name)
-          .collect(Collectors.groupingBy(Map.Entry::getKey,
-                                         Collectors.mapping(e -> mappingsByName.get(e.getValue()),
-                                                            ImmutableList.toImmutableList())
-                  ))                                                              // Results in a Map<Integer, ImmutableList<Mapping>> where the key is the source index
-          .forEach(sourceMappingResult::set);                                     // Populate the temporary result in ArrayList<ImmutableList<Mapping>>
+        // Without a detector to use, the processor (thread) has a memory of its own.
+        this.duplicateDetector = duplicateDetector.orElseGet(() -> DuplicateMemory.forConfiguration(vc.configuration().global.mapper));
 
-        mappingsBySourceIndex = ImmutableList.copyOf(sourceMappingResult);        // Make immutable copy
+        if (mappingPoolsByName.isEmpty()) {
+            /*
+             * Create all Mapping instances based on their config.
+             */
+            final Map<String, Mapping> mappingsByName = vc.configuration()
+              .mappings
+              .entrySet()
+              .stream()
+              .collect(Collectors.toMap(Map.Entry::getKey,
+                                        kv -> new Mapping(vc,
+                                                          kv.getKey(),
+                                                          geoipLookupService,
+                                                          schemaRegistry,
+                                                          listener)));
+            mappingsBySourceIndex = groupBySourceIndex(vc, mappingsByName);
+            mappingPoolsBySourceIndex = ImmutableList.of();
+        } else {
+            // The pools have Mapping instances of their own; we only hand them the events.
+            mappingsBySourceIndex = ImmutableList.of();
+            mappingPoolsBySourceIndex = groupBySourceIndex(vc, mappingPoolsByName);
+        }
 
         /*
          * Create a mapping from mapping index to a list of sinks (ProcessingPools)
@@ -127,39 +133,151 @@ public final class IncomingRequestProcessor implements ItemProcessor<UndertowEve
             .entrySet()
             .stream()
             .map(kv -> Maps.immutableEntry(vc.configuration().mappingIndex(kv.getKey()),
-                                           kv.getValue()
-                                             .sinks
-                                             .stream()
-                                             .filter(sinksByName::containsKey)
-                                             .map(sinksByName::get)
-                                             .collect(ImmutableList.toImmutableList())))
+                                           sinksForMapping(vc, kv.getKey(), sinksByName)))
             .forEach(kv -> mappingMappingResult.set(kv.getKey(), kv.getValue()));
         sinksByMappingIndex = ImmutableList.copyOf(mappingMappingResult);
     }
 
+    private static <T> ImmutableList<ImmutableList<T>> groupBySourceIndex(final ValidatedConfiguration vc,
+                                                                           final Map<String, T> byMappingName) {
+        /*
+         * Create a mapping from source index to a list of Mapping's (or their
+         * pools) that apply to events generated from that source index. Finally,
+         * we use a ImmutableList<ImmutableList<T>> as result, not a
+         * Map<Integer, ImmutableList<T>> because that way the backing
+         * data structure is effectively a two-dimensional array and no hashing
+         * is required for retrieval (list indexes are ints already).
+         */
+        final ArrayList<ImmutableList<T>> sourceMappingResult =                   // temporary mutable container for the result
+                IntStream.range(0, vc.configuration().sources.size())
+                         .<ImmutableList<T>>mapToObj(ignored -> ImmutableList.of())           // initialized with empty lists per default
+                         .collect(Collectors.toCollection(ArrayList::new));
+
+        vc.configuration()
+          .mappings
+          .entrySet()
+          .stream()                                                               // stream of entries (mapping_name, mapping_configuration)
+          .flatMap(kv -> kv.getValue()
+                           .sources
+                           .stream()
+                           .map(s -> Maps.immutableEntry(vc.configuration().sourceIndex(s),
+                                                         kv.getKey())))           // Results in stream of (source_index, mapping_name)
+          .collect(Collectors.groupingBy(Map.Entry::getKey,
+                                         Collectors.mapping(e -> byMappingName.get(e.getValue()),
+                                                            ImmutableList.toImmutableList())
+                  ))                                                              // Results in a Map<Integer, ImmutableList<T>> where the key is the source index
+          .forEach(sourceMappingResult::set);                                     // Populate the temporary result in ArrayList<ImmutableList<T>>
+
+        return ImmutableList.copyOf(sourceMappingResult);                         // Make immutable copy
+    }
+
+    static ImmutableList<ProcessingPool<?, AvroRecordBuffer>> sinksForMapping(final ValidatedConfiguration vc,
+                                                                                final String mappingName,
+                                                                                final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName) {
+        return vc.configuration()
+                 .mappings
+                 .get(mappingName)
+                 .sinks
+                 .stream()
+                 .filter(sinksByName::containsKey)
+                 .map(sinksByName::get)
+                 .collect(ImmutableList.toImmutableList());
+    }
+
     @Override
     public ProcessingDirective process(final Item<UndertowEvent> item) {
+        addToBatch(item);
+        processBatch();
+        return CONTINUE;
+    }
+
+    @Override
+    public ProcessingDirective process(final Queue<Item<UndertowEvent>> batch) {
+        // Duplicates are detected for many events at once, in case the detector has to
+        // consult a remote store.
+        while (!batch.isEmpty()) {
+            addToBatch(batch.remove());
+            if (MAX_BATCH_SIZE == batchSize) {
+                processBatch();
+            }
+        }
+        processBatch();
+        return CONTINUE;
+    }
+
+    private void addToBatch(final Item<UndertowEvent> item) {
         final DivolteEvent event;
         try {
             event = item.payload.parseRequest();
         } catch (final IncompleteRequestException e) {
             logger.debug("Improper request received from {}.", Optional.ofNullable(item.payload.exchange.getSourceAddress()).map(InetSocketAddress::getHostString).orElse("<UNKNOWN HOST>"));
-            return CONTINUE;
+            return;
         }
 
-        final boolean duplicate = memory.isProbableDuplicate(event.partyId.value, event.sessionId.value, event.eventId);
+        hasher.hash(event.partyId.value, event.sessionId.value, event.eventId);
+        batchItems[batchSize] = item;
+        batchEvents[batchSize] = event;
+        batchHashLows[batchSize] = hasher.low();
+        batchHashHighs[batchSize] = hasher.high();
+        ++batchSize;
+    }
+
+    private void processBatch() {
+        duplicateDetector.detectDuplicates(batchHashLows, batchHashHighs, batchSize, batchDuplicates);
+        for (int i = 0; i < batchSize; ++i) {
+            process(batchItems[i], batchEvents[i], batchDuplicates[i]);
+            batchItems[i] = null;
+            batchEvents[i] = null;
+        }
+        batchSize = 0;
+    }
+
+    private void process(final Item<UndertowEvent> item, final DivolteEvent event, final boolean duplicate) {
         event.exchange.putAttachment(DUPLICATE_EVENT_KEY, duplicate);
 
-        mappingsBySourceIndex.get(item.sourceId)
-                             .stream()
-                             // For each mapping that applies to this source
-                             .map(mapping -> mapping.map(item, event, duplicate))
-                             .filter(Optional::isPresent)
-                             // Filter discarded for duplication or corruption
-                             .map(Optional::get)
-                             .forEach(bufferItem -> sinksByMappingIndex.get(bufferItem.sourceId)
-                                                                       // For each sink that applies to this mapping
-                                                                       .forEach(sink -> sink.enqueue(bufferItem)));
-        return CONTINUE;
+        if (mappingPoolsBySourceIndex.isEmpty()) {
+            mappingsBySourceIndex.get(item.sourceId)
+                                 .stream()
+                                 // For each mapping that applies to this source
+                                 .map(mapping -> mapping.map(item, event, duplicate))
+                                 .filter(Optional::isPresent)
+                                 // Filter discarded for duplication or corruption
+                                 .map(Optional::get)
+                                 // For each sink that applies to this mapping
+                                 .forEach(bufferItem -> sendToSinks(bufferItem, sinksByMappingIndex.get(bufferItem.sourceId)));
+        } else {
+            // Mappings share the exchange, and the cookies are parsed on first use. Parse
+            // them here, so that the mapping threads only read the exchange.
+            event.exchange.getRequestCookies();
+            // The party affinity is kept, so each mapping still sees a party's events in order.
+            mappingPoolsBySourceIndex.get(item.sourceId).forEach(pool -> {
+                if (!pool.enqueue(Item.withCopiedAffinity(item.sourceId, item, event))) {
+                    logger.warn("Mapping rejected event; dropping it.");
+                }
+            });
+        }
+    }
+
+    static void sendToSinks(final Item<AvroRecordBuffer> bufferItem,
+                            final ImmutableList<ProcessingPool<?, AvroRecordBuffer>> sinks) {
+        sinks.forEach(sink -> {
+            // Each sink releases its own reference once it has flushed the event.
+            bufferItem.payload.retain();
+            switch (sink.admit(bufferItem)) {
+                case QUEUED:
+                    break;
+                case REJECTED:
+                    // The response has already been sent; all we can do is log.
+                    logger.warn("Sink rejected event; dropping it.");
+                    bufferItem.payload.release();
+                    break;
+                case SPILLED:
+                    // The sink will replay a copy from disk.
+                case DROPPED:
+                default:
+                    bufferItem.payload.release();
+            }
+        });
+        bufferItem.payload.release();
     }
 }
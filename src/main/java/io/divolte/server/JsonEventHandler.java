@@ -53,6 +53,7 @@ public class JsonEventHandler implements HttpHandler {
     private final IncomingRequestProcessingPool processingPool;
     private final int sourceIndex;
     private final String partyIdParameter;
+    private final boolean dispatchToWorker;
 
     private final AsyncRequestBodyReceiver receiver;
 
@@ -63,6 +64,7 @@ public class JsonEventHandler implements HttpHandler {
         this.processingPool   = Objects.requireNonNull(processingPool);
         this.sourceIndex      = sourceIndex;
         this.partyIdParameter = Objects.requireNonNull(partyIdParameter);
+        this.dispatchToWorker = processingPool.mayBlock();
 
         receiver = new AsyncRequestBodyReceiver(maximumBodySize);
     }
@@ -72,33 +74,44 @@ public class JsonEventHandler implements HttpHandler {
         captureAndPersistSourceAddress(exchange);
 
         receiver.receive((body,length) -> {
-            try {
-                if (0 < length) {
-                    logEvent(exchange, body);
-                    exchange.setStatusCode(StatusCodes.NO_CONTENT);
-                } else {
-                    // Empty body; bad by definition.
-                    exchange.setStatusCode(StatusCodes.BAD_REQUEST);
-                }
-            } catch (final IncompleteRequestException e) {
-                // Improper request, could be anything.
-                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
-                logger.debug("Improper request received from {}.",
-                            Optional.ofNullable(exchange.getSourceAddress())
-                                    .map(InetSocketAddress::getHostString)
-                                    .orElse("<UNKNOWN HOST>"));
-            } finally {
-                exchange.endExchange();
+            if (dispatchToWorker && exchange.isInIoThread()) {
+                // Queueing the event may block, which must not hold up the other connections of the I/O thread.
+                exchange.dispatch(() -> handleBody(exchange, body, length));
+            } else {
+                handleBody(exchange, body, length);
             }
         }, exchange);
     }
 
+    private void handleBody(final HttpServerExchange exchange, final InputStream body, final int length) {
+        try {
+            if (0 < length) {
+                exchange.setStatusCode(logEvent(exchange, body)
+                                       ? StatusCodes.NO_CONTENT
+                                       // Rejected because we're overloaded.
+                                       : StatusCodes.SERVICE_UNAVAILABLE);
+            } else {
+                // Empty body; bad by definition.
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            }
+        } catch (final IncompleteRequestException e) {
+            // Improper request, could be anything.
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            logger.debug("Improper request received from {}.",
+                        Optional.ofNullable(exchange.getSourceAddress())
+                                .map(InetSocketAddress::getHostString)
+                                .orElse("<UNKNOWN HOST>"));
+        } finally {
+            exchange.endExchange();
+        }
+    }
+
 
-    private void logEvent(final HttpServerExchange exchange, final InputStream body) throws IncompleteRequestException {
+    private boolean logEvent(final HttpServerExchange exchange, final InputStream body) throws IncompleteRequestException {
         final DivolteIdentifier partyId = queryParamFromExchange(exchange, partyIdParameter).flatMap(DivolteIdentifier::tryParse)
                                                                                             .orElseThrow(IncompleteRequestException::new);
         final UndertowEvent event = new JsonUndertowEvent(Instant.now(), exchange, partyId, body);
-        processingPool.enqueue(Item.of(sourceIndex, partyId.value, event));
+        return processingPool.enqueue(Item.of(sourceIndex, partyId.value, event));
     }
 
     @ParametersAreNonnullByDefault
@@ -20,24 +20,35 @@ import java.util.Optional;
 
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.divolte.record.DefaultEventRecord;
+import io.divolte.server.config.KafkaSinkConfiguration;
+import io.divolte.server.config.KafkaSinkMode;
 import io.divolte.server.config.MappingConfiguration;
 import io.divolte.server.config.ValidatedConfiguration;
 import io.divolte.server.ip2geo.LookupService;
 import io.divolte.server.processing.Item;
 import io.divolte.server.recordmapping.DslRecordMapper;
 import io.divolte.server.recordmapping.DslRecordMapping;
+import io.divolte.server.recordmapping.MappedRecordWriter;
 import io.divolte.server.recordmapping.UserAgentParserAndCache;
+import io.divolte.server.topicsinks.kafka.Serializers;
 
 public class Mapping {
     private static final Logger logger = LoggerFactory.getLogger(Mapping.class);
 
     private final DslRecordMapper mapper;
+    // Mappings are confined to a single thread, so the writer need not be shared.
+    private final DatumWriter<GenericRecord> writer;
     private final boolean keepCorrupted;
     private final boolean keepDuplicates;
+    private final boolean compiled;
+    // The header to serialize records with, so a Kafka sink can send them without copying.
+    private final Optional<byte[]> recordHeader;
     private final int mappingIndex;
 
     private final IncomingRequestListener listener;
@@ -51,11 +62,14 @@ public class Mapping {
         this.listener = listener;
 
         final MappingConfiguration mappingConfiguration = vc.configuration().mappings.get(mappingName);
-        final Schema schema = schemaRegistry.getSchemaByMappingName(mappingName).avroSchema;
+        final DivolteSchema divolteSchema = schemaRegistry.getSchemaByMappingName(mappingName);
+        final Schema schema = divolteSchema.avroSchema;
 
         this.mappingIndex = vc.configuration().mappingIndex(mappingName);
         this.keepCorrupted = !mappingConfiguration.discardCorrupted;
         this.keepDuplicates = !mappingConfiguration.discardDuplicates;
+        this.compiled = mappingConfiguration.compiled;
+        this.recordHeader = recordHeader(vc, mappingConfiguration, divolteSchema);
 
         this.mapper = mappingConfiguration.mappingScriptFile
             .map((mappingScriptFile) -> {
@@ -65,52 +79,81 @@ public class Mapping {
                 logger.info("Using built in default schema mapping.");
                 return new DslRecordMapper(DefaultEventRecord.getClassSchema(), defaultRecordMapping(vc));
             });
+        final Schema recordSchema = mappingConfiguration.mappingScriptFile.isPresent() ? schema : DefaultEventRecord.getClassSchema();
+        this.writer = compiled ? new MappedRecordWriter(recordSchema) : new SpecificDatumWriter<>(recordSchema);
+    }
+
+    private static Optional<byte[]> recordHeader(final ValidatedConfiguration vc,
+                                                 final MappingConfiguration mappingConfiguration,
+                                                 final DivolteSchema schema) {
+        /*
+         * If records are (also) sent to Kafka, we reserve room for the header that the
+         * first Kafka sink needs in front of them. Other sinks are not affected, but
+         * such records do not use the pooled buffers.
+         */
+        if (!vc.configuration().global.kafka.enabled) {
+            return Optional.empty();
+        }
+        return mappingConfiguration.sinks
+            .stream()
+            .map(vc.configuration().sinks::get)
+            .filter(sink -> sink instanceof KafkaSinkConfiguration)
+            .map(sink -> ((KafkaSinkConfiguration) sink).mode)
+            .findFirst()
+            .filter(mode -> mode != KafkaSinkMode.CONFLUENT || schema.confluentId.isPresent())
+            .map(mode -> Serializers.recordHeader(mode == KafkaSinkMode.CONFLUENT, schema.confluentId));
     }
 
     private DslRecordMapping defaultRecordMapping(final ValidatedConfiguration vc) {
         final DslRecordMapping result = new DslRecordMapping(DefaultEventRecord.getClassSchema(), new UserAgentParserAndCache(vc), Optional.empty());
-        result.map("detectedCorruption", result.corrupt());
-        result.map("detectedDuplicate", result.duplicate());
-        result.map("firstInSession", result.firstInSession());
-        result.map("timestamp", result.timestamp());
-        result.map("clientTimestamp", result.clientTimestamp());
-        result.map("remoteHost", result.remoteHost());
-        result.map("referer", result.referer());
-        result.map("location", result.location());
-        result.map("viewportPixelWidth", result.viewportPixelWidth());
-        result.map("viewportPixelHeight", result.viewportPixelHeight());
-        result.map("screenPixelWidth", result.screenPixelWidth());
-        result.map("screenPixelHeight", result.screenPixelHeight());
-        result.map("partyId", result.partyId());
-        result.map("sessionId", result.sessionId());
-        result.map("pageViewId", result.pageViewId());
-        result.map("eventType", result.eventType());
-        result.map("userAgentString", result.userAgentString());
-        final DslRecordMapping.UserAgentValueProducer userAgent = result.userAgent();
-        result.map("userAgentName", userAgent.name());
-        result.map("userAgentFamily", userAgent.family());
-        result.map("userAgentVendor", userAgent.vendor());
-        result.map("userAgentType", userAgent.type());
-        result.map("userAgentVersion", userAgent.version());
-        result.map("userAgentDeviceCategory", userAgent.deviceCategory());
-        result.map("userAgentOsFamily", userAgent.osFamily());
-        result.map("userAgentOsVersion", userAgent.osVersion());
-        result.map("userAgentOsVendor", userAgent.osVendor());
+        result.build(() -> {
+            result.map("detectedCorruption", result.corrupt());
+            result.map("detectedDuplicate", result.duplicate());
+            result.map("firstInSession", result.firstInSession());
+            result.map("timestamp", result.timestamp());
+            result.map("clientTimestamp", result.clientTimestamp());
+            result.map("remoteHost", result.remoteHost());
+            result.map("referer", result.referer());
+            result.map("location", result.location());
+            result.map("viewportPixelWidth", result.viewportPixelWidth());
+            result.map("viewportPixelHeight", result.viewportPixelHeight());
+            result.map("screenPixelWidth", result.screenPixelWidth());
+            result.map("screenPixelHeight", result.screenPixelHeight());
+            result.map("partyId", result.partyId());
+            result.map("sessionId", result.sessionId());
+            result.map("pageViewId", result.pageViewId());
+            result.map("eventType", result.eventType());
+            result.map("userAgentString", result.userAgentString());
+            final DslRecordMapping.UserAgentValueProducer userAgent = result.userAgent();
+            result.map("userAgentName", userAgent.name());
+            result.map("userAgentFamily", userAgent.family());
+            result.map("userAgentVendor", userAgent.vendor());
+            result.map("userAgentType", userAgent.type());
+            result.map("userAgentVersion", userAgent.version());
+            result.map("userAgentDeviceCategory", userAgent.deviceCategory());
+            result.map("userAgentOsFamily", userAgent.osFamily());
+            result.map("userAgentOsVersion", userAgent.osVersion());
+            result.map("userAgentOsVendor", userAgent.osVendor());
+        });
         return result;
     }
 
-    public Optional<Item<AvroRecordBuffer>> map(final Item<UndertowEvent> originalIem,
+    public Optional<Item<AvroRecordBuffer>> map(final Item<?> originalIem,
                                                 final DivolteEvent parsedEvent,
                                                 final boolean duplicate) {
         if (
                 (keepDuplicates || !duplicate) &&
                 (keepCorrupted || !parsedEvent.corruptEvent)) {
-            final GenericRecord avroRecord = mapper.newRecordFromExchange(parsedEvent);
+            final GenericRecord avroRecord = compiled
+                    ? mapper.newMappedRecordFromExchange(parsedEvent)
+                    : mapper.newRecordFromExchange(parsedEvent);
             final AvroRecordBuffer avroBuffer = AvroRecordBuffer.fromRecord(parsedEvent.partyId,
                                                                             parsedEvent.sessionId,
                                                                             parsedEvent.eventId,
                                                                             parsedEvent.requestStartTime,
-                                                                            avroRecord);
+                                                                            avroRecord,
+                                                                            writer,
+                                                                            recordHeader);
 
             /*
              * We should really think of a way to get rid of this and test the
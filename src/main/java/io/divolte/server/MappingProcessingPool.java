@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import io.divolte.server.config.MapperConfiguration;
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.ip2geo.LookupService;
+import io.divolte.server.processing.ProcessingPool;
+
+/*
+ * A pool of threads dedicated to a single mapping. Events are distributed over
+ * the threads by party, in the same way as for the mapper threads.
+ */
+@ParametersAreNonnullByDefault
+final class MappingProcessingPool extends ProcessingPool<MappingProcessor, DivolteEvent> {
+    private MappingProcessingPool(final ValidatedConfiguration vc,
+                                  final String mappingName,
+                                  final ImmutableList<ProcessingPool<?, AvroRecordBuffer>> sinks,
+                                  final Optional<LookupService> geoipLookupService,
+                                  final SchemaRegistry schemaRegistry,
+                                  final IncomingRequestListener listener) {
+        super(vc.configuration().global.mapper.mappingThreads,
+              vc.configuration().global.mapper.bufferSize,
+              vc.configuration().global.mapper.queueType,
+              vc.configuration().global.mapper.overflowPolicy,
+              vc.configuration().global.mapper.overflowTimeout,
+              "Mapping Processor (" + mappingName + ")",
+              () -> new MappingProcessor(new Mapping(vc, mappingName, geoipLookupService, schemaRegistry, listener), sinks));
+    }
+
+    /**
+     * Create a pool for each configured mapping, if the configuration asks for it.
+     *
+     * @return the pools, by mapping name; empty if mappings should be applied on the
+     *      mapper threads instead.
+     */
+    static ImmutableMap<String, MappingProcessingPool> createPools(final ValidatedConfiguration vc,
+                                                                   final ImmutableMap<String, ProcessingPool<?, AvroRecordBuffer>> sinksByName,
+                                                                   final Optional<LookupService> geoipLookupService,
+                                                                   final SchemaRegistry schemaRegistry,
+                                                                   final IncomingRequestListener listener) {
+        final MapperConfiguration mapperConfiguration = vc.configuration().global.mapper;
+        if (0 == mapperConfiguration.mappingThreads) {
+            return ImmutableMap.of();
+        }
+        return vc.configuration()
+                 .mappings
+                 .keySet()
+                 .stream()
+                 .collect(ImmutableMap.toImmutableMap(
+                         name -> name,
+                         name -> new MappingProcessingPool(vc,
+                                                           name,
+                                                           IncomingRequestProcessor.sinksForMapping(vc, name, sinksByName),
+                                                           geoipLookupService,
+                                                           schemaRegistry,
+                                                           listener)));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static io.divolte.server.processing.ItemProcessor.ProcessingDirective.*;
+
+import java.util.Objects;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.collect.ImmutableList;
+
+import io.divolte.server.processing.Item;
+import io.divolte.server.processing.ItemProcessor;
+import io.divolte.server.processing.ProcessingPool;
+
+/*
+ * Applies a single mapping to events that have already been parsed and checked
+ * for duplicates by an IncomingRequestProcessor. Other mappings may be processing
+ * the same event at the same time, so the exchange must only be read.
+ */
+@ParametersAreNonnullByDefault
+final class MappingProcessor implements ItemProcessor<DivolteEvent> {
+    private final Mapping mapping;
+    private final ImmutableList<ProcessingPool<?, AvroRecordBuffer>> sinks;
+
+    MappingProcessor(final Mapping mapping, final ImmutableList<ProcessingPool<?, AvroRecordBuffer>> sinks) {
+        this.mapping = Objects.requireNonNull(mapping);
+        this.sinks = Objects.requireNonNull(sinks);
+    }
+
+    @Override
+    public ProcessingDirective process(final Item<DivolteEvent> item) {
+        final DivolteEvent event = item.payload;
+        final boolean duplicate = Boolean.TRUE.equals(event.exchange.getAttachment(IncomingRequestProcessor.DUPLICATE_EVENT_KEY));
+        mapping.map(item, event, duplicate)
+               .ifPresent(bufferItem -> IncomingRequestProcessor.sendToSinks(bufferItem, sinks));
+        return CONTINUE;
+    }
+}
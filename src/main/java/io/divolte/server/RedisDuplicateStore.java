@@ -0,0 +1,386 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.primitives.Bytes;
+
+/**
+ * A client for a Redis server (or anything that speaks its protocol) that is shared
+ * by multiple servers to remember which events have been seen.
+ * <p>
+ * Each event is claimed with a <code>SET key 1 NX PX window</code> command, where the
+ * key is derived from the hash of the event properties: if the key was already set,
+ * another server (or this one) has seen the event within the window. The commands for
+ * a batch of events are queued as a whole, and written by a thread of the client's own;
+ * replies are read by another. This means that claims of multiple batches, from
+ * multiple threads, are pipelined over a single connection, and that claiming never
+ * blocks on the network.
+ * <p>
+ * Claims fail immediately while the client is not connected, or when too many claims
+ * are queued or awaiting replies. If the store doesn't reply to a claim within the
+ * timeout, the connection is dropped. Either way, the client reconnects in the
+ * background.
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+final class RedisDuplicateStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RedisDuplicateStore.class);
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    // The hash is used as the key, in hexadecimal.
+    private static final int HASH_DIGITS = 2 * 2 * Long.BYTES;
+    // Claims are batches of events, so these are plenty for the mapper threads of a server.
+    static final int MAX_QUEUED_CLAIMS = 64;
+    static final int MAX_PENDING_CLAIMS = 1024;
+
+    private final InetSocketAddress address;
+    private final int timeoutMillis;
+    private final long timeoutNanos;
+    private final long retryIntervalMillis;
+    // Everything in a command before and after the hexadecimal digits of the hash.
+    private final byte[] commandPrefix;
+    private final byte[] commandSuffix;
+
+    // The claims that are yet to be written.
+    private final BlockingQueue<PendingClaim> queuedClaims = new ArrayBlockingQueue<>(MAX_QUEUED_CLAIMS);
+
+    private final Object lock = new Object();
+    @GuardedBy("lock") @Nullable private Connection connection;
+    // The claims that have been written, in the order they were written.
+    @GuardedBy("lock") private final Queue<PendingClaim> pendingClaims = new ArrayDeque<>();
+    // Read without the lock, to fail claims early while disconnected.
+    private volatile boolean connected;
+
+    private final Thread readerThread;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    RedisDuplicateStore(final String host,
+                        final int port,
+                        final String keyPrefix,
+                        final Duration window,
+                        final Duration timeout,
+                        final Duration retryInterval) {
+        this.address = InetSocketAddress.createUnresolved(host, port);
+        this.timeoutMillis = (int) Math.max(1, Math.min(timeout.toMillis(), Integer.MAX_VALUE));
+        this.timeoutNanos = timeout.toNanos();
+        this.retryIntervalMillis = retryInterval.toMillis();
+
+        final byte[] key = Objects.requireNonNull(keyPrefix).getBytes(StandardCharsets.UTF_8);
+        final String windowMillis = Long.toString(window.toMillis());
+        commandPrefix = Bytes.concat(ascii("*6\r\n$3\r\nSET\r\n$" + (key.length + HASH_DIGITS) + "\r\n"), key);
+        commandSuffix = ascii("\r\n$1\r\n1\r\n$2\r\nNX\r\n$2\r\nPX\r\n$" + windowMillis.length() + "\r\n" + windowMillis + "\r\n");
+
+        readerThread = new Thread(this::readReplies, "Duplicate store reader - " + host + ':' + port);
+        readerThread.setDaemon(true);
+        writerThread = new Thread(this::writeClaims, "Duplicate store writer - " + host + ':' + port);
+        writerThread.setDaemon(true);
+        readerThread.start();
+        writerThread.start();
+    }
+
+    private static byte[] ascii(final String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Claim a batch of events. This never blocks.
+     *
+     * @param hashLows  The low longs of the hashes of the event properties, as computed by {@link EventHasher}.
+     * @param hashHighs The high longs of the hashes of the event properties.
+     * @param count     The number of events in the batch.
+     * @return a future that completes with, for each event, whether it had already been
+     *  claimed. The future fails if the store can't be reached, or if too many claims
+     *  are outstanding. The arrays can be reused as soon as this method returns.
+     */
+    CompletableFuture<boolean[]> claim(final long[] hashLows, final long[] hashHighs, final int count) {
+        final PendingClaim claim = new PendingClaim(encodeCommands(hashLows, hashHighs, count), count);
+        if (0 == count) {
+            claim.future.complete(claim.seenBefore);
+        } else if (!connected) {
+            claim.future.completeExceptionally(new IOException("Not connected to duplicate store at " + address));
+        } else if (!queuedClaims.offer(claim)) {
+            claim.future.completeExceptionally(new IOException("Too many claims queued for duplicate store at " + address));
+        }
+        return claim.future;
+    }
+
+    private byte[] encodeCommands(final long[] hashLows, final long[] hashHighs, final int count) {
+        final int commandLength = commandPrefix.length + HASH_DIGITS + commandSuffix.length;
+        final byte[] commands = new byte[count * commandLength];
+        for (int i = 0, offset = 0; i < count; ++i, offset += commandLength) {
+            System.arraycopy(commandPrefix, 0, commands, offset, commandPrefix.length);
+            int digit = offset + commandPrefix.length;
+            digit = encodeHex(hashLows[i], commands, digit);
+            digit = encodeHex(hashHighs[i], commands, digit);
+            System.arraycopy(commandSuffix, 0, commands, digit, commandSuffix.length);
+        }
+        return commands;
+    }
+
+    private static int encodeHex(final long value, final byte[] target, final int offset) {
+        for (int shift = Long.SIZE - 4, i = offset; 0 <= shift; shift -= 4, ++i) {
+            target[i] = HEX_DIGITS[(int) (value >>> shift) & 0xf];
+        }
+        return offset + Long.BYTES * 2;
+    }
+
+    private void writeClaims() {
+        while (running) {
+            final PendingClaim claim;
+            try {
+                claim = queuedClaims.take();
+            } catch (final InterruptedException e) {
+                // Only happens when closing.
+                continue;
+            }
+            final Connection current;
+            synchronized (lock) {
+                current = connection;
+                if (null == current) {
+                    claim.future.completeExceptionally(new IOException("Not connected to duplicate store at " + address));
+                    continue;
+                }
+                if (MAX_PENDING_CLAIMS <= pendingClaims.size()) {
+                    claim.future.completeExceptionally(new IOException("Too many claims awaiting replies from duplicate store at " + address));
+                    continue;
+                }
+                claim.writtenNanos = System.nanoTime();
+                pendingClaims.add(claim);
+            }
+            // Written without the lock: this blocks if the store stops reading, until the
+            // reader notices that replies are overdue and drops the connection.
+            try {
+                current.output.write(claim.commands);
+                if (queuedClaims.isEmpty()) {
+                    current.output.flush();
+                }
+            } catch (final IOException e) {
+                // The reader notices too, and fails the pending claims.
+                closeQuietly(current.socket);
+            }
+        }
+    }
+
+    private void readReplies() {
+        boolean wasConnected = true;
+        while (running) {
+            try (final Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), timeoutMillis);
+                socket.setTcpNoDelay(true);
+                // Wake up regularly, to check whether replies are overdue.
+                socket.setSoTimeout(timeoutMillis);
+                final InputStream input = new BufferedInputStream(socket.getInputStream());
+                synchronized (lock) {
+                    if (!running) {
+                        // Closed while connecting.
+                        return;
+                    }
+                    connection = new Connection(socket, new BufferedOutputStream(socket.getOutputStream()));
+                    connected = true;
+                }
+                logger.info("Connected to duplicate store at {}.", address);
+                wasConnected = true;
+                for (;;) {
+                    if (awaitReply(input)) {
+                        readReply(input);
+                    }
+                }
+            } catch (final IOException e) {
+                if (wasConnected && running) {
+                    logger.warn("Duplicate store at " + address + " is unreachable; detecting duplicates locally until it is back.", e);
+                    wasConnected = false;
+                }
+                failPendingClaims(e);
+            }
+            if (running) {
+                sleepQuietly(retryIntervalMillis);
+            }
+        }
+    }
+
+    private boolean awaitReply(final InputStream input) throws IOException {
+        input.mark(1);
+        try {
+            if (-1 == input.read()) {
+                throw new IOException("Connection to duplicate store closed.");
+            }
+            input.reset();
+            return true;
+        } catch (final SocketTimeoutException e) {
+            final long oldestWrittenNanos;
+            synchronized (lock) {
+                final PendingClaim oldest = pendingClaims.peek();
+                if (null == oldest) {
+                    return false;
+                }
+                oldestWrittenNanos = oldest.writtenNanos;
+            }
+            if (timeoutNanos < System.nanoTime() - oldestWrittenNanos) {
+                // The connection is probably half-open; the store won't reply anymore.
+                throw new IOException("Duplicate store at " + address + " did not reply within " + timeoutMillis + " ms.", e);
+            }
+            return false;
+        }
+    }
+
+    private void readReply(final InputStream input) throws IOException {
+        final int type = input.read();
+        final String line = readLine(input);
+        final PendingClaim claim;
+        synchronized (lock) {
+            claim = pendingClaims.peek();
+        }
+        if (null == claim) {
+            throw new IOException("Unexpected reply from duplicate store: " + (char) type + line);
+        }
+        switch (type) {
+            case '+':
+                // OK: the key wasn't set, so we're the first to see the event.
+                claim.seenBefore[claim.replies] = false;
+                break;
+            case '$':
+                // A null reply: the key was set already.
+                if (!"-1".equals(line)) {
+                    throw new IOException("Unexpected reply from duplicate store: $" + line);
+                }
+                claim.seenBefore[claim.replies] = true;
+                break;
+            case '-':
+                claim.error = line;
+                break;
+            default:
+                throw new IOException("Unexpected reply from duplicate store: " + (char) type + line);
+        }
+        if (++claim.replies == claim.seenBefore.length) {
+            synchronized (lock) {
+                pendingClaims.remove();
+            }
+            if (null == claim.error) {
+                claim.future.complete(claim.seenBefore);
+            } else {
+                claim.future.completeExceptionally(new IOException("Duplicate store returned an error: " + claim.error));
+            }
+        }
+    }
+
+    private static String readLine(final InputStream input) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (int c = input.read(); '\r' != c; c = input.read()) {
+            if (-1 == c) {
+                throw new IOException("Connection to duplicate store closed.");
+            }
+            line.append((char) c);
+        }
+        if ('\n' != input.read()) {
+            throw new IOException("Malformed reply from duplicate store.");
+        }
+        return line.toString();
+    }
+
+    private void failPendingClaims(final IOException cause) {
+        synchronized (lock) {
+            connection = null;
+            connected = false;
+            pendingClaims.forEach(claim -> claim.future.completeExceptionally(cause));
+            pendingClaims.clear();
+        }
+    }
+
+    private static void sleepQuietly(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            // Only happens when closing, after which the reader stops.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(@Nullable final Socket socket) {
+        if (null != socket) {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                logger.debug("Error while closing connection to duplicate store.", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        synchronized (lock) {
+            if (null != connection) {
+                closeQuietly(connection.socket);
+            }
+        }
+        readerThread.interrupt();
+        writerThread.interrupt();
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        final OutputStream output;
+
+        Connection(final Socket socket, final OutputStream output) {
+            this.socket = socket;
+            this.output = output;
+        }
+    }
+
+    private static final class PendingClaim {
+        final CompletableFuture<boolean[]> future = new CompletableFuture<>();
+        final byte[] commands;
+        final boolean[] seenBefore;
+        // Guarded by the lock of the store.
+        long writtenNanos;
+        // Only accessed by the reader thread.
+        int replies;
+        @Nullable String error;
+
+        PendingClaim(final byte[] commands, final int count) {
+            this.commands = commands;
+            this.seenBefore = new boolean[count];
+        }
+    }
+}
@@ -89,6 +89,7 @@ public final class Server implements Runnable {
                   .filter(sink -> referencedSinkNames.contains(sink.getKey()))
                   .filter(sink -> vc.configuration().global.hdfs.enabled || !(sink.getValue() instanceof HdfsSinkConfiguration))
                   .filter(sink -> vc.configuration().global.gcs.enabled || !(sink.getValue() instanceof GoogleCloudStorageSinkConfiguration))
+                  .filter(sink -> vc.configuration().global.local.enabled || !(sink.getValue() instanceof LocalSinkConfiguration))
                   .filter(sink -> vc.configuration().global.kafka.enabled || !(sink.getValue() instanceof KafkaSinkConfiguration))
                   .filter(sink -> vc.configuration().global.gcps.enabled || !(sink.getValue() instanceof GoogleCloudPubSubSinkConfiguration))
                   .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey,
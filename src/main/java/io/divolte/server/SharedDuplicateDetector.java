@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detection of duplicate events across servers, using a store that they share.
+ * <p>
+ * Events are also checked against a local memory. This catches the duplicates that
+ * arrive at this server while the store is slow or unreachable, in which case only the
+ * local memory is used.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class SharedDuplicateDetector implements DuplicateDetector {
+    private static final Logger logger = LoggerFactory.getLogger(SharedDuplicateDetector.class);
+
+    private final DuplicateDetector localDetector;
+    private final RedisDuplicateStore store;
+    private final long timeoutNanos;
+    // Whether the last batch timed out, so that only a change is logged.
+    private boolean timingOut;
+
+    SharedDuplicateDetector(final DuplicateDetector localDetector,
+                            final RedisDuplicateStore store,
+                            final Duration timeout) {
+        this.localDetector = Objects.requireNonNull(localDetector);
+        this.store = Objects.requireNonNull(store);
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    @Override
+    public void detectDuplicates(final long[] hashLows, final long[] hashHighs, final int count, final boolean[] duplicates) {
+        // The local memory is checked while the store is working on the batch.
+        final CompletableFuture<boolean[]> claims = store.claim(hashLows, hashHighs, count);
+        localDetector.detectDuplicates(hashLows, hashHighs, count, duplicates);
+        try {
+            final boolean[] seenBefore = claims.get(timeoutNanos, TimeUnit.NANOSECONDS);
+            for (int i = 0; i < count; ++i) {
+                duplicates[i] |= seenBefore[i];
+            }
+            if (timingOut) {
+                logger.info("Duplicate store is responding in time again.");
+                timingOut = false;
+            }
+        } catch (final ExecutionException e) {
+            // The store logs when it becomes unreachable; this happens for every batch until it's back.
+            logger.debug("Failed to check events against duplicate store; using local memory only.", e.getCause());
+        } catch (final TimeoutException e) {
+            if (timingOut) {
+                logger.debug("Duplicate store did not respond in time; using local memory only.");
+            } else {
+                logger.warn("Duplicate store did not respond within {} ms; using local memory only until it does.",
+                            TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+                timingOut = true;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -16,15 +16,10 @@
 
 package io.divolte.server;
 
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
-import com.google.common.primitives.Ints;
-import com.google.common.primitives.Longs;
-
 import javax.annotation.ParametersAreNonnullByDefault;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Probabilistic detection of duplicate events in a stream with fixed memory overhead.
@@ -32,7 +27,7 @@ import javax.annotation.concurrent.NotThreadSafe;
  * This class is used to detect duplicates in an event stream. An event
  * is identified by an array of strings that represent characteristics of the
  * event. (The same values indicate the same logical event.) Invoking
- * {@link #isProbableDuplicate(String...)} not only returns whether the event
+ * {@link #isProbableDuplicate(long, long)} not only returns whether the event
  * is probably a duplicate or not, but also updates the internal state such
  * that the event has been 'seen'. (A second immediate invocation with the same
  * parameter will always return <code>true</code>.)
@@ -104,11 +99,10 @@ import javax.annotation.concurrent.NotThreadSafe;
  * positives at a rate of 1000 events / second.
  */
 @ParametersAreNonnullByDefault
-@NotThreadSafe
-final class ShortTermDuplicateMemory {
-    private static final HashFunction HASHING_FUNCTION = Hashing.murmur3_128();
-
-    private final long[] memory;
+@ThreadSafe
+final class ShortTermDuplicateMemory implements DuplicateMemory {
+    // Slots are swapped atomically, so that the memory can be shared between threads.
+    private final AtomicLongArray memory;
 
     /**
      * Construct an instance with a specific number of slots.
@@ -119,61 +113,36 @@ final class ShortTermDuplicateMemory {
      * @param slotCount the number of slots to use for detecting duplicate events.
      */
     public ShortTermDuplicateMemory(final int slotCount) {
-        memory = new long[slotCount];
+        memory = new AtomicLongArray(slotCount);
     }
 
-    /**
-     * Query whether an event has been seen before or not, based on event properties.
-     * @param eventProperties   An array of values that are specific to the event.
-     * @return <code>true</code> if we have probably seen this event previously, or
-     *  false otherwise.
-     */
-    public boolean isProbableDuplicate(final String... eventProperties) {
-        final Hasher hasher = HASHING_FUNCTION.newHasher();
-        for (final String eventProperty : eventProperties) {
-            hasher.putUnencodedChars(eventProperty);
-        }
-        return isProbablyDuplicate(hasher.hash());
+    @Override
+    public boolean isProbableDuplicate(final long hashLow, final long hashHigh) {
+        // Our hashing algorithm produces 16 bytes. We use the first 4 (as a
+        // big-endian int) to select the slot, and the last 8 as the signature.
+        final int slotSelector = Integer.reverseBytes((int) hashLow);
+        final long signature = hashHigh;
+
+        final int slot = (slotSelector & Integer.MAX_VALUE) % memory.length();
+        return memory.getAndSet(slot, signature) == signature;
     }
 
-    private boolean isProbablyDuplicate(final HashCode eventDigest) {
-        // Our hashing algorithm produces 8 bytes:
-        //  0: slot[0]
-        //  1: slot[1]
-        //  2: slot[2]
-        //  3: slot[3]
-        //  4:
-        //  5:
-        //  6:
-        //  7:
-        //  8: signature[0]
-        //  9:  ..
-        // 10:  ..
-        // 11:  ..
-        // 12:  ..
-        // 13:  ..
-        // 14:  ..
-        // 15: signature[7]
-        final byte[] hashBytes = eventDigest.asBytes();
+    @Override
+    public long snapshotSize() {
+        return (long) memory.length() * Long.BYTES;
+    }
 
-        // We use the low int for the slot.
-        final int slotSelector = Ints.fromBytes(hashBytes[0],
-                                                hashBytes[1],
-                                                hashBytes[2],
-                                                hashBytes[3]);
-        // We use the high long for the signature.
-        final long signature = Longs.fromBytes(hashBytes[8],
-                                               hashBytes[9],
-                                               hashBytes[10],
-                                               hashBytes[11],
-                                               hashBytes[12],
-                                               hashBytes[13],
-                                               hashBytes[14],
-                                               hashBytes[15]);
+    @Override
+    public void saveSnapshot(final long offset, final ByteBuffer snapshot) {
+        for (int slot = (int) (offset / Long.BYTES); snapshot.hasRemaining(); ++slot) {
+            snapshot.putLong(memory.get(slot));
+        }
+    }
 
-        final int slot = (slotSelector & Integer.MAX_VALUE) % memory.length;
-        final boolean result = memory[slot] == signature;
-        memory[slot] = signature;
-        return result;
+    @Override
+    public void restoreSnapshot(final long offset, final ByteBuffer snapshot) {
+        for (int slot = (int) (offset / Long.BYTES); snapshot.hasRemaining(); ++slot) {
+            memory.set(slot, snapshot.getLong());
+        }
     }
 }
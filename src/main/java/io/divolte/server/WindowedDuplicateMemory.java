@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Probabilistic detection of duplicate events that remembers events for a fixed
+ * window of time.
+ * <p>
+ * Like {@link ShortTermDuplicateMemory}, events are identified by a signature
+ * that is independent of the hash used to find their place in memory. Instead of
+ * a single slot, an event hashes to a bucket of 4 entries, each holding a signature
+ * and the time at which the event was last seen. An event is a duplicate if its
+ * signature is in its bucket and was seen less than the window ago. A new event
+ * replaces an entry that has expired, or otherwise the entry that was seen longest
+ * ago.
+ * <p>
+ * As a result, a duplicate within the window is only missed (a false negative) when
+ * 4 other events that hash to the same bucket are seen between the duplicates. If
+ * the number of events during the window is <em>n</em> and the number of buckets is
+ * <em>b</em>, this is approximately the probability that a Poisson distributed
+ * variable with mean <em>n/b</em> is 4 or more. For example, with 2 buckets (8
+ * entries) for every event in the window, about 0.2% of duplicates are missed.
+ * <p>
+ * The entries are kept off-heap, so the garbage collector doesn't need to scan them.
+ * Buckets are 64 bytes, so that looking up an event usually touches a single cache
+ * line. Buckets are guarded by striped locks, so that the memory can be shared between
+ * threads.
+ * <p>
+ * Because events are remembered with the time they were last seen, a snapshot that
+ * is restored later still forgets its events once the window has passed.
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+final class WindowedDuplicateMemory implements DuplicateMemory {
+    private static final int WAYS = 4;
+    // An entry is a signature, followed by the time it was last seen.
+    private static final int ENTRY_SIZE = 2 * Long.BYTES;
+    private static final int BUCKET_SIZE = WAYS * ENTRY_SIZE;
+    static final int MAX_ENTRY_COUNT = Integer.MAX_VALUE / BUCKET_SIZE * WAYS;
+    private static final int MAX_LOCK_STRIPES = 1024;
+
+    private final ByteBuffer memory;
+    private final int bucketCount;
+    private final long windowMillis;
+    private final Clock clock;
+    private final Object[] locks;
+
+    /**
+     * Construct an instance with a specific number of entries.
+     *
+     * @param entryCount the number of entries to use for detecting duplicate events;
+     *                   rounded up to a multiple of 4.
+     * @param window     how long events are remembered.
+     * @param clock      the clock used to determine when events are seen.
+     */
+    WindowedDuplicateMemory(final int entryCount, final Duration window, final Clock clock) {
+        Preconditions.checkArgument(0 < entryCount && entryCount <= MAX_ENTRY_COUNT,
+                                    "Number of entries must be between 1 and %s: %s", MAX_ENTRY_COUNT, entryCount);
+        bucketCount = (entryCount + WAYS - 1) / WAYS;
+        // Zeroed, which means the entries have expired long ago. Direct buffers are only
+        // guaranteed to be aligned to 8 bytes, so a bucket may straddle two cache lines.
+        memory = ByteBuffer.allocateDirect(bucketCount * BUCKET_SIZE).order(ByteOrder.nativeOrder());
+        windowMillis = window.toMillis();
+        this.clock = Objects.requireNonNull(clock);
+        locks = new Object[Math.min(bucketCount, MAX_LOCK_STRIPES)];
+        Arrays.setAll(locks, i -> new Object());
+    }
+
+    @Override
+    public boolean isProbableDuplicate(final long hashLow, final long hashHigh) {
+        // The same parts of the hash as the short-term memory: the first 4 bytes select
+        // the bucket, and the last 8 are the signature.
+        return isProbableDuplicate(Integer.reverseBytes((int) hashLow), hashHigh);
+    }
+
+    private boolean isProbableDuplicate(final int bucketSelector, final long signature) {
+        final long now = clock.millis();
+        final long expiredBefore = now - windowMillis;
+
+        final int bucketIndex = (bucketSelector & Integer.MAX_VALUE) % bucketCount;
+        synchronized (locks[bucketIndex % locks.length]) {
+            return isProbableDuplicate(bucketIndex * BUCKET_SIZE, signature, now, expiredBefore);
+        }
+    }
+
+    private boolean isProbableDuplicate(final int bucket, final long signature, final long now, final long expiredBefore) {
+        int replacedEntry = bucket;
+        long replacedLastSeen = Long.MAX_VALUE;
+        for (int entry = bucket; entry < bucket + BUCKET_SIZE; entry += ENTRY_SIZE) {
+            final long lastSeen = memory.getLong(entry + Long.BYTES);
+            if (lastSeen > expiredBefore && memory.getLong(entry) == signature) {
+                memory.putLong(entry + Long.BYTES, now);
+                return true;
+            }
+            if (lastSeen < replacedLastSeen) {
+                replacedEntry = entry;
+                replacedLastSeen = lastSeen;
+            }
+        }
+        memory.putLong(replacedEntry, signature);
+        memory.putLong(replacedEntry + Long.BYTES, now);
+        return false;
+    }
+
+    @Override
+    public long snapshotSize() {
+        return memory.capacity();
+    }
+
+    @Override
+    public void saveSnapshot(final long offset, final ByteBuffer snapshot) {
+        // Long by long, so that the snapshot needn't have the native byte order.
+        for (int position = (int) offset; snapshot.hasRemaining(); position += Long.BYTES) {
+            snapshot.putLong(memory.getLong(position));
+        }
+    }
+
+    @Override
+    public void restoreSnapshot(final long offset, final ByteBuffer snapshot) {
+        for (int position = (int) offset; snapshot.hasRemaining(); position += Long.BYTES) {
+            memory.putLong(position, snapshot.getLong());
+        }
+    }
+}
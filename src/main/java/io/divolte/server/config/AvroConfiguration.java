@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.config;
+
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.ParametersAreNullableByDefault;
+
+import org.apache.avro.file.CodecFactory;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+@ParametersAreNonnullByDefault
+public class AvroConfiguration {
+    private static final String DEFAULT_CODEC = "null";
+    // Blocks are only written when the file is synced.
+    private static final String DEFAULT_BLOCK_SIZE = "1073741824";
+
+    static final AvroConfiguration DEFAULT_AVRO_CONFIGURATION = new AvroConfiguration(null, null, null);
+
+    public final String codec;
+    public final Optional<Integer> compressionLevel;
+    public final int blockSize;
+
+    private final CodecFactory codecFactory;
+
+    @JsonCreator
+    @ParametersAreNullableByDefault
+    AvroConfiguration(@JsonProperty(defaultValue=DEFAULT_CODEC) final String codec,
+                      final Integer compressionLevel,
+                      @JsonProperty(defaultValue=DEFAULT_BLOCK_SIZE) final Integer blockSize) {
+        // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
+        this.codec = Optional.ofNullable(codec).orElse(DEFAULT_CODEC);
+        this.compressionLevel = Optional.ofNullable(compressionLevel);
+        this.blockSize = Optional.ofNullable(blockSize).orElseGet(() -> Integer.valueOf(DEFAULT_BLOCK_SIZE));
+        // The limits imposed by Avro's DataFileWriter.
+        Preconditions.checkArgument(32 <= this.blockSize && this.blockSize <= 1 << 30,
+                                    "Block size must be between 32 and 2^30 bytes: %s", this.blockSize);
+        this.codecFactory = createCodecFactory(this.codec, this.compressionLevel);
+    }
+
+    private static CodecFactory createCodecFactory(final String codec, final Optional<Integer> compressionLevel) {
+        switch (codec) {
+            case "deflate":
+                final int deflateLevel = compressionLevel.orElse(CodecFactory.DEFAULT_DEFLATE_LEVEL);
+                Preconditions.checkArgument(-1 <= deflateLevel && deflateLevel <= 9,
+                                            "Compression level for deflate must be between 0 and 9, or -1 for the default: %s", deflateLevel);
+                return CodecFactory.deflateCodec(deflateLevel);
+            case "xz":
+                final int xzLevel = compressionLevel.orElse(CodecFactory.DEFAULT_XZ_LEVEL);
+                Preconditions.checkArgument(0 <= xzLevel && xzLevel <= 9,
+                                            "Compression level for xz must be between 0 and 9: %s", xzLevel);
+                return CodecFactory.xzCodec(xzLevel);
+            default:
+                Preconditions.checkArgument(!compressionLevel.isPresent(),
+                                            "A compression level is not supported by codec: %s", codec);
+                // Throws an exception for codecs that Avro does not know about.
+                return CodecFactory.fromString(codec);
+        }
+    }
+
+    public CodecFactory codecFactory() {
+        return codecFactory;
+    }
+
+    @Override
+    public final String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("codec", codec)
+                .add("compressionLevel", compressionLevel)
+                .add("blockSize", blockSize).toString();
+    }
+}
@@ -168,7 +168,7 @@ public final class DivolteConfiguration {
     }
 
     private static ImmutableMap<String,SinkConfiguration> defaultSinkConfigurations() {
-        return ImmutableMap.of("hdfs", new HdfsSinkConfiguration((short) 1, FileStrategyConfiguration.DEFAULT_FILE_STRATEGY_CONFIGURATION),
+        return ImmutableMap.of("hdfs", new HdfsSinkConfiguration((short) 1, FileStrategyConfiguration.DEFAULT_FILE_STRATEGY_CONFIGURATION, null, null, null),
                                "kafka", new KafkaSinkConfiguration(null, KafkaSinkMode.NAKED),
                                "gcps", new GoogleCloudPubSubSinkConfiguration(null, null, null));
     }
@@ -181,6 +181,7 @@ public final class DivolteConfiguration {
                                                                    sourceNames,
                                                                    sinkNames,
                                                                    false,
+                                                                   false,
                                                                    false));
     }
 
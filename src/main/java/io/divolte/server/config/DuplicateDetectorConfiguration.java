@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+
+@ParametersAreNonnullByDefault
+public final class DuplicateDetectorConfiguration {
+    public final DetectorType type;
+    public final String host;
+    public final int port;
+    public final String keyPrefix;
+    public final Duration window;
+    public final Duration timeout;
+    public final Duration retryInterval;
+
+    @JsonCreator
+    DuplicateDetectorConfiguration(final DetectorType type,
+                                   final String host,
+                                   final int port,
+                                   final String keyPrefix,
+                                   final Duration window,
+                                   final Duration timeout,
+                                   final Duration retryInterval) {
+        this.type = Objects.requireNonNull(type);
+        this.host = Objects.requireNonNull(host);
+        this.port = port;
+        this.keyPrefix = Objects.requireNonNull(keyPrefix);
+        this.window = Objects.requireNonNull(window);
+        this.timeout = Objects.requireNonNull(timeout);
+        this.retryInterval = Objects.requireNonNull(retryInterval);
+        Preconditions.checkArgument(0 < port && port <= 65535, "Port must be between 1 and 65535: %s", port);
+        Preconditions.checkArgument(0 < window.toMillis(), "Window must be at least a millisecond: %s", window);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("type", type)
+                .add("host", host)
+                .add("port", port)
+                .add("keyPrefix", keyPrefix)
+                .add("window", window)
+                .add("timeout", timeout)
+                .add("retryInterval", retryInterval)
+                .toString();
+    }
+
+    @ParametersAreNonnullByDefault
+    public enum DetectorType {
+        /**
+         * Only the events seen by this server are considered.
+         */
+        LOCAL,
+        /**
+         * Events are also checked against a Redis server shared by multiple servers.
+         */
+        REDIS;
+
+        // Ensure that enumeration names are case-insensitive when parsing JSON.
+        @JsonCreator
+        static DetectorType fromJson(final String value) {
+            return DetectorType.valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+}
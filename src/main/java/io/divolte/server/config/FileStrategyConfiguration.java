@@ -17,6 +17,8 @@
 package io.divolte.server.config;
 
 import java.time.Duration;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.Optional;
 
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -25,6 +27,7 @@ import javax.annotation.ParametersAreNullableByDefault;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
 
 @ParametersAreNonnullByDefault
 public class FileStrategyConfiguration {
@@ -33,6 +36,11 @@ public class FileStrategyConfiguration {
     private static final String DEFAULT_WORKING_DIR = "/tmp";
     private static final String DEFAULT_PUBLISH_DIR = "/tmp";
     private static final String DEFAULT_ROLL_EVERY = "1 hour";
+    private static final PartitionTime DEFAULT_PARTITION_TIME = PartitionTime.EVENT;
+    private static final String DEFAULT_PARTITION_TIME_ZONE = "UTC";
+    private static final String DEFAULT_MAX_OPEN_FILES = "16";
+    private static final String DEFAULT_MAX_OPEN_BYTES = "268435456";
+    private static final String DEFAULT_CLOSE_IDLE_AFTER = "5 minutes";
 
     static final FileStrategyConfiguration DEFAULT_FILE_STRATEGY_CONFIGURATION =
             new FileStrategyConfiguration(
@@ -40,13 +48,20 @@ public class FileStrategyConfiguration {
                     Integer.parseInt(DEFAULT_SYNC_FILE_AFTER_RECORDS),
                     DurationDeserializer.parseDuration(DEFAULT_SYNC_FILE_AFTER_DURATION),
                     DEFAULT_WORKING_DIR,
-                    DEFAULT_PUBLISH_DIR);
+                    DEFAULT_PUBLISH_DIR,
+                    null, null, null, null, null, null);
 
     public final int syncFileAfterRecords;
     public final Duration syncFileAfterDuration;
     public final String workingDir;
     public final String publishDir;
     public final Duration rollEvery;
+    public final Optional<String> partitionPattern;
+    public final PartitionTime partitionTime;
+    public final ZoneId partitionTimeZone;
+    public final int maxOpenFiles;
+    public final long maxOpenBytes;
+    public final Duration closeIdleAfter;
 
     @JsonCreator
     @ParametersAreNullableByDefault
@@ -54,13 +69,29 @@ public class FileStrategyConfiguration {
                               @JsonProperty(defaultValue=DEFAULT_SYNC_FILE_AFTER_RECORDS) final Integer syncFileAfterRecords,
                               @JsonProperty(defaultValue=DEFAULT_SYNC_FILE_AFTER_DURATION) final Duration syncFileAfterDuration,
                               @JsonProperty(defaultValue=DEFAULT_WORKING_DIR) final String workingDir,
-                              @JsonProperty(defaultValue=DEFAULT_PUBLISH_DIR) final String publishDir) {
+                              @JsonProperty(defaultValue=DEFAULT_PUBLISH_DIR) final String publishDir,
+                              final String partitionPattern,
+                              final PartitionTime partitionTime,
+                              @JsonProperty(defaultValue=DEFAULT_PARTITION_TIME_ZONE) final String partitionTimeZone,
+                              @JsonProperty(defaultValue=DEFAULT_MAX_OPEN_FILES) final Integer maxOpenFiles,
+                              @JsonProperty(defaultValue=DEFAULT_MAX_OPEN_BYTES) final Long maxOpenBytes,
+                              @JsonProperty(defaultValue=DEFAULT_CLOSE_IDLE_AFTER) final Duration closeIdleAfter) {
         // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
         this.rollEvery = Optional.ofNullable(rollEvery).orElseGet(() -> DurationDeserializer.parseDuration(DEFAULT_ROLL_EVERY));
         this.syncFileAfterRecords = Optional.ofNullable(syncFileAfterRecords).orElseGet(() -> Integer.valueOf(DEFAULT_SYNC_FILE_AFTER_RECORDS));
         this.syncFileAfterDuration = Optional.ofNullable(syncFileAfterDuration).orElseGet(() -> DurationDeserializer.parseDuration(DEFAULT_SYNC_FILE_AFTER_DURATION));
         this.workingDir = Optional.ofNullable(workingDir).orElse(DEFAULT_WORKING_DIR);
         this.publishDir = Optional.ofNullable(publishDir).orElse(DEFAULT_PUBLISH_DIR);
+        this.partitionPattern = Optional.ofNullable(partitionPattern);
+        this.partitionTime = Optional.ofNullable(partitionTime).orElse(DEFAULT_PARTITION_TIME);
+        this.partitionTimeZone = ZoneId.of(Optional.ofNullable(partitionTimeZone).orElse(DEFAULT_PARTITION_TIME_ZONE));
+        this.maxOpenFiles = Optional.ofNullable(maxOpenFiles).orElseGet(() -> Integer.valueOf(DEFAULT_MAX_OPEN_FILES));
+        this.maxOpenBytes = Optional.ofNullable(maxOpenBytes).orElseGet(() -> Long.valueOf(DEFAULT_MAX_OPEN_BYTES));
+        this.closeIdleAfter = Optional.ofNullable(closeIdleAfter).orElseGet(() -> DurationDeserializer.parseDuration(DEFAULT_CLOSE_IDLE_AFTER));
+        // Fail early on patterns that can't be parsed.
+        this.partitionPattern.ifPresent(DateTimeFormatter::ofPattern);
+        Preconditions.checkArgument(0 < this.maxOpenFiles, "Maximum number of open files must be positive: %s", this.maxOpenFiles);
+        Preconditions.checkArgument(0 < this.maxOpenBytes, "Maximum number of bytes in open files must be positive: %s", this.maxOpenBytes);
     }
 
     @Override
@@ -70,6 +101,12 @@ public class FileStrategyConfiguration {
                 .add("syncFileAfterRecords", syncFileAfterRecords)
                 .add("syncFileAfterDuration", syncFileAfterDuration)
                 .add("workingDir", workingDir)
-                .add("publishDir", publishDir).toString();
+                .add("publishDir", publishDir)
+                .add("partitionPattern", partitionPattern)
+                .add("partitionTime", partitionTime)
+                .add("partitionTimeZone", partitionTimeZone)
+                .add("maxOpenFiles", maxOpenFiles)
+                .add("maxOpenBytes", maxOpenBytes)
+                .add("closeIdleAfter", closeIdleAfter).toString();
     }
 }
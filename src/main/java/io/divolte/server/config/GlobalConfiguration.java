@@ -31,7 +31,9 @@ public class GlobalConfiguration {
     @Valid public final HdfsConfiguration hdfs;
     @Valid public final KafkaConfiguration kafka;
     @Valid public final GoogleCloudStorageConfiguration gcs;
+    @Valid public final LocalConfiguration local;
     @Valid public final GoogleCloudPubSubConfiguration gcps;
+    @Valid public final SpillConfiguration spill;
 
     @JsonCreator
     GlobalConfiguration(final ServerConfiguration server,
@@ -39,13 +41,17 @@ public class GlobalConfiguration {
                         final HdfsConfiguration hdfs,
                         final KafkaConfiguration kafka,
                         final GoogleCloudStorageConfiguration gcs,
-                        final GoogleCloudPubSubConfiguration gcps) {
+                        final LocalConfiguration local,
+                        final GoogleCloudPubSubConfiguration gcps,
+                        final SpillConfiguration spill) {
         this.server = Objects.requireNonNull(server);
         this.mapper = Objects.requireNonNull(mapper);
         this.hdfs = Objects.requireNonNull(hdfs);
         this.kafka = Objects.requireNonNull(kafka);
         this.gcs = Objects.requireNonNull(gcs);
+        this.local = Objects.requireNonNull(local);
         this.gcps = Objects.requireNonNull(gcps);
+        this.spill = Objects.requireNonNull(spill);
     }
 
     @Override
@@ -55,8 +61,10 @@ public class GlobalConfiguration {
                 .add("mapper", mapper)
                 .add("hdfs", hdfs)
                 .add("gcs", gcs)
+                .add("local", local)
                 .add("kafka", kafka)
                 .add("gcps", gcps)
+                .add("spill", spill)
                 .toString();
     }
 }
@@ -20,11 +20,13 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.google.cloud.ServiceOptions;
 import com.google.common.base.MoreObjects;
 import io.divolte.server.config.constraint.GoogleCloudProjectIdRequiredForPubSub;
+import io.divolte.server.processing.OverflowPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
 import java.util.Optional;
 
 @ParametersAreNonnullByDefault
@@ -33,14 +35,22 @@ public class GoogleCloudPubSubConfiguration extends SinkTypeConfiguration {
     private static final Logger logger = LoggerFactory.getLogger(GoogleCloudPubSubConfiguration.class);
 
     public final Optional<String> projectId;
+    public final int maxInFlight;
+    public final long maxInFlightBytes;
 
     @JsonCreator
     GoogleCloudPubSubConfiguration(final int bufferSize,
                                    final int threads,
                                    final boolean enabled,
-                                   @Nullable final String projectId) {
-        super(bufferSize, threads, enabled);
+                                   final OverflowPolicy overflowPolicy,
+                                   final Duration overflowTimeout,
+                                   @Nullable final String projectId,
+                                   final int maxInFlight,
+                                   final long maxInFlightBytes) {
+        super(bufferSize, threads, enabled, overflowPolicy, overflowTimeout);
         this.projectId = null != projectId ? Optional.of(projectId) : getDefaultProjectId();
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightBytes = maxInFlightBytes;
     }
 
     private static Optional<String> getDefaultProjectId() {
@@ -56,6 +66,8 @@ public class GoogleCloudPubSubConfiguration extends SinkTypeConfiguration {
     @Override
     protected MoreObjects.ToStringHelper toStringHelper() {
         return super.toStringHelper()
-            .add("projectId", projectId);
+            .add("projectId", projectId)
+            .add("maxInFlight", maxInFlight)
+            .add("maxInFlightBytes", maxInFlightBytes);
     }
 }
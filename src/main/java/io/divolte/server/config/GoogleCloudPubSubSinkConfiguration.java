@@ -96,9 +96,14 @@ public class GoogleCloudPubSubSinkConfiguration extends TopicSinkConfiguration {
             return new GoogleCloudPubSubFlushingPool(sinkName,
                                                      vc.configuration().global.gcps.threads,
                                                      vc.configuration().global.gcps.bufferSize,
+                                                     vc.configuration().global.gcps.overflowPolicy,
+                                                     vc.configuration().global.gcps.overflowTimeout,
+                                                     vc.configuration().global.spill.settingsForSink(vc.configuration().global.gcps, sinkName),
                                                      publisher,
                                                      Optional.empty(),
-                                                     registry.getSchemaBySinkName(sinkName));
+                                                     registry.getSchemaBySinkName(sinkName),
+                                                     vc.configuration().global.gcps.maxInFlight,
+                                                     vc.configuration().global.gcps.maxInFlightBytes);
         };
     }
 
@@ -132,9 +137,14 @@ public class GoogleCloudPubSubSinkConfiguration extends TopicSinkConfiguration {
             return new GoogleCloudPubSubFlushingPool(sinkName,
                                                      vc.configuration().global.gcps.threads,
                                                      vc.configuration().global.gcps.bufferSize,
+                                                     vc.configuration().global.gcps.overflowPolicy,
+                                                     vc.configuration().global.gcps.overflowTimeout,
+                                                     vc.configuration().global.spill.settingsForSink(vc.configuration().global.gcps, sinkName),
                                                      publisher,
                                                      Optional.of(channel),
-                                                     registry.getSchemaBySinkName(sinkName));
+                                                     registry.getSchemaBySinkName(sinkName),
+                                                     vc.configuration().global.gcps.maxInFlight,
+                                                     vc.configuration().global.gcps.maxInFlightBytes);
         };
     }
 
@@ -16,8 +16,18 @@
 
 package io.divolte.server.config;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import io.divolte.server.processing.OverflowPolicy;
+
+import java.time.Duration;
+
 public class GoogleCloudStorageConfiguration extends SinkTypeConfiguration {
-    protected GoogleCloudStorageConfiguration(final int bufferSize, final int threads, final boolean enabled) {
-        super(bufferSize, threads, enabled);
+    @JsonCreator
+    protected GoogleCloudStorageConfiguration(final int bufferSize,
+                                              final int threads,
+                                              final boolean enabled,
+                                              final OverflowPolicy overflowPolicy,
+                                              final Duration overflowTimeout) {
+        super(bufferSize, threads, enabled, overflowPolicy, overflowTimeout);
     }
 }
@@ -19,40 +19,67 @@ package io.divolte.server.config;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.filesinks.FileFlushingPool;
 import io.divolte.server.filesinks.FileManager.FileManagerFactory;
 import io.divolte.server.filesinks.gcs.GoogleCloudStorageFileManager;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
 import org.apache.avro.Schema;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.validation.Valid;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 
 @ParametersAreNonnullByDefault
 public class GoogleCloudStorageSinkConfiguration extends FileSinkConfiguration {
 
+    private static final String DEFAULT_UPLOAD_THREADS = "0";
+    private static final String DEFAULT_CHECKPOINT_EVERY = "5 minutes";
+    private static final String DEFAULT_MAX_PART_SIZE = "16777216";
+
     static final GoogleCloudStorageRetryConfiguration DEFAULT_RETRY_SETTINGS =
         new GoogleCloudStorageRetryConfiguration(null, null, null, null, null, null, null);
 
     public final String bucket;
     @Valid public final GoogleCloudStorageRetryConfiguration retrySettings;
+    public final int uploadThreads;
+    public final Duration checkpointEvery;
+    public final int maxPartSize;
 
     @JsonCreator
     GoogleCloudStorageSinkConfiguration(@Nullable final FileStrategyConfiguration fileStrategy,
                                         @JsonProperty(required=true) final String bucket,
-                                        @Nullable final GoogleCloudStorageRetryConfiguration retrySettings) {
-        super(fileStrategy);
+                                        @Nullable final GoogleCloudStorageRetryConfiguration retrySettings,
+                                        @Nullable final FileFormat format,
+                                        @Nullable final AvroConfiguration avro,
+                                        @Nullable final ParquetConfiguration parquet,
+                                        @JsonProperty(defaultValue=DEFAULT_UPLOAD_THREADS) @Nullable final Integer uploadThreads,
+                                        @JsonProperty(defaultValue=DEFAULT_CHECKPOINT_EVERY) @Nullable final Duration checkpointEvery,
+                                        @JsonProperty(defaultValue=DEFAULT_MAX_PART_SIZE) @Nullable final Integer maxPartSize) {
+        super(fileStrategy, format, avro, parquet);
         this.bucket = Objects.requireNonNull(bucket);
         this.retrySettings = Optional.ofNullable(retrySettings).orElse(DEFAULT_RETRY_SETTINGS);
+        // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
+        this.uploadThreads = Optional.ofNullable(uploadThreads).orElseGet(() -> Integer.valueOf(DEFAULT_UPLOAD_THREADS));
+        this.checkpointEvery = Optional.ofNullable(checkpointEvery).orElseGet(() -> DurationDeserializer.parseDuration(DEFAULT_CHECKPOINT_EVERY));
+        this.maxPartSize = Optional.ofNullable(maxPartSize).orElseGet(() -> Integer.valueOf(DEFAULT_MAX_PART_SIZE));
+        Preconditions.checkArgument(0 <= this.uploadThreads, "Number of upload threads must not be negative: %s", this.uploadThreads);
+        Preconditions.checkArgument(0 < this.maxPartSize, "Maximum part size must be positive: %s", this.maxPartSize);
     }
 
     @Override
     protected MoreObjects.ToStringHelper toStringHelper() {
         return super.toStringHelper()
             .add("bucket", bucket)
-            .add("retrySettings", retrySettings);
+            .add("retrySettings", retrySettings)
+            .add("uploadThreads", uploadThreads)
+            .add("checkpointEvery", checkpointEvery)
+            .add("maxPartSize", maxPartSize);
     }
 
     @Override
@@ -64,8 +91,12 @@ public class GoogleCloudStorageSinkConfiguration extends FileSinkConfiguration {
 
             final int threads = config.configuration().global.gcs.threads;
             final int bufferSize = config.configuration().global.gcs.bufferSize;
+            final OverflowPolicy overflowPolicy = config.configuration().global.gcs.overflowPolicy;
+            final Duration overflowTimeout = config.configuration().global.gcs.overflowTimeout;
+            final Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> spillSettings =
+                    config.configuration().global.spill.settingsForSink(config.configuration().global.gcs, name);
 
-            return new FileFlushingPool(config, name, threads, bufferSize, fileManagerFactory);
+            return new FileFlushingPool(config, name, threads, bufferSize, overflowPolicy, overflowTimeout, spillSettings, fileManagerFactory);
         };
     }
 
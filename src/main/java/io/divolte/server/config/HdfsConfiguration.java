@@ -16,6 +16,7 @@
 
 package io.divolte.server.config;
 
+import java.time.Duration;
 import java.util.Optional;
 import java.util.Properties;
 
@@ -24,14 +25,21 @@ import javax.annotation.ParametersAreNonnullByDefault;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.google.common.base.MoreObjects;
 
+import io.divolte.server.processing.OverflowPolicy;
+
 @ParametersAreNonnullByDefault
 public final class HdfsConfiguration extends SinkTypeConfiguration {
 
     public final Optional<Properties> client;
 
     @JsonCreator
-    HdfsConfiguration(final boolean enabled, final int bufferSize, final int threads, final Optional<Properties> client) {
-        super(bufferSize, threads, enabled);
+    HdfsConfiguration(final boolean enabled,
+                      final int bufferSize,
+                      final int threads,
+                      final OverflowPolicy overflowPolicy,
+                      final Duration overflowTimeout,
+                      final Optional<Properties> client) {
+        super(bufferSize, threads, enabled, overflowPolicy, overflowTimeout);
         this.client = client.map(ImmutableProperties::fromSource);
     }
 
@@ -16,6 +16,7 @@
 
 package io.divolte.server.config;
 
+import java.time.Duration;
 import java.util.Optional;
 
 import javax.annotation.ParametersAreNonnullByDefault;
@@ -25,9 +26,12 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.MoreObjects;
 
+import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.filesinks.FileFlushingPool;
 import io.divolte.server.filesinks.FileManager.FileManagerFactory;
 import io.divolte.server.filesinks.hdfs.HdfsFileManager;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
 import org.apache.avro.Schema;
 
 @ParametersAreNonnullByDefault
@@ -39,8 +43,11 @@ public class HdfsSinkConfiguration extends FileSinkConfiguration {
     @JsonCreator
     @ParametersAreNullableByDefault
     HdfsSinkConfiguration(@JsonProperty(defaultValue=DEFAULT_REPLICATION) final Short replication,
-                          final FileStrategyConfiguration fileStrategy) {
-        super(fileStrategy);
+                          final FileStrategyConfiguration fileStrategy,
+                          final FileFormat format,
+                          final AvroConfiguration avro,
+                          final ParquetConfiguration parquet) {
+        super(fileStrategy, format, avro, parquet);
         // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
         this.replication = Optional.ofNullable(replication).orElseGet(() -> Short.valueOf(DEFAULT_REPLICATION));
     }
@@ -60,8 +67,12 @@ public class HdfsSinkConfiguration extends FileSinkConfiguration {
 
             final int threads = config.configuration().global.hdfs.threads;
             final int bufferSize = config.configuration().global.hdfs.bufferSize;
+            final OverflowPolicy overflowPolicy = config.configuration().global.hdfs.overflowPolicy;
+            final Duration overflowTimeout = config.configuration().global.hdfs.overflowTimeout;
+            final Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> spillSettings =
+                    config.configuration().global.spill.settingsForSink(config.configuration().global.hdfs, name);
 
-            return new FileFlushingPool(config, name, threads, bufferSize, fileManagerFactory);
+            return new FileFlushingPool(config, name, threads, bufferSize, overflowPolicy, overflowTimeout, spillSettings, fileManagerFactory);
         };
     }
 
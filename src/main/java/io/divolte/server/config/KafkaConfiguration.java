@@ -18,24 +18,35 @@ package io.divolte.server.config;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.google.common.base.MoreObjects;
+import io.divolte.server.processing.OverflowPolicy;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
 import java.util.Properties;
 
 @ParametersAreNonnullByDefault
 public class KafkaConfiguration extends SinkTypeConfiguration {
 
+    public final int maxInFlight;
     public final Properties producer;
 
     @JsonCreator
-    KafkaConfiguration(final int bufferSize, final int threads, final boolean enabled, final Properties producer) {
-        super(bufferSize, threads, enabled);
+    KafkaConfiguration(final int bufferSize,
+                       final int threads,
+                       final boolean enabled,
+                       final OverflowPolicy overflowPolicy,
+                       final Duration overflowTimeout,
+                       final int maxInFlight,
+                       final Properties producer) {
+        super(bufferSize, threads, enabled, overflowPolicy, overflowTimeout);
+        this.maxInFlight = maxInFlight;
         this.producer = ImmutableProperties.fromSource(producer);
     }
 
     @Override
     protected MoreObjects.ToStringHelper toStringHelper() {
         return super.toStringHelper()
+                .add("maxInFlight", maxInFlight)
                 .add("producer", producer);
     }
 }
@@ -62,6 +62,10 @@ public class KafkaSinkConfiguration extends TopicSinkConfiguration {
             return new KafkaFlushingPool(sink,
                                          vc.configuration().global.kafka.threads,
                                          vc.configuration().global.kafka.bufferSize,
+                                         vc.configuration().global.kafka.overflowPolicy,
+                                         vc.configuration().global.kafka.overflowTimeout,
+                                         vc.configuration().global.spill.settingsForSink(vc.configuration().global.kafka, sink),
+                                         vc.configuration().global.kafka.maxInFlight,
                                          topic,
                                          producer
             );
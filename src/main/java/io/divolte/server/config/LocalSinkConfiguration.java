@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.config;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.ParametersAreNullableByDefault;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.filesinks.FileFlushingPool;
+import io.divolte.server.filesinks.FileManager.FileManagerFactory;
+import io.divolte.server.filesinks.local.LocalFileManager;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
+import org.apache.avro.Schema;
+
+@ParametersAreNonnullByDefault
+public class LocalSinkConfiguration extends FileSinkConfiguration {
+    private static final String DEFAULT_MEMORY_MAPPED = "false";
+    private static final String DEFAULT_SEGMENT_SIZE = "67108864";
+
+    public final boolean memoryMapped;
+    public final int segmentSize;
+
+    @JsonCreator
+    @ParametersAreNullableByDefault
+    LocalSinkConfiguration(final FileStrategyConfiguration fileStrategy,
+                           final FileFormat format,
+                           final AvroConfiguration avro,
+                           final ParquetConfiguration parquet,
+                           @JsonProperty(defaultValue=DEFAULT_MEMORY_MAPPED) final Boolean memoryMapped,
+                           @JsonProperty(defaultValue=DEFAULT_SEGMENT_SIZE) final Integer segmentSize) {
+        super(fileStrategy, format, avro, parquet);
+        // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
+        this.memoryMapped = Optional.ofNullable(memoryMapped).orElseGet(() -> Boolean.valueOf(DEFAULT_MEMORY_MAPPED));
+        this.segmentSize = Optional.ofNullable(segmentSize).orElseGet(() -> Integer.valueOf(DEFAULT_SEGMENT_SIZE));
+        Preconditions.checkArgument(0 < this.segmentSize, "Segment size must be positive: %s", this.segmentSize);
+    }
+
+    @Override
+    protected MoreObjects.ToStringHelper toStringHelper() {
+        return super.toStringHelper()
+                .add("memoryMapped", memoryMapped)
+                .add("segmentSize", segmentSize);
+    }
+
+    @Override
+    public SinkFactory getFactory() {
+        return (config, name, registry) -> {
+            final Schema avroSchema = registry.getSchemaBySinkName(name).avroSchema;
+            final FileManagerFactory fileManagerFactory = LocalFileManager.newFactory(config, name, avroSchema);
+            fileManagerFactory.verifyFileSystemConfiguration();
+
+            final int threads = config.configuration().global.local.threads;
+            final int bufferSize = config.configuration().global.local.bufferSize;
+            final OverflowPolicy overflowPolicy = config.configuration().global.local.overflowPolicy;
+            final Duration overflowTimeout = config.configuration().global.local.overflowTimeout;
+            final Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> spillSettings =
+                    config.configuration().global.spill.settingsForSink(config.configuration().global.local, name);
+
+            return new FileFlushingPool(config, name, threads, bufferSize, overflowPolicy, overflowTimeout, spillSettings, fileManagerFactory);
+        };
+    }
+
+    @Override
+    public String getReadableType() {
+        return "Local file system";
+    }
+}
@@ -18,28 +18,57 @@ package io.divolte.server.config;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.google.common.base.MoreObjects;
+import io.divolte.server.config.constraint.MapperOverflowPolicyCannotSpill;
+import io.divolte.server.processing.OverflowPolicy;
+import io.divolte.server.processing.QueueType;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 
 @ParametersAreNonnullByDefault
+@MapperOverflowPolicyCannotSpill
 public class MapperConfiguration {
     public final int bufferSize;
+    public final QueueType queueType;
+    public final OverflowPolicy overflowPolicy;
+    public final Duration overflowTimeout;
     public final int threads;
+    public final int mappingThreads;
     public final int duplicateMemorySize;
+    public final Optional<Duration> duplicateMemoryWindow;
+    public final boolean duplicateMemoryShared;
+    public final Optional<String> duplicateMemorySnapshot;
+    public final DuplicateDetectorConfiguration duplicateDetector;
     public final UserAgentParserConfiguration userAgentParser;
     public final Optional<String> ip2geoDatabase;
 
     @JsonCreator
     MapperConfiguration(final int bufferSize,
+                        final QueueType queueType,
+                        final OverflowPolicy overflowPolicy,
+                        final Duration overflowTimeout,
                         final int threads,
+                        final int mappingThreads,
                         final int duplicateMemorySize,
+                        final Optional<Duration> duplicateMemoryWindow,
+                        final boolean duplicateMemoryShared,
+                        final Optional<String> duplicateMemorySnapshot,
+                        final DuplicateDetectorConfiguration duplicateDetector,
                         final UserAgentParserConfiguration userAgentParser,
                         final Optional<String> ip2geoDatabase) {
         this.bufferSize = bufferSize;
+        this.queueType = Objects.requireNonNull(queueType);
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        this.overflowTimeout = Objects.requireNonNull(overflowTimeout);
         this.threads = threads;
+        this.mappingThreads = mappingThreads;
         this.duplicateMemorySize = duplicateMemorySize;
+        this.duplicateMemoryWindow = Objects.requireNonNull(duplicateMemoryWindow);
+        this.duplicateMemoryShared = duplicateMemoryShared;
+        this.duplicateMemorySnapshot = Objects.requireNonNull(duplicateMemorySnapshot);
+        this.duplicateDetector = Objects.requireNonNull(duplicateDetector);
         this.userAgentParser = Objects.requireNonNull(userAgentParser);
         this.ip2geoDatabase = Objects.requireNonNull(ip2geoDatabase);
     }
@@ -48,8 +77,16 @@ public class MapperConfiguration {
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("bufferSize", bufferSize)
+                .add("queueType", queueType)
+                .add("overflowPolicy", overflowPolicy)
+                .add("overflowTimeout", overflowTimeout)
                 .add("threads", threads)
+                .add("mappingThreads", mappingThreads)
                 .add("duplicateMemorySize", duplicateMemorySize)
+                .add("duplicateMemoryWindow", duplicateMemoryWindow)
+                .add("duplicateMemoryShared", duplicateMemoryShared)
+                .add("duplicateMemorySnapshot", duplicateMemorySnapshot)
+                .add("duplicateDetector", duplicateDetector)
                 .add("userAgentParser", userAgentParser)
                 .add("ip2geoDatabase", ip2geoDatabase)
                 .toString();
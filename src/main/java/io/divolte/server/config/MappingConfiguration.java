@@ -30,6 +30,7 @@ import java.util.Optional;
 public class MappingConfiguration {
     private static final String DEFAULT_DISCARD_CORRUPTED = "false";
     private static final String DEFAULT_DISCARD_DUPLICATES = "false";
+    private static final String DEFAULT_COMPILED = "false";
 
     public final Optional<String> schemaFile;
     public final Optional<String> mappingScriptFile;
@@ -40,6 +41,7 @@ public class MappingConfiguration {
 
     public final boolean discardCorrupted;
     public final boolean discardDuplicates;
+    public final boolean compiled;
 
     @JsonCreator
     MappingConfiguration(final Optional<String> schemaFile,
@@ -54,7 +56,10 @@ public class MappingConfiguration {
                          final Boolean discardCorrupted,
                          @JsonProperty(defaultValue=DEFAULT_DISCARD_DUPLICATES)
                          @Nullable
-                         final Boolean discardDuplicates) {
+                         final Boolean discardDuplicates,
+                         @JsonProperty(defaultValue=DEFAULT_COMPILED)
+                         @Nullable
+                         final Boolean compiled) {
         this.schemaFile = Objects.requireNonNull(schemaFile);
         this.mappingScriptFile = Objects.requireNonNull(mappingScriptFile);
         this.confluentId = Objects.requireNonNull(confluentId);
@@ -63,6 +68,7 @@ public class MappingConfiguration {
         // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
         this.discardCorrupted = Optional.ofNullable(discardCorrupted).orElseGet(() -> Boolean.valueOf(DEFAULT_DISCARD_CORRUPTED));
         this.discardDuplicates = Optional.ofNullable(discardDuplicates).orElseGet(() -> Boolean.valueOf(DEFAULT_DISCARD_DUPLICATES));
+        this.compiled = Optional.ofNullable(compiled).orElseGet(() -> Boolean.valueOf(DEFAULT_COMPILED));
     }
 
     @Override
@@ -75,6 +81,7 @@ public class MappingConfiguration {
                 .add("sinks", sinks)
                 .add("discardCorrupted", discardCorrupted)
                 .add("discardDuplicates", discardDuplicates)
+                .add("compiled", compiled)
                 .toString();
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.config;
+
+import java.util.Optional;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.ParametersAreNullableByDefault;
+
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.MoreObjects;
+
+@ParametersAreNonnullByDefault
+public class ParquetConfiguration {
+    private static final String DEFAULT_ROW_GROUP_SIZE = "134217728";
+    private static final String DEFAULT_COMPRESSION_CODEC = "snappy";
+
+    static final ParquetConfiguration DEFAULT_PARQUET_CONFIGURATION = new ParquetConfiguration(null, null);
+
+    public final int rowGroupSize;
+    public final CompressionCodecName compressionCodec;
+
+    @JsonCreator
+    @ParametersAreNullableByDefault
+    ParquetConfiguration(@JsonProperty(defaultValue=DEFAULT_ROW_GROUP_SIZE) final Integer rowGroupSize,
+                         @JsonProperty(defaultValue=DEFAULT_COMPRESSION_CODEC) final String compressionCodec) {
+        // TODO: register a custom deserializer with Jackson that uses the defaultValue property from the annotation to fix this
+        this.rowGroupSize = Optional.ofNullable(rowGroupSize).orElseGet(() -> Integer.valueOf(DEFAULT_ROW_GROUP_SIZE));
+        this.compressionCodec = CompressionCodecName.fromConf(Optional.ofNullable(compressionCodec).orElse(DEFAULT_COMPRESSION_CODEC));
+    }
+
+    @Override
+    public final String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("rowGroupSize", rowGroupSize)
+                .add("compressionCodec", compressionCodec).toString();
+    }
+}
@@ -32,6 +32,7 @@ import io.divolte.server.processing.ProcessingPool;
 @JsonSubTypes({
         @JsonSubTypes.Type(value=HdfsSinkConfiguration.class, name = "hdfs"),
         @JsonSubTypes.Type(value=GoogleCloudStorageSinkConfiguration.class, name = "gcs"),
+        @JsonSubTypes.Type(value=LocalSinkConfiguration.class, name = "local"),
         @JsonSubTypes.Type(value=KafkaSinkConfiguration.class, name = "kafka"),
         @JsonSubTypes.Type(value=GoogleCloudPubSubSinkConfiguration.class, name = "gcps"),
 })
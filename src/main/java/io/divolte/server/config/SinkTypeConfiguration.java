@@ -17,9 +17,12 @@
 package io.divolte.server.config;
 
 import com.google.common.base.MoreObjects;
+import io.divolte.server.processing.OverflowPolicy;
 
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
+import java.util.Objects;
 
 @ParametersAreNonnullByDefault
 public abstract class SinkTypeConfiguration {
@@ -27,11 +30,19 @@ public abstract class SinkTypeConfiguration {
     public final boolean enabled;
     public final int bufferSize;
     public final int threads;
-
-    protected SinkTypeConfiguration(final int bufferSize, final int threads, final boolean enabled) {
+    public final OverflowPolicy overflowPolicy;
+    public final Duration overflowTimeout;
+
+    protected SinkTypeConfiguration(final int bufferSize,
+                                    final int threads,
+                                    final boolean enabled,
+                                    final OverflowPolicy overflowPolicy,
+                                    final Duration overflowTimeout) {
         this.bufferSize = bufferSize;
         this.threads = threads;
         this.enabled = enabled;
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        this.overflowTimeout = Objects.requireNonNull(overflowTimeout);
     }
 
     @OverridingMethodsMustInvokeSuper
@@ -39,7 +50,9 @@ public abstract class SinkTypeConfiguration {
         return MoreObjects.toStringHelper(this)
                 .add("enabled", enabled)
                 .add("bufferSize", bufferSize)
-                .add("threads", threads);
+                .add("threads", threads)
+                .add("overflowPolicy", overflowPolicy)
+                .add("overflowTimeout", overflowTimeout);
     }
 
     @Override
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.config;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Optional;
+
+@ParametersAreNonnullByDefault
+public class SpillConfiguration {
+    public final String directory;
+    public final long segmentSize;
+    public final long maxSize;
+
+    @JsonCreator
+    SpillConfiguration(final String directory,
+                       final long segmentSize,
+                       final long maxSize) {
+        this.directory = Objects.requireNonNull(directory);
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Determine the spill settings for the pool of a sink.
+     *
+     * @param sinkType the global configuration for the type of sink.
+     * @param sinkName the name of the sink, which is used for its spill directory.
+     * @return the settings, if the sink type uses the spill overflow policy.
+     */
+    public Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> settingsForSink(final SinkTypeConfiguration sinkType,
+                                                                               final String sinkName) {
+        return sinkType.overflowPolicy == OverflowPolicy.SPILL
+                ? Optional.of(new DiskSpillQueue.Settings<>(Paths.get(directory, sinkName),
+                                                            segmentSize,
+                                                            maxSize,
+                                                            AvroRecordBuffer.spillSerializer()))
+                : Optional.empty();
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("directory", directory)
+                .add("segmentSize", segmentSize)
+                .add("maxSize", maxSize)
+                .toString();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.config.constraint;
+
+import io.divolte.server.config.MapperConfiguration;
+import io.divolte.server.processing.OverflowPolicy;
+
+import javax.validation.Constraint;
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+import javax.validation.Payload;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+@Target({ TYPE })
+@Retention(RUNTIME)
+@Constraint(validatedBy = MapperOverflowPolicyCannotSpill.Validator.class)
+@Documented
+public @interface MapperOverflowPolicyCannotSpill {
+    String message() default "The spill overflow policy is only supported by sinks, not by the mapper.";
+    Class<?>[] groups() default {};
+    Class<? extends Payload>[] payload() default {};
+
+    final class Validator implements ConstraintValidator<MapperOverflowPolicyCannotSpill, MapperConfiguration>{
+        @Override
+        public void initialize(final MapperOverflowPolicyCannotSpill constraintAnnotation) {
+            // Nothing needed here.
+        }
+
+        @Override
+        public boolean isValid(final MapperConfiguration value, final ConstraintValidatorContext context) {
+            // Incoming events refer to the HTTP exchange they arrived on, so they can't be written to disk.
+            return value.overflowPolicy != OverflowPolicy.SPILL;
+        }
+    }
+}
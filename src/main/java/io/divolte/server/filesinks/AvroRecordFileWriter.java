@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.config.AvroConfiguration;
+
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class AvroRecordFileWriter implements RecordFileWriter {
+    private final DataFileWriter<GenericRecord> writer;
+
+    AvroRecordFileWriter(final OutputStream stream,
+                         final Schema schema,
+                         final AvroConfiguration configuration) throws IOException {
+        writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<>(schema))
+                .setCodec(configuration.codecFactory())
+                .create(schema, stream);
+        // Blocks are written (and compressed) when they're full, or when flushing.
+        // (Set after creating the file: before, the buffer would be allocated at this size up front.)
+        writer.setSyncInterval(configuration.blockSize);
+        writer.setFlushOnEveryBlock(true);
+        writer.flush();
+    }
+
+    @Override
+    public void append(final AvroRecordBuffer record) throws IOException {
+        writer.appendEncoded(record.getByteBuffer());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Writes the pending block, if any.
+        writer.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        // An Avro container file has no trailer.
+        writer.flush();
+    }
+
+    @Override
+    public boolean hasTrailer() {
+        return false;
+    }
+}
@@ -23,7 +23,10 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -36,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.MoreObjects;
 
 import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.config.FileFormat;
 import io.divolte.server.config.FileStrategyConfiguration;
 import io.divolte.server.filesinks.FileManager.DivolteFile;
 import io.divolte.server.processing.Item;
@@ -46,61 +50,102 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
     private static final Logger logger = LoggerFactory.getLogger(FileFlusher.class);
 
     private final static long DEFAULT_FILE_SYSTEM_RECONNECT_DELAY_NANOS = 15000 * 1000000L;
+    private final static String DEFAULT_FILE_EXTENSION = FileFormat.AVRO.extension;
     private final long reconnectDelayNanos;
 
+    // The partition of the (single) file when the files aren't partitioned.
+    private final static String UNPARTITIONED = "";
+    // Heartbeats only happen when idle, so while records keep arriving all open
+    // files are checked for syncing, rolling and idleness this often.
+    private final static long CHECK_ALL_FILES_EVERY_NANOS = 1000 * 1000000L;
+
     private final static AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
     private final int instanceNumber;
     private final String hostString;
     private final DateFormat datePartFormat = new SimpleDateFormat("yyyyLLddHHmmss");
+    private final String fileExtension;
 
     private final long syncEveryNanos;
     private final int syncEveryRecords;
     private final long newFileEveryNanos;
 
+    private final Optional<FilePartitioner> partitioner;
+    private final int maxOpenFiles;
+    private final long maxOpenBytes;
+    private final long closeIdleAfterNanos;
+    private int fileSequenceNumber;
+
     private final FileManager manager;
 
     /*
-     * We use a single non-final field to keep track of the currently writable file.
-     * The file system is considered unhealthy / unwritable when equal to
-     * Optional.empty() and healthy otherwise. The file system is marked unhealthy
-     * on any IOException that is thrown by the used file manager for this sink.
-     * File system recovery is attempted on heart beats of the processor. Processing
-     * is paused as soon as the file system goes into unhealthy state. As a result,
-     * process(...) can assume the Optional to be populated; all other methods need
-     * to check for file system health by inspecting the state of the optional
-     * before performing any operation. The lastFixAttemptNanoTime field is used to
-     * keep track of the time of the recent most reconnect attempt in order to
-     * implement a back off larger than the heart beat frequency.
+     * We keep track of the currently writable files by partition. Without partitioning
+     * there is a single file, which is always open while the file system is healthy.
+     * With partitioning, a file is opened when the first record for its partition
+     * arrives and closed when it rolls, when it has been idle for a while, or when it's
+     * the least recently used file and another one needs to be opened or the open files
+     * hold too many bytes between them. (The map is in access order for this.)
+     *
+     * The file system is considered unhealthy / unwritable when fileSystemAvailable is
+     * false. The file system is marked unhealthy on any IOException that is thrown by
+     * the used file manager for this sink; all open files are discarded at that point.
+     * File system recovery is attempted on heart beats of the processor. Processing is
+     * paused as soon as the file system goes into unhealthy state. As a result,
+     * process(...) can assume the file system to be healthy; all other methods need to
+     * check for file system health before performing any operation. The
+     * lastFixAttemptNanoTime field is used to keep track of the time of the recent most
+     * reconnect attempt in order to implement a back off larger than the heart beat
+     * frequency.
      */
-    private Optional<TrackedFile> currentTrackedFile;
+    private final LinkedHashMap<String, TrackedFile> trackedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    // The bytes of the records written to the tracked files.
+    private long trackedBytes;
+    private boolean fileSystemAvailable;
     private long lastFixAttemptNanoTime;
+    private long nextCheckNanoTime;
 
     public FileFlusher(final FileStrategyConfiguration configuration, final FileManager manager) {
-        this(configuration, manager, DEFAULT_FILE_SYSTEM_RECONNECT_DELAY_NANOS);
+        this(configuration, manager, DEFAULT_FILE_EXTENSION);
+    }
+
+    public FileFlusher(final FileStrategyConfiguration configuration, final FileManager manager, final String fileExtension) {
+        this(configuration, manager, fileExtension, DEFAULT_FILE_SYSTEM_RECONNECT_DELAY_NANOS);
     }
 
     public FileFlusher(final FileStrategyConfiguration configuration, final FileManager manager, final long reconnectDelayNanos) {
+        this(configuration, manager, DEFAULT_FILE_EXTENSION, reconnectDelayNanos);
+    }
+
+    public FileFlusher(final FileStrategyConfiguration configuration, final FileManager manager, final String fileExtension, final long reconnectDelayNanos) {
         /*
          * Constructor with configurable reconnect delay for testability.
          */
         this.reconnectDelayNanos = reconnectDelayNanos;
+        this.fileExtension = Objects.requireNonNull(fileExtension);
 
         syncEveryNanos = configuration.syncFileAfterDuration.toNanos();
         syncEveryRecords = configuration.syncFileAfterRecords;
         newFileEveryNanos = configuration.rollEvery.toNanos();
 
+        partitioner = configuration.partitionPattern.map(pattern -> new FilePartitioner(pattern, configuration, Clock.systemUTC()));
+        maxOpenFiles = configuration.maxOpenFiles;
+        maxOpenBytes = configuration.maxOpenBytes;
+        closeIdleAfterNanos = configuration.closeIdleAfter.toNanos();
+
         instanceNumber = INSTANCE_COUNTER.incrementAndGet();
         hostString = findLocalHostName();
 
         this.manager = Objects.requireNonNull(manager);
 
-        try {
-            currentTrackedFile = Optional.of(new TrackedFile(manager.createFile(newFileName())));
-        } catch(final IOException ioe) {
-            // Postpone throwing the exception to force going into heartbeat / recover
-            // cycle. Potentially drops a record too many, but avoids a additional branch in
-            // process(...).
-            currentTrackedFile = Optional.of(brokenTrackedFile(ioe));
+        fileSystemAvailable = true;
+        if (!partitioner.isPresent()) {
+            try {
+                trackedFiles.put(UNPARTITIONED, new TrackedFile(UNPARTITIONED, manager.createFile(newFileName(UNPARTITIONED))));
+            } catch(final IOException ioe) {
+                // Postpone throwing the exception to force going into heartbeat / recover
+                // cycle. Potentially drops a record too many, but avoids a additional branch in
+                // process(...).
+                trackedFiles.put(UNPARTITIONED, brokenTrackedFile(ioe));
+            }
         }
     }
 
@@ -108,11 +153,24 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
     public ProcessingDirective process(final Item<AvroRecordBuffer> item) {
         final long nanoTime = System.nanoTime();
         try {
-            final TrackedFile trackedFile = currentTrackedFile.orElseThrow(IllegalStateException::new);
+            if (!fileSystemAvailable) {
+                throw new IllegalStateException();
+            }
+            final String partition = partitioner.isPresent() ? partitioner.get().partitionFor(item.payload) : UNPARTITIONED;
+            final TrackedFile trackedFile = trackedFileFor(partition);
             trackedFile.divolteFile.append(item.payload);
             trackedFile.recordsSinceLastSync += 1;
+            trackedFile.lastAppendNanoTime = nanoTime;
+            trackedFile.bytes += item.payload.size();
+            trackedBytes += item.payload.size();
+            if (trackedBytes > maxOpenBytes) {
+                closeLeastRecentlyUsedFilesOverBudget();
+            }
 
-            possiblySyncAndOrRoll(nanoTime);
+            possiblySyncAndOrRoll(nanoTime, trackedFile);
+            if (partitioner.isPresent() && nanoTime - nextCheckNanoTime >= 0) {
+                possiblySyncAndOrRollAll(nanoTime);
+            }
 
             return CONTINUE;
         } catch(final IOException ioe) {
@@ -123,18 +181,44 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
         }
     }
 
+    private TrackedFile trackedFileFor(final String partition) throws IOException {
+        final TrackedFile existingFile = trackedFiles.get(partition);
+        if (null != existingFile) {
+            return existingFile;
+        }
+        // Only happens with partitioning; otherwise the single file is always there.
+        if (trackedFiles.size() >= maxOpenFiles) {
+            final TrackedFile leastRecentlyUsed = trackedFiles.values().iterator().next();
+            logger.debug("Closing least recently used file: {}", leastRecentlyUsed);
+            closeTrackedFile(leastRecentlyUsed);
+        }
+        final TrackedFile trackedFile = new TrackedFile(partition, manager.createFile(newFileName(partition)));
+        trackedFiles.put(partition, trackedFile);
+        return trackedFile;
+    }
+
+    private void closeLeastRecentlyUsedFilesOverBudget() throws IOException {
+        // Only happens with partitioning; the file just written to is the most recently used, and stays open.
+        while (trackedBytes > maxOpenBytes && trackedFiles.size() > 1) {
+            final TrackedFile leastRecentlyUsed = trackedFiles.values().iterator().next();
+            logger.debug("Closing least recently used file to stay within {} bytes: {}", maxOpenBytes, leastRecentlyUsed);
+            closeTrackedFile(leastRecentlyUsed);
+        }
+    }
+
     @Override
     public ProcessingDirective heartbeat() {
         final long nanoTime = System.nanoTime();
 
-        return currentTrackedFile
-                .map(trackedFile -> handleHeartbeatWithHealthyFileSystem(nanoTime))
-                .orElseGet(() -> nanoTime - lastFixAttemptNanoTime > reconnectDelayNanos ? attemptRecovery(nanoTime) : PAUSE);
+        if (fileSystemAvailable) {
+            return handleHeartbeatWithHealthyFileSystem(nanoTime);
+        }
+        return nanoTime - lastFixAttemptNanoTime > reconnectDelayNanos ? attemptRecovery(nanoTime) : PAUSE;
     }
 
     private ProcessingDirective handleHeartbeatWithHealthyFileSystem(final long nanoTime) {
         try {
-            possiblySyncAndOrRoll(nanoTime);
+            possiblySyncAndOrRollAll(nanoTime);
             return CONTINUE;
         } catch (final IOException e) {
             markFileSystemUnavailable(nanoTime);
@@ -146,9 +230,17 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
 
     private ProcessingDirective attemptRecovery(final long nanoTime) {
         logger.info("Attempting file system reconnect.");
+        if (partitioner.isPresent()) {
+            // Files are only created once records for their partition arrive; if the
+            // file system is still unavailable, the first of those will fail again.
+            fileSystemAvailable = true;
+            logger.info("Resuming writing to partitioned files.");
+            return CONTINUE;
+        }
         try {
-            final TrackedFile trackedFile = new TrackedFile(manager.createFile(newFileName()));
-            currentTrackedFile = Optional.of(trackedFile);
+            final TrackedFile trackedFile = new TrackedFile(UNPARTITIONED, manager.createFile(newFileName(UNPARTITIONED)));
+            trackedFiles.put(UNPARTITIONED, trackedFile);
+            fileSystemAvailable = true;
             logger.info("Recovered file system connection when creating file: {}", trackedFile);
             return CONTINUE;
         } catch (final IOException e) {
@@ -161,7 +253,10 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
 
     @Override
     public void cleanup() {
-        currentTrackedFile.ifPresent(trackedFile -> {
+        if (!fileSystemAvailable) {
+            return;
+        }
+        trackedFiles.values().forEach(trackedFile -> {
             try {
                 if (trackedFile.totalRecords + trackedFile.recordsSinceLastSync > 0) {
                     trackedFile.divolteFile.closeAndPublish();
@@ -172,31 +267,37 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
                 logger.error("Failed to close and publish file " + trackedFile + " during cleanup.", ioe);
             }
         });
+        trackedFiles.clear();
+        trackedBytes = 0;
     }
 
     private void markFileSystemUnavailable(final long nanoTime) {
         lastFixAttemptNanoTime = nanoTime;
-        discardCurrentTrackedFileQuietly();
-        currentTrackedFile = Optional.empty();
+        discardTrackedFilesQuietly();
+        trackedFiles.clear();
+        trackedBytes = 0;
+        fileSystemAvailable = false;
     }
 
-    private void possiblySyncAndOrRoll(final long nanoTime) throws IOException {
-        final TrackedFile trackedFile = currentTrackedFile.orElseThrow(IllegalStateException::new);
+    private void possiblySyncAndOrRollAll(final long nanoTime) throws IOException {
+        // Copied, because files may be closed (and removed) along the way.
+        for (final TrackedFile trackedFile : new ArrayList<>(trackedFiles.values())) {
+            possiblySyncAndOrRoll(nanoTime, trackedFile);
+        }
+        nextCheckNanoTime = nanoTime + CHECK_ALL_FILES_EVERY_NANOS;
+    }
+
+    private void possiblySyncAndOrRoll(final long nanoTime, final TrackedFile trackedFile) throws IOException {
         if (nanoTime > trackedFile.projectedCloseNanoTime) {
             // roll file
-            if (trackedFile.totalRecords > 0) {
-                // Assumes closeAndPublish performs an implicit sync / flush of any remaining
-                // internal buffers. There no additional sync call here, as file manager
-                // implementations may have more optimal ways of performing a sync + close +
-                // move on the file in one go.
-                logger.debug("Rolling file: {}", trackedFile);
-                trackedFile.divolteFile.closeAndPublish();
-            } else {
-                logger.debug("Discarding empty file: {}", trackedFile);
-                trackedFile.divolteFile.discard();
+            closeTrackedFile(trackedFile);
+            if (!partitioner.isPresent()) {
+                trackedFiles.put(UNPARTITIONED, new TrackedFile(UNPARTITIONED, manager.createFile(newFileName(UNPARTITIONED))));
             }
-
-            currentTrackedFile = Optional.of(new TrackedFile(manager.createFile(newFileName())));
+        } else if (partitioner.isPresent() && nanoTime - trackedFile.lastAppendNanoTime >= closeIdleAfterNanos) {
+            // Typically a partition for a time that has passed.
+            logger.debug("Closing idle file: {}", trackedFile);
+            closeTrackedFile(trackedFile);
         } else if (trackedFile.recordsSinceLastSync >= syncEveryRecords ||
                 nanoTime - trackedFile.lastSyncNanoTime >= syncEveryNanos && trackedFile.recordsSinceLastSync > 0) {
             // sync
@@ -207,6 +308,22 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
         }
     }
 
+    private void closeTrackedFile(final TrackedFile trackedFile) throws IOException {
+        if (trackedFile.totalRecords + trackedFile.recordsSinceLastSync > 0) {
+            // Assumes closeAndPublish performs an implicit sync / flush of any remaining
+            // internal buffers. There no additional sync call here, as file manager
+            // implementations may have more optimal ways of performing a sync + close +
+            // move on the file in one go.
+            logger.debug("Rolling file: {}", trackedFile);
+            trackedFile.divolteFile.closeAndPublish();
+        } else {
+            logger.debug("Discarding empty file: {}", trackedFile);
+            trackedFile.divolteFile.discard();
+        }
+        trackedFiles.remove(trackedFile.partition);
+        trackedBytes -= trackedFile.bytes;
+    }
+
     private void sync(final long nanoTime, final TrackedFile trackedFile) throws IOException {
         logger.debug("Syncing file: {}", trackedFile.divolteFile);
         trackedFile.divolteFile.sync();
@@ -216,20 +333,24 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
     }
 
     private final class TrackedFile {
+        final String partition;
         final long openNanoTime;
         final long projectedCloseNanoTime;
 
         final DivolteFile divolteFile;
 
         long lastSyncNanoTime;
+        long lastAppendNanoTime;
         int recordsSinceLastSync;
         long totalRecords;
+        long bytes;
 
 
-        public TrackedFile(final DivolteFile file) {
+        public TrackedFile(final String partition, final DivolteFile file) {
+            this.partition = partition;
             this.divolteFile = file;
 
-            this.openNanoTime = this.lastSyncNanoTime = System.nanoTime();
+            this.openNanoTime = this.lastSyncNanoTime = this.lastAppendNanoTime = System.nanoTime();
             this.recordsSinceLastSync = 0;
             this.totalRecords = 0;
             this.projectedCloseNanoTime = openNanoTime + newFileEveryNanos;
@@ -244,12 +365,13 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
                 .add("last sync nanotime", lastSyncNanoTime)
                 .add("records since last sync", recordsSinceLastSync)
                 .add("total records", totalRecords)
+                .add("bytes", bytes)
                 .toString();
         }
     }
 
-    private void discardCurrentTrackedFileQuietly() {
-        currentTrackedFile.ifPresent(trackedFile -> {
+    private void discardTrackedFilesQuietly() {
+        trackedFiles.values().forEach(trackedFile -> {
             try {
                 trackedFile.divolteFile.discard();
             } catch (final IOException e) {
@@ -258,8 +380,13 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
         });
     }
 
-    private String newFileName() {
-        return String.format("%s-divolte-tracking-%s-%d.avro", datePartFormat.format(new Date()), hostString, instanceNumber);
+    private String newFileName(final String partition) {
+        if (UNPARTITIONED.equals(partition)) {
+            return String.format("%s-divolte-tracking-%s-%d%s", datePartFormat.format(new Date()), hostString, instanceNumber, fileExtension);
+        }
+        // Files for the same partition may be opened (and closed) several times within a
+        // second, so a sequence number keeps their names apart.
+        return String.format("%s/%s-divolte-tracking-%s-%d-%d%s", partition, datePartFormat.format(new Date()), hostString, instanceNumber, ++fileSequenceNumber, fileExtension);
     }
 
     private static String findLocalHostName() {
@@ -271,7 +398,7 @@ public class FileFlusher implements ItemProcessor<AvroRecordBuffer> {
     }
 
     private TrackedFile brokenTrackedFile(final IOException error) {
-        return new TrackedFile(new DivolteFile() {
+        return new TrackedFile(UNPARTITIONED, new DivolteFile() {
             @Override
             public void closeAndPublish() throws IOException {
                 throw error;
@@ -16,14 +16,19 @@
 
 package io.divolte.server.filesinks;
 
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Optional;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.config.FileSinkConfiguration;
 import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
 import io.divolte.server.processing.ProcessingPool;
+import io.divolte.server.processing.QueueType;
 
 @ParametersAreNonnullByDefault
 public class FileFlushingPool extends ProcessingPool<FileFlusher, AvroRecordBuffer> {
@@ -33,16 +38,24 @@ public class FileFlushingPool extends ProcessingPool<FileFlusher, AvroRecordBuff
             final String sinkName,
             final int numThreads,
             final int maxQueueSize,
+            final OverflowPolicy overflowPolicy,
+            final Duration overflowTimeout,
+            final Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> spillSettings,
             final FileManager.FileManagerFactory factory) {
         super(numThreads,
               maxQueueSize,
+              QueueType.ARRAY_BLOCKING,
+              overflowPolicy,
+              overflowTimeout,
+              spillSettings,
               String.format(
                       "%s Flusher [%s]",
                       vc.configuration().getSinkConfiguration(sinkName, FileSinkConfiguration.class).getReadableType(),
                       Objects.requireNonNull(sinkName)),
               () -> new FileFlusher(
                       vc.configuration().getSinkConfiguration(sinkName, FileSinkConfiguration.class).fileStrategy,
-                      factory.create())
+                      factory.create(),
+                      vc.configuration().getSinkConfiguration(sinkName, FileSinkConfiguration.class).format.extension)
               );
     }
 }
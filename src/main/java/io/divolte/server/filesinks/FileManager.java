@@ -33,7 +33,9 @@ public interface FileManager {
      * retry cycle, by discarding the current file(s) and attempting to open a new one every so
      * often.
      *
-     * @param name Name of the file to be created, excluding directory.
+     * @param name Name of the file to be created, relative to the configured directories. When
+     *             the files are partitioned, this includes the '/'-separated subdirectories of the
+     *             partition; implementations should create these as needed.
      * @return A {@link DivolteFile} instance.
      * @throws IOException In case of errors or unavailability of the remote file system.
      */
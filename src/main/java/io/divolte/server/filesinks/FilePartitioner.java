@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.config.FileStrategyConfiguration;
+import io.divolte.server.config.PartitionTime;
+
+/*
+ * Determines the directory, relative to the publish directory, that a record is
+ * written to, by formatting either its event time or the current time.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class FilePartitioner {
+    private final DateTimeFormatter formatter;
+    private final PartitionTime partitionTime;
+    private final Clock clock;
+
+    // Most consecutive records fall in the same second; don't format them again.
+    private long lastEpochSecond = Long.MIN_VALUE;
+    @Nullable private String lastPartition;
+
+    FilePartitioner(final String pattern, final FileStrategyConfiguration configuration, final Clock clock) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(configuration.partitionTimeZone);
+        this.partitionTime = configuration.partitionTime;
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    String partitionFor(final AvroRecordBuffer record) {
+        final Instant time = partitionTime == PartitionTime.EVENT ? record.getTimestamp() : clock.instant();
+        final long epochSecond = time.getEpochSecond();
+        if (epochSecond != lastEpochSecond || null == lastPartition) {
+            // Truncated, so that all instants in the same second format the same.
+            lastPartition = formatter.format(Instant.ofEpochSecond(epochSecond));
+            lastEpochSecond = epochSecond;
+        }
+        return lastPartition;
+    }
+}
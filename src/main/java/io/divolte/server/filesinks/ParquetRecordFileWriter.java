@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.util.ByteBufferInputStream;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.config.ParquetConfiguration;
+
+/*
+ * Parquet writes a row group at a time: records are decoded and buffered (in columnar
+ * form) until a row group is full, or the file is finished. A flush therefore doesn't
+ * make the records appended since the last row group durable.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class ParquetRecordFileWriter implements RecordFileWriter {
+    private final CountingOutputStream stream;
+    private final ParquetWriter<GenericRecord> writer;
+
+    private final GenericDatumReader<GenericRecord> reader;
+    @Nullable private BinaryDecoder decoder;
+
+    ParquetRecordFileWriter(final OutputStream stream,
+                            final Schema schema,
+                            final ParquetConfiguration configuration) throws IOException {
+        this.stream = new CountingOutputStream(stream);
+        this.reader = new GenericDatumReader<>(schema);
+        this.writer = AvroParquetWriter.<GenericRecord>builder(new StreamOutputFile(this.stream))
+                .withSchema(schema)
+                .withRowGroupSize(configuration.rowGroupSize)
+                .withCompressionCodec(configuration.compressionCodec)
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .build();
+        // The writer has written the magic header; make sure it reaches the stream.
+        this.stream.flush();
+    }
+
+    @Override
+    public void append(final AvroRecordBuffer record) throws IOException {
+        decoder = DecoderFactory.get().binaryDecoder(new ByteBufferInputStream(Collections.singletonList(record.getByteBuffer())), decoder);
+        // The record is copied into the column buffers, so no reference to it is kept.
+        writer.write(reader.read(null, decoder));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Only complete row groups have been written; the current one stays buffered.
+        stream.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        // Writes the last row group and the footer; closing our stream only flushes it.
+        writer.close();
+    }
+
+    @Override
+    public boolean hasTrailer() {
+        // At least the footer, and possibly a row group.
+        return true;
+    }
+
+    @ParametersAreNonnullByDefault
+    private static final class StreamOutputFile implements OutputFile {
+        private final CountingOutputStream stream;
+
+        StreamOutputFile(final CountingOutputStream stream) {
+            this.stream = Objects.requireNonNull(stream);
+        }
+
+        @Override
+        public PositionOutputStream create(final long blockSizeHint) {
+            return stream;
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(final long blockSizeHint) {
+            return stream;
+        }
+
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    private static final class CountingOutputStream extends PositionOutputStream {
+        private final OutputStream wrapped;
+        private long position;
+
+        CountingOutputStream(final OutputStream wrapped) {
+            this.wrapped = Objects.requireNonNull(wrapped);
+        }
+
+        @Override
+        public long getPos() {
+            return position;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            wrapped.write(b);
+            ++position;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            wrapped.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            wrapped.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The file manager owns the underlying stream.
+            wrapped.flush();
+        }
+    }
+}
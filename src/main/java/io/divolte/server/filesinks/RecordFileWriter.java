@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.avro.Schema;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.config.FileSinkConfiguration;
+
+/**
+ * Writes records to a stream in the file format configured for a sink. File managers
+ * use this to write the contents of their files, leaving the handling of the stream
+ * itself to them.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public interface RecordFileWriter {
+    /**
+     * Append a single record. The record is not released; the caller remains responsible
+     * for that. The record may have been copied into a buffer of the writer instead of
+     * having been written to the stream.
+     *
+     * @param record The record to append.
+     * @throws IOException In case writing to the underlying stream fails.
+     */
+    void append(AvroRecordBuffer record) throws IOException;
+
+    /**
+     * Write everything that the format allows to be written at this point to the stream,
+     * and flush it. For Avro this is everything appended so far; for Parquet only complete
+     * row groups are written.
+     *
+     * @throws IOException In case writing to the underlying stream fails.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Write all remaining records and any trailer that the format requires. The stream is
+     * flushed, but not closed. Nothing may be appended afterwards.
+     *
+     * @throws IOException In case writing to the underlying stream fails.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Whether {@link #finish()} writes anything beyond the records appended since the
+     * last flush.
+     *
+     * @return true if the format needs the stream to be written to when finishing.
+     */
+    boolean hasTrailer();
+
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * Create a writer, which immediately writes the file header to the stream.
+         *
+         * @param stream The stream to write the file to.
+         * @return A new writer.
+         * @throws IOException In case writing the header to the stream fails.
+         */
+        RecordFileWriter create(OutputStream stream) throws IOException;
+    }
+
+    static Factory factoryFor(final FileSinkConfiguration configuration, final Schema schema) {
+        switch (configuration.format) {
+            case PARQUET:
+                return stream -> new ParquetRecordFileWriter(stream, schema, configuration.parquet);
+            case AVRO:
+            default:
+                return stream -> new AvroRecordFileWriter(stream, schema, configuration.avro);
+        }
+    }
+}
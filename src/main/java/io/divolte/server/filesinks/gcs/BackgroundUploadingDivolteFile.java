@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.gcs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.filesinks.FileManager.DivolteFile;
+import io.divolte.server.filesinks.RecordFileWriter;
+
+/*
+ * A file that doesn't block the sink thread on uploads. Records are serialized as they
+ * are appended; on sync the bytes written so far become a part that is uploaded in the
+ * background. Parts are only composed into the inflight file after several syncs (when
+ * GCS's limit on the number of sources of a compose is about to be reached, or at the
+ * checkpoint interval) and into the published file when closing. In between, records
+ * that were synced are in GCS, but only as parts.
+ *
+ * An upload that fails (after retries) surfaces on the next sync or on close.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class BackgroundUploadingDivolteFile implements DivolteFile {
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundUploadingDivolteFile.class);
+
+    // GCS composes at most this many source objects into one.
+    static final int MAX_COMPOSE_SOURCES = 32;
+
+    private final ObjectStore store;
+    private final ExecutorService executor;
+    private final PartBuffer.Pool partBuffers;
+    private final int maxPartSize;
+    private final int maxUploadsInProgress;
+    private final long checkpointEveryNanos;
+
+    private final RecordFileWriter writer;
+    // The writer writes into the part buffer that's currently attached.
+    private final DynamicDelegatingOutputStream writerStream = new DynamicDelegatingOutputStream();
+    private PartBuffer partBuffer;
+    // The file may be discarded after closing failed, so the buffer is released only once.
+    private boolean partBufferReleased;
+    // The size of the records appended since the last part was uploaded.
+    private long pendingBytes;
+
+    private final String inflightName;
+    private final String publishName;
+
+    // The parts since the last compose, in file order.
+    private final List<PendingPart> pendingParts = new ArrayList<>();
+    private int partSequenceNumber;
+    private boolean inflightComposed;
+    private long nextCheckpointNanoTime;
+
+    BackgroundUploadingDivolteFile(final String inflightName,
+                                   final String publishName,
+                                   final ObjectStore store,
+                                   final ExecutorService executor,
+                                   final PartBuffer.Pool partBuffers,
+                                   final RecordFileWriter.Factory writerFactory,
+                                   final int maxPartSize,
+                                   final int maxUploadsInProgress,
+                                   final Duration checkpointEvery) throws IOException {
+        this.inflightName = Objects.requireNonNull(inflightName);
+        this.publishName = Objects.requireNonNull(publishName);
+        this.store = Objects.requireNonNull(store);
+        this.executor = Objects.requireNonNull(executor);
+        this.partBuffers = Objects.requireNonNull(partBuffers);
+        this.maxPartSize = maxPartSize;
+        this.maxUploadsInProgress = maxUploadsInProgress;
+        this.checkpointEveryNanos = checkpointEvery.toNanos();
+
+        // The header ends up in the first part.
+        partBuffer = partBuffers.acquire();
+        writerStream.attachDelegate(partBuffer);
+        writer = writerFactory.create(writerStream);
+        nextCheckpointNanoTime = System.nanoTime() + checkpointEveryNanos;
+    }
+
+    @Override
+    public void append(final AvroRecordBuffer record) throws IOException {
+        try {
+            writer.append(record);
+        } finally {
+            record.release();
+        }
+        pendingBytes += record.size();
+        if (pendingBytes >= maxPartSize) {
+            // Don't wait for the sync to bound the memory used.
+            sync();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        writer.flush();
+        pendingBytes = 0;
+        if (partBuffer.size() > 0) {
+            uploadPart();
+        }
+        // Leave room for the inflight file itself as a source.
+        if (pendingParts.size() >= MAX_COMPOSE_SOURCES - 1
+                || !pendingParts.isEmpty() && System.nanoTime() - nextCheckpointNanoTime >= 0) {
+            composeParts(inflightName);
+            inflightComposed = true;
+        }
+    }
+
+    @Override
+    public void closeAndPublish() throws IOException {
+        writer.finish();
+        // There must be at least one source to compose the published file from.
+        if (partBuffer.size() > 0 || pendingParts.isEmpty() && !inflightComposed) {
+            uploadPart();
+        }
+        composeParts(publishName);
+        try {
+            if (inflightComposed) {
+                store.delete(inflightName);
+            }
+        } finally {
+            releasePartBuffer();
+        }
+    }
+
+    @Override
+    public void discard() throws IOException {
+        // Best effort to delete whatever has been uploaded. Uploads still in progress
+        // may be retrying for a long time, so these are abandoned instead. An abandoned
+        // upload may still have created its part, so every part is deleted by name.
+        for (final PendingPart part : pendingParts) {
+            if (part.upload.cancel(true) && part.started.compareAndSet(false, true)) {
+                // The upload never ran, so its buffer is still ours.
+                partBuffers.release(part.buffer);
+            }
+            try {
+                store.delete(part.name);
+            } catch (final IOException | RuntimeException e) {
+                logger.warn("Failed to delete part {} of discarded Google Cloud Storage file.", part.name, e);
+            }
+        }
+        pendingParts.clear();
+        try {
+            if (inflightComposed) {
+                store.delete(inflightName);
+            }
+        } finally {
+            releasePartBuffer();
+        }
+    }
+
+    private void releasePartBuffer() {
+        if (!partBufferReleased) {
+            partBufferReleased = true;
+            partBuffers.release(partBuffer);
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        // Fail early if an upload already failed; the file is lost at that point.
+        for (final PendingPart part : pendingParts) {
+            if (part.upload.isDone()) {
+                awaitUpload(part);
+            }
+        }
+        // Bound the number of parts (and their buffers) that are waiting to be uploaded.
+        if (pendingParts.size() >= maxUploadsInProgress) {
+            awaitUpload(pendingParts.get(pendingParts.size() - maxUploadsInProgress));
+        }
+
+        final PartBuffer part = partBuffer;
+        writerStream.detachDelegate();
+        partBuffer = partBuffers.acquire();
+        writerStream.attachDelegate(partBuffer);
+
+        final String partName = inflightName + ".part-" + ++partSequenceNumber;
+        final AtomicBoolean started = new AtomicBoolean();
+        final Future<?> upload = executor.submit(() -> {
+            // A discard that cancelled the upload before it got here releases the buffer.
+            if (!started.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                store.upload(partName, part);
+            } finally {
+                partBuffers.release(part);
+            }
+            return null;
+        });
+        pendingParts.add(new PendingPart(partName, part, started, upload));
+    }
+
+    private void composeParts(final String destinationName) throws IOException {
+        final List<String> sourceNames = new ArrayList<>(pendingParts.size() + 1);
+        if (inflightComposed) {
+            sourceNames.add(inflightName);
+        }
+        final List<String> partNames = new ArrayList<>(pendingParts.size());
+        for (final PendingPart part : pendingParts) {
+            awaitUpload(part);
+            partNames.add(part.name);
+        }
+        sourceNames.addAll(partNames);
+        store.compose(destinationName, sourceNames);
+
+        pendingParts.clear();
+        nextCheckpointNanoTime = System.nanoTime() + checkpointEveryNanos;
+
+        // The parts are no longer needed; their deletion needn't hold up the sink.
+        for (final String partName : partNames) {
+            executor.execute(() -> {
+                try {
+                    store.delete(partName);
+                } catch (final IOException | RuntimeException e) {
+                    logger.warn("Failed to delete Google Cloud Storage part {}.", partName, e);
+                }
+            });
+        }
+    }
+
+    private static void awaitUpload(final PendingPart part) throws IOException {
+        try {
+            part.upload.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload to Google Cloud Storage.");
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to upload part to Google Cloud Storage.", e.getCause());
+        }
+    }
+
+    private static final class PendingPart {
+        final String name;
+        // Owned by the upload once it has started.
+        final PartBuffer buffer;
+        final AtomicBoolean started;
+        final Future<?> upload;
+
+        PendingPart(final String name, final PartBuffer buffer, final AtomicBoolean started, final Future<?> upload) {
+            this.name = Objects.requireNonNull(name);
+            this.buffer = Objects.requireNonNull(buffer);
+            this.started = Objects.requireNonNull(started);
+            this.upload = Objects.requireNonNull(upload);
+        }
+    }
+}
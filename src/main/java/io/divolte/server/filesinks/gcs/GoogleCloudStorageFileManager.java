@@ -21,8 +21,12 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.*;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -33,12 +37,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.IOExceptions;
 import io.divolte.server.RetriableIOException;
 import io.divolte.server.config.GoogleCloudStorageSinkConfiguration;
 import io.divolte.server.config.ValidatedConfiguration;
 import io.divolte.server.filesinks.FileManager;
+import io.divolte.server.filesinks.RecordFileWriter;
 import io.divolte.server.filesinks.gcs.entities.ComposeRequest;
 import io.divolte.server.filesinks.gcs.entities.ComposeRequest.SourceObject;
 import io.divolte.server.filesinks.gcs.entities.GcsObjectResponse;
@@ -46,9 +52,6 @@ import io.divolte.server.filesinks.gcs.entities.GetBucketResponse;
 import net.jodah.failsafe.Failsafe;
 import net.jodah.failsafe.RetryPolicy;
 import org.apache.avro.Schema;
-import org.apache.avro.file.DataFileWriter;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.GenericRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -87,30 +90,56 @@ public class GoogleCloudStorageFileManager implements FileManager {
 
     private static final String PART_CLASSIFIER = ".part";
 
-    private final int recordBufferSize;
-    private final Schema schema;
+    private final int maxPartSize;
+    private final PartBuffer.Pool partBuffers;
+    private final RecordFileWriter.Factory writerFactory;
     private final String bucketEncoded;
     private final String inflightDir;
     private final String publishDir;
 
     private final RetryPolicy retryPolicy;
 
+    // Only present when parts are uploaded in the background.
+    private final Optional<ExecutorService> uploadExecutor;
+    private final int maxUploadsInProgress;
+    private final Duration checkpointEvery;
+    private final ObjectStore objectStore = new HttpObjectStore();
+
     public GoogleCloudStorageFileManager(
-        final int recordBufferSize,
-        final Schema schema,
+        final int maxPartSize,
+        final RecordFileWriter.Factory writerFactory,
         final String bucket,
         final String inflightDir,
         final String publishDir,
         RetryPolicy retryPolicy
+    ) {
+        this(maxPartSize, writerFactory, bucket, inflightDir, publishDir, retryPolicy, 0, Duration.ZERO);
+    }
+
+    public GoogleCloudStorageFileManager(
+        final int maxPartSize,
+        final RecordFileWriter.Factory writerFactory,
+        final String bucket,
+        final String inflightDir,
+        final String publishDir,
+        RetryPolicy retryPolicy,
+        final int uploadThreads,
+        final Duration checkpointEvery
     ) {
         try {
-            this.recordBufferSize = recordBufferSize;
-            this.schema = Objects.requireNonNull(schema);
+            this.maxPartSize = maxPartSize;
+            this.writerFactory = Objects.requireNonNull(writerFactory);
             this.bucketEncoded = URLEncoder.encode(bucket, URL_ENCODING);
             this.inflightDir = Objects.requireNonNull(inflightDir);
             this.publishDir = Objects.requireNonNull(publishDir);
             this.retryPolicy = Objects.requireNonNull(retryPolicy)
                                       .retryOn(RetriableIOException.class);
+            this.uploadExecutor = uploadThreads > 0 ? Optional.of(newUploadExecutor(uploadThreads)) : Optional.empty();
+            // Enough to keep the upload threads busy.
+            this.maxUploadsInProgress = uploadThreads + 1;
+            // Enough for a file with its uploads in progress; more files use buffers of their own.
+            this.partBuffers = new PartBuffer.Pool(maxUploadsInProgress + 1);
+            this.checkpointEvery = Objects.requireNonNull(checkpointEvery);
         } catch (final UnsupportedEncodingException e) {
             // Should not happen. URL encoding the bucket and dirs is verified during
             // configuration verification.
@@ -119,9 +148,27 @@ public class GoogleCloudStorageFileManager implements FileManager {
         }
     }
 
+    private static ExecutorService newUploadExecutor(final int uploadThreads) {
+        final ThreadFactory factory = new ThreadFactoryBuilder()
+            .setNameFormat("Google Cloud Storage upload - %d")
+            .setDaemon(true)
+            .build();
+        // The manager has no lifecycle of its own, so idle threads just go away.
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(uploadThreads, uploadThreads,
+                                                                   1, TimeUnit.MINUTES,
+                                                                   new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Override
     public DivolteFile createFile(final String name) throws IOException {
-        return new GoogleCloudStorageDivolteFile(name);
+        return uploadExecutor.isPresent()
+            ? new BackgroundUploadingDivolteFile(inflightDir + GCS_PATH_SEPARATOR_CHAR + name,
+                                                 publishDir + GCS_PATH_SEPARATOR_CHAR + name,
+                                                 objectStore, uploadExecutor.get(), partBuffers, writerFactory,
+                                                 maxPartSize, maxUploadsInProgress, checkpointEvery)
+            : new GoogleCloudStorageDivolteFile(name);
     }
 
     public static FileManagerFactory newFactory(final ValidatedConfiguration configuration, final String sinkName, final Schema schema) {
@@ -129,9 +176,10 @@ public class GoogleCloudStorageFileManager implements FileManager {
     }
 
     public class GoogleCloudStorageDivolteFile implements DivolteFile {
-        private final AvroRecordBuffer[] buffer;
-        private final DataFileWriter<GenericRecord> writer;
-        private final DynamicDelegatingOutputStream avroTargetStream;
+        private final PartBuffer partBuffer;
+        // The file may be discarded after closing failed, so the buffer is released only once.
+        private boolean partBufferReleased;
+        private final RecordFileWriter writer;
 
         private final String inflightNameEncoded;
         private final String inflightPartialNameEncoded;
@@ -141,16 +189,10 @@ public class GoogleCloudStorageFileManager implements FileManager {
         private final String inflightPartialName;
 
         private boolean partWritten;
-        private int position;
+        // The size of the records appended since the last part was written.
+        private long pendingBytes;
 
         private GoogleCloudStorageDivolteFile(final String fileName) throws IOException {
-            /*
-             * Consider pooling these or assume only one file to be active at any point in
-             * time and use a single buffer per outer instance. While the latter is
-             * currently valid, new file syncing and rolling strategies might change this.
-             */
-            this.buffer = new AvroRecordBuffer[recordBufferSize];
-
             this.inflightName = inflightDir + GCS_PATH_SEPARATOR_CHAR + fileName;
             this.inflightPartialName = inflightName + PART_CLASSIFIER;
 
@@ -161,106 +203,106 @@ public class GoogleCloudStorageFileManager implements FileManager {
             final URL remoteFileUrl = uploadUrlFor(bucketEncoded, inflightNameEncoded);
 
             /*
-             * We create a single Avro writer, but write parts of the Avro stream to
+             * We create a single writer, but write parts of the file's stream to
              * multiple files, which are composed into a single file after flushing files.
-             * We use a DynamicDelegatingOutputStream for this, which is an output stream
-             * wrapper that supports changing the wrapped stream on the fly.
+             * Records are encoded into the part buffer as they're appended; the buffer is
+             * uploaded as a part (and emptied) when syncing, or earlier if it grows too large.
              *
-             * When creating an Avro writer, it immediately writes the Avro header to the
-             * underlying stream. As such, we need to open the HTTP connection before
-             * creating the writer. As the writer is final, we cannot use the
-             * googlePost(...) helper in the constructor, because we cannot set a final from
-             * a lambda.
+             * When creating a writer, it immediately writes the file header, which
+             * is uploaded as the initial file.
              */
-            avroTargetStream = new DynamicDelegatingOutputStream();
-
-            writer = withRetry(POST, remoteFileUrl, true, AVRO_CONTENT_TYPE_HEADER, connection -> {
-                final DataFileWriter<GenericRecord> localWriter;
-                try (final OutputStream os = connection.getOutputStream()) {
-                    avroTargetStream.attachDelegate(os);
-                    try {
-                        localWriter = new DataFileWriter<GenericRecord>(new GenericDatumWriter<>(schema)).create(schema, avroTargetStream);
-                        localWriter.flush();
-                    } finally {
-                        avroTargetStream.detachDelegate();
-                    }
-                }
-                final GcsObjectResponse response = parseResponse(GcsObjectResponse.class, connection);
+            partBuffer = partBuffers.acquire();
+            try {
+                writer = writerFactory.create(partBuffer);
+                final GcsObjectResponse response = googlePost(remoteFileUrl, GcsObjectResponse.class, AVRO_CONTENT_TYPE_HEADER,
+                                                              partBuffer::writeTo, retryPolicy);
                 logger.debug("Google Cloud Storage upload response: {}", response);
-                return localWriter;
-            }, retryPolicy);
+            } catch (final IOException | RuntimeException e) {
+                partBuffers.release(partBuffer);
+                throw e;
+            }
+            partBuffer.reset();
             partWritten = false;
         }
 
         @Override
-        public void append(final AvroRecordBuffer record) {
-            /*
-             * Hang on to buffer; write later on sync. We don't guard against overflow, as
-             * the buffer is allocated to the max configured number of inflight records
-             * between syncing for the file strategy.
-             */
-            buffer[position++] = record;
+        public void append(final AvroRecordBuffer record) throws IOException {
+            try {
+                writer.append(record);
+            } finally {
+                record.release();
+            }
+            pendingBytes += record.size();
+            if (pendingBytes >= maxPartSize) {
+                // Don't wait for the sync to bound the memory used.
+                writeBufferAndComposeParts(inflightNameEncoded, false);
+            }
         }
 
         @Override
         public void sync() throws IOException {
-            writeBufferAndComposeParts(inflightNameEncoded);
+            writeBufferAndComposeParts(inflightNameEncoded, false);
         }
 
         @Override
         public void closeAndPublish() throws IOException {
             // write final part and compose all parts into published file
-            writeBufferAndComposeParts(publishNameEncoded);
-
-            // delete inflight partial
-            googleDelete(deleteUrlFor(bucketEncoded, inflightPartialNameEncoded), retryPolicy);
+            writeBufferAndComposeParts(publishNameEncoded, true);
+            try {
+                // delete inflight partial
+                googleDelete(deleteUrlFor(bucketEncoded, inflightPartialNameEncoded), retryPolicy);
 
-            // delete inflight composed
-            googleDelete(deleteUrlFor(bucketEncoded, inflightNameEncoded), retryPolicy);
+                // delete inflight composed
+                googleDelete(deleteUrlFor(bucketEncoded, inflightNameEncoded), retryPolicy);
+            } finally {
+                releasePartBuffer();
+            }
         }
 
         @Override
         public void discard() throws IOException {
-            // best effort to delete partial file
-            if (partWritten) {
-                googleDelete(deleteUrlFor(bucketEncoded, inflightPartialNameEncoded), retryPolicy);
+            try {
+                // best effort to delete partial file
+                if (partWritten) {
+                    googleDelete(deleteUrlFor(bucketEncoded, inflightPartialNameEncoded), retryPolicy);
+                }
+                googleDelete(deleteUrlFor(bucketEncoded, inflightNameEncoded), retryPolicy);
+            } finally {
+                releasePartBuffer();
             }
-            googleDelete(deleteUrlFor(bucketEncoded, inflightNameEncoded), retryPolicy);
         }
 
-        private void writeBufferAndComposeParts(final String composeDestinationObjectEncoded) throws IOException {
+        private void releasePartBuffer() {
+            if (!partBufferReleased) {
+                partBufferReleased = true;
+                partBuffers.release(partBuffer);
+            }
+        }
+
+        private void writeBufferAndComposeParts(final String composeDestinationObjectEncoded, final boolean finish) throws IOException {
             final ImmutableList<SourceObject> sourcesToCompose;
 
-            if (position > 0) {
+            if (finish) {
+                writer.finish();
+            } else {
+                writer.flush();
+            }
+            pendingBytes = 0;
+
+            if (partBuffer.size() > 0) {
                 final URL partUploadUrl = uploadUrlFor(bucketEncoded, inflightPartialNameEncoded);
 
                 final GcsObjectResponse uploadResponse = googlePost(
                     partUploadUrl,
                     GcsObjectResponse.class,
                     AVRO_CONTENT_TYPE_HEADER,
-                    os -> {
-                        avroTargetStream.attachDelegate(os);
-                        try {
-                            for (int c = 0; c < position; c++) {
-                                // Write Avro record buffer to file
-                                writer.appendEncoded(buffer[c].getByteBuffer());
-                            }
-                            writer.flush();
-                        } finally {
-                            avroTargetStream.detachDelegate();
-                        }
-                    },
+                    partBuffer::writeTo,
                     retryPolicy
                 );
 
                 // Since it has been written, clear the buffer
-                for (int c = 0; c < position; c++) {
-                    // Clear (our) reference to flushed buffer
-                    buffer[c] = null;
-                }
-
+                partBuffer.reset();
                 partWritten = true;
-                position = 0;
 
                 logger.debug("Google Cloud Storage upload response {}", uploadResponse);
 
@@ -288,6 +330,32 @@ public class GoogleCloudStorageFileManager implements FileManager {
         }
     }
 
+    private final class HttpObjectStore implements ObjectStore {
+        @Override
+        public void upload(final String name, final PartBuffer contents) throws IOException {
+            final GcsObjectResponse uploadResponse = googlePost(
+                uploadUrlFor(bucketEncoded, URLEncoder.encode(name, URL_ENCODING)), GcsObjectResponse.class,
+                AVRO_CONTENT_TYPE_HEADER, contents::writeTo, retryPolicy);
+            logger.debug("Google Cloud Storage upload response {}", uploadResponse);
+        }
+
+        @Override
+        public void compose(final String destinationName, final List<String> sourceNames) throws IOException {
+            final ComposeRequest composeRequest = new ComposeRequest(
+                    new ComposeRequest.DestinationObject(AVRO_CONTENT_TYPE),
+                    sourceNames.stream().map(SourceObject::new).collect(ImmutableList.toImmutableList()));
+            final GcsObjectResponse composeResponse = googlePost(
+                composeUrlFor(bucketEncoded, URLEncoder.encode(destinationName, URL_ENCODING)), GcsObjectResponse.class,
+                JSON_CONTENT_TYPE_HEADER, os -> MAPPER.writeValue(os, composeRequest), retryPolicy);
+            logger.debug("Google Cloud Storage compose response {}", composeResponse);
+        }
+
+        @Override
+        public void delete(final String name) throws IOException {
+            googleDelete(deleteUrlFor(bucketEncoded, URLEncoder.encode(name, URL_ENCODING)), retryPolicy);
+        }
+    }
+
     public static class GoogleCloudStorageFileManagerFactory implements FileManagerFactory {
         private final Schema schema;
         private final ValidatedConfiguration configuration;
@@ -338,12 +406,14 @@ public class GoogleCloudStorageFileManager implements FileManager {
         public FileManager create() {
             final GoogleCloudStorageSinkConfiguration sinkConfiguration = configuration.configuration().getSinkConfiguration(name, GoogleCloudStorageSinkConfiguration.class);
             return new GoogleCloudStorageFileManager(
-                sinkConfiguration.fileStrategy.syncFileAfterRecords,
-                schema,
+                sinkConfiguration.maxPartSize,
+                RecordFileWriter.factoryFor(sinkConfiguration, schema),
                 sinkConfiguration.bucket,
                 sinkConfiguration.fileStrategy.workingDir,
                 sinkConfiguration.fileStrategy.publishDir,
-                sinkConfiguration.retrySettings.createRetryPolicy()
+                sinkConfiguration.retrySettings.createRetryPolicy(),
+                sinkConfiguration.uploadThreads,
+                sinkConfiguration.checkpointEvery
             );
         }
     }
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.gcs;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+
+/*
+ * The operations on the objects of a bucket that files are written with. Object names
+ * are not URL encoded. Besides an IOException, implementations may throw an unchecked
+ * exception when an operation fails after retrying.
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+interface ObjectStore {
+    void upload(String name, PartBuffer contents) throws IOException;
+
+    void compose(String destinationName, List<String> sourceNames) throws IOException;
+
+    void delete(String name) throws IOException;
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.gcs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Preconditions;
+
+/*
+ * The encoded data of a part that is yet to be uploaded, kept off-heap. The buffer
+ * grows as needed; buffers are pooled, so they only grow until they're large
+ * enough for the parts being written. The pool holds a limited number of buffers,
+ * so that the memory of buffers needed at a peak is freed again afterwards.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class PartBuffer extends OutputStream {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private ByteBuffer buffer;
+    // Whether the buffer was released and not acquired since; guarded by the pool.
+    private boolean released;
+
+    private PartBuffer() {
+        buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    @Override
+    public void write(final int b) {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+        ensureRemaining(len);
+        buffer.put(b, off, len);
+    }
+
+    private void ensureRemaining(final int length) {
+        if (buffer.remaining() < length) {
+            final ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(2 * buffer.capacity(), buffer.position() + length));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    /*
+     * Writes the contents to a stream; this can be repeated, e.g. when an upload is retried.
+     */
+    void writeTo(final OutputStream stream) throws IOException {
+        final ByteBuffer contents = buffer.duplicate();
+        contents.flip();
+        Channels.newChannel(stream).write(contents);
+    }
+
+    void reset() {
+        buffer.clear();
+    }
+
+    @ThreadSafe
+    static final class Pool {
+        private final int maxAvailable;
+        @GuardedBy("this") private final Deque<PartBuffer> available = new ArrayDeque<>();
+
+        Pool(final int maxAvailable) {
+            Preconditions.checkArgument(maxAvailable >= 0, "Maximum number of pooled buffers must not be negative: %s", maxAvailable);
+            this.maxAvailable = maxAvailable;
+        }
+
+        synchronized PartBuffer acquire() {
+            final PartBuffer buffer = available.poll();
+            if (null == buffer) {
+                return new PartBuffer();
+            }
+            buffer.released = false;
+            return buffer;
+        }
+
+        // The number of buffers that are ready to be reused.
+        synchronized int availableCount() {
+            return available.size();
+        }
+
+        synchronized void release(final PartBuffer buffer) {
+            // Pooling a buffer twice would hand it out to two users.
+            Preconditions.checkArgument(!buffer.released, "Part buffer was already released.");
+            buffer.released = true;
+            // Beyond the limit, the buffer is left to the garbage collector.
+            if (available.size() < maxAvailable) {
+                buffer.reset();
+                available.push(buffer);
+            }
+        }
+    }
+}
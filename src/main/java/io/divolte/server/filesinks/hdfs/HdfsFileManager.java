@@ -23,10 +23,8 @@ import io.divolte.server.config.FileSinkConfiguration;
 import io.divolte.server.config.HdfsSinkConfiguration;
 import io.divolte.server.config.ValidatedConfiguration;
 import io.divolte.server.filesinks.FileManager;
+import io.divolte.server.filesinks.RecordFileWriter;
 import org.apache.avro.Schema;
-import org.apache.avro.file.DataFileWriter;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.GenericRecord;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
@@ -50,13 +48,13 @@ public class HdfsFileManager implements FileManager {
     private final short replication;
     private final String workDir;
     private final String publishDir;
-    private final Schema writeSchema;
+    private final RecordFileWriter.Factory writerFactory;
 
-    private HdfsFileManager(final FileSystem hdfs, final short replication, final String workDir, final String publishDir, final Schema schema) {
+    private HdfsFileManager(final FileSystem hdfs, final short replication, final String workDir, final String publishDir, final RecordFileWriter.Factory writerFactory) {
         this.hdfs = Objects.requireNonNull(hdfs);
         this.workDir = Objects.requireNonNull(workDir);
         this.publishDir = Objects.requireNonNull(publishDir);
-        this.writeSchema = Objects.requireNonNull(schema);
+        this.writerFactory = Objects.requireNonNull(writerFactory);
         this.replication = replication;
     }
 
@@ -71,20 +69,21 @@ public class HdfsFileManager implements FileManager {
 
     public class HdfsDivolteFile implements DivolteFile {
         private final FSDataOutputStream stream;
-        private final DataFileWriter<GenericRecord> writer;
+        private final RecordFileWriter writer;
         private final Path inflightPath;
         private final Path publishPath;
 
-        @SuppressWarnings("resource")
         HdfsDivolteFile(final String name) throws IOException {
             inflightPath = new Path(workDir, name + INFLIGHT_EXTENSION);
             publishPath = new Path(publishDir, name);
 
             stream = hdfs.create(inflightPath, replication);
-
-            writer = new DataFileWriter<GenericRecord>(new GenericDatumWriter<>(writeSchema)).create(writeSchema, stream);
-            writer.setSyncInterval(1 << 30);
-            writer.setFlushOnEveryBlock(true);
+            try {
+                writer = writerFactory.create(stream);
+            } catch (final IOException e) {
+                Closeables.close(stream, true);
+                throw e;
+            }
 
             // Sync the file on open to make sure the
             // connection actually works, because
@@ -95,13 +94,21 @@ public class HdfsFileManager implements FileManager {
 
         @Override
         public void append(final AvroRecordBuffer buffer) throws IOException {
-            writer.appendEncoded(buffer.getByteBuffer());
+            try {
+                writer.append(buffer);
+            } finally {
+                // The writer has copied the record; if it failed, the record is lost anyway.
+                buffer.release();
+            }
         }
 
         @Override
         public void closeAndPublish() throws IOException {
+            writer.finish();
             sync();
-            writer.close(); // closes underlying stream as well
+            stream.close();
+            // Partitioned files are published into subdirectories, which may not exist yet.
+            hdfs.mkdirs(publishPath.getParent());
             if (!hdfs.rename(inflightPath, publishPath)) {
                 logger.warn("Failed to publish HDFS file {} to {}.", inflightPath, publishPath);
             }
@@ -109,8 +116,8 @@ public class HdfsFileManager implements FileManager {
 
         @Override
         public void sync() throws IOException {
-            // Forces the Avro file to write a block
-            writer.sync();
+            // Forces the writer to write what it can, e.g. an Avro block
+            writer.flush();
 
             // Forces a (HDFS) flush and sync on the underlying stream
             stream.hflush();
@@ -119,7 +126,7 @@ public class HdfsFileManager implements FileManager {
 
         @Override
         public void discard() throws IOException {
-            Closeables.close(writer, true);
+            Closeables.close(stream, true);
 
             if (hdfs.exists(inflightPath)) {
                 hdfs.delete(inflightPath, false);
@@ -192,7 +199,9 @@ public class HdfsFileManager implements FileManager {
             try {
                 final String hdfsWorkingDir = configuration.configuration().getSinkConfiguration(name, FileSinkConfiguration.class).fileStrategy.workingDir;
                 final String hdfsPublishDir = configuration.configuration().getSinkConfiguration(name, FileSinkConfiguration.class).fileStrategy.publishDir;
-                return new HdfsFileManager(getFileSystemInstance(), hdfsReplication, hdfsWorkingDir, hdfsPublishDir, schema);
+                final FileSinkConfiguration sinkConfiguration = configuration.configuration().getSinkConfiguration(name, FileSinkConfiguration.class);
+                return new HdfsFileManager(getFileSystemInstance(), hdfsReplication, hdfsWorkingDir, hdfsPublishDir,
+                                           RecordFileWriter.factoryFor(sinkConfiguration, schema));
             } catch (final IOException e) {
                 logger.error("Failed to construct HDFS file system instance from verified configuration.");
                 throw new UncheckedIOException(e);
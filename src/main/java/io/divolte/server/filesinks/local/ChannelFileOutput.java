@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.local;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/*
+ * Writes to the channel with gathering writes, so that several buffers (such as
+ * the records of a block) are handed to the kernel in a single call.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class ChannelFileOutput implements FileOutput {
+    private final FileChannel channel;
+
+    ChannelFileOutput(final FileChannel channel) {
+        this.channel = Objects.requireNonNull(channel);
+    }
+
+    @Override
+    public void write(final ByteBuffer... buffers) throws IOException {
+        // A gathering write may be partial (e.g. when there are more buffers than the
+        // system call accepts), so keep going until all buffers are drained.
+        int first = 0;
+        while (first < buffers.length) {
+            channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                ++first;
+            }
+        }
+    }
+
+    @Override
+    public void force() throws IOException {
+        // The data, and whatever metadata is needed to read it back (i.e. the size).
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.local;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/*
+ * Where the bytes of a local file go: either straight to its channel, or into
+ * memory-mapped segments of it.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+interface FileOutput {
+    /*
+     * Write all remaining bytes of the buffers, in order. The positions of the buffers
+     * are advanced; the buffers are not retained.
+     */
+    void write(ByteBuffer... buffers) throws IOException;
+
+    /*
+     * Make everything written so far durable.
+     */
+    void force() throws IOException;
+
+    /*
+     * Close the file, which has exactly the bytes written to it afterwards.
+     */
+    void close() throws IOException;
+}
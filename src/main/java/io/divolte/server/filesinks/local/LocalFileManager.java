@@ -0,0 +1,303 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.local;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.config.FileFormat;
+import io.divolte.server.config.LocalSinkConfiguration;
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.filesinks.FileManager;
+import io.divolte.server.filesinks.RecordFileWriter;
+
+/**
+ * File manager for a file system that is mounted locally, without any of the overhead
+ * of the Hadoop client.
+ *
+ * <p>Uncompressed Avro files are written directly: the records are gathered into
+ * blocks that are written straight from the record buffers. Any other format or codec
+ * goes through a {@link RecordFileWriter}.
+ */
+@ParametersAreNonnullByDefault
+public class LocalFileManager implements FileManager {
+    private static final Logger logger = LoggerFactory.getLogger(LocalFileManager.class);
+
+    private final static String INFLIGHT_EXTENSION = ".partial";
+    private final static String NULL_CODEC = "null";
+    private final static int SYNC_MARKER_SIZE = 16;
+    private final static int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final Path workDir;
+    private final Path publishDir;
+    private final LocalSinkConfiguration configuration;
+    private final Schema schema;
+    private final boolean writeBlocksDirectly;
+    private final RecordFileWriter.Factory writerFactory;
+
+    private LocalFileManager(final LocalSinkConfiguration configuration, final Schema schema) {
+        this.configuration = Objects.requireNonNull(configuration);
+        this.schema = Objects.requireNonNull(schema);
+        this.workDir = Paths.get(configuration.fileStrategy.workingDir);
+        this.publishDir = Paths.get(configuration.fileStrategy.publishDir);
+        this.writeBlocksDirectly = configuration.format == FileFormat.AVRO && NULL_CODEC.equals(configuration.avro.codec);
+        this.writerFactory = RecordFileWriter.factoryFor(configuration, schema);
+    }
+
+    @Override
+    public DivolteFile createFile(final String name) throws IOException {
+        return new LocalDivolteFile(name);
+    }
+
+    public static FileManagerFactory newFactory(final ValidatedConfiguration configuration, final String sinkName, final Schema schema) {
+        return new LocalFileManagerFactory(configuration, sinkName, schema);
+    }
+
+    public class LocalDivolteFile implements DivolteFile {
+        private final Path inflightPath;
+        private final Path publishPath;
+        private final FileOutput output;
+
+        // Only one of these is used, depending on whether blocks are written directly.
+        @Nullable private final RecordFileWriter writer;
+        @Nullable private final ByteBuffer syncMarker;
+
+        // The records of the block being assembled; released once written.
+        private final List<AvroRecordBuffer> pending = new ArrayList<>();
+        private final ByteBuffer blockHeader = ByteBuffer.allocate(20);
+        private long pendingBytes;
+
+        LocalDivolteFile(final String name) throws IOException {
+            inflightPath = workDir.resolve(name + INFLIGHT_EXTENSION);
+            publishPath = publishDir.resolve(name);
+
+            // Partitioned files live in subdirectories, which may not exist yet.
+            Files.createDirectories(inflightPath.getParent());
+            final FileChannel channel = FileChannel.open(inflightPath,
+                                                         StandardOpenOption.CREATE_NEW,
+                                                         StandardOpenOption.READ,
+                                                         StandardOpenOption.WRITE);
+            output = configuration.memoryMapped
+                    ? new MappedFileOutput(channel, configuration.segmentSize)
+                    : new ChannelFileOutput(channel);
+            try {
+                if (writeBlocksDirectly) {
+                    final byte[] header = containerHeader(schema);
+                    // The header ends with the (random) marker that follows each block.
+                    syncMarker = ByteBuffer.wrap(Arrays.copyOfRange(header, header.length - SYNC_MARKER_SIZE, header.length));
+                    writer = null;
+                    output.write(ByteBuffer.wrap(header));
+                } else {
+                    syncMarker = null;
+                    writer = writerFactory.create(new BufferedOutputStream(new OutputStreamAdapter(output), STREAM_BUFFER_SIZE));
+                }
+            } catch (final IOException e) {
+                closeQuietly();
+                Files.deleteIfExists(inflightPath);
+                throw e;
+            }
+        }
+
+        @Override
+        public void append(final AvroRecordBuffer buffer) throws IOException {
+            if (null != writer) {
+                try {
+                    writer.append(buffer);
+                } finally {
+                    buffer.release();
+                }
+            } else {
+                pending.add(buffer);
+                pendingBytes += buffer.size();
+                if (pendingBytes >= configuration.avro.blockSize) {
+                    writeBlock();
+                }
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            final int count = pending.size();
+            if (0 == count) {
+                return;
+            }
+            blockHeader.clear();
+            int headerLength = BinaryData.encodeLong(count, blockHeader.array(), 0);
+            headerLength += BinaryData.encodeLong(pendingBytes, blockHeader.array(), headerLength);
+            blockHeader.limit(headerLength);
+
+            final ByteBuffer[] buffers = new ByteBuffer[count + 2];
+            buffers[0] = blockHeader;
+            for (int i = 0; i < count; ++i) {
+                buffers[i + 1] = pending.get(i).getByteBuffer();
+            }
+            buffers[count + 1] = Objects.requireNonNull(syncMarker).duplicate();
+            output.write(buffers);
+
+            // Written; we no longer need the records.
+            pending.forEach(AvroRecordBuffer::release);
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        @Override
+        public void sync() throws IOException {
+            if (null != writer) {
+                writer.flush();
+            } else {
+                writeBlock();
+            }
+            output.force();
+        }
+
+        @Override
+        public void closeAndPublish() throws IOException {
+            if (null != writer) {
+                writer.finish();
+            } else {
+                writeBlock();
+            }
+            output.force();
+            output.close();
+            Files.createDirectories(publishPath.getParent());
+            Files.move(inflightPath, publishPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void discard() throws IOException {
+            pending.forEach(AvroRecordBuffer::release);
+            pending.clear();
+            closeQuietly();
+            Files.deleteIfExists(inflightPath);
+        }
+
+        private void closeQuietly() {
+            try {
+                output.close();
+            } catch (final IOException e) {
+                logger.debug("Ignoring failure while closing file: " + inflightPath, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects
+                    .toStringHelper(getClass())
+                    .add("inflight file", inflightPath)
+                    .add("publish file", publishPath)
+                    .toString();
+        }
+    }
+
+    private static byte[] containerHeader(final Schema schema) throws IOException {
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (final DataFileWriter<GenericRecord> writer = new DataFileWriter<>(new GenericDatumWriter<>(schema))) {
+            writer.create(schema, header);
+        }
+        return header.toByteArray();
+    }
+
+    /*
+     * Adapts the output for writers that expect a stream. The file is closed by its
+     * owner, not by the writer.
+     */
+    @ParametersAreNonnullByDefault
+    private static final class OutputStreamAdapter extends OutputStream {
+        private final FileOutput output;
+
+        OutputStreamAdapter(final FileOutput output) {
+            this.output = Objects.requireNonNull(output);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            output.write(ByteBuffer.wrap(new byte[] { (byte) b }));
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            output.write(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    @ParametersAreNonnullByDefault
+    public static class LocalFileManagerFactory implements FileManager.FileManagerFactory {
+        private final ValidatedConfiguration configuration;
+        private final String name;
+        private final Schema schema;
+
+        private LocalFileManagerFactory(final ValidatedConfiguration vc, final String name, final Schema schema) {
+            this.configuration = Objects.requireNonNull(vc);
+            this.name = Objects.requireNonNull(name);
+            this.schema = Objects.requireNonNull(schema);
+        }
+
+        @Override
+        public void verifyFileSystemConfiguration() {
+            final LocalSinkConfiguration sinkConfiguration = configuration.configuration().getSinkConfiguration(name, LocalSinkConfiguration.class);
+            final Path workingDir = Paths.get(sinkConfiguration.fileStrategy.workingDir);
+            final Path publishDir = Paths.get(sinkConfiguration.fileStrategy.publishDir);
+            if (!Files.isDirectory(workingDir)) {
+                throw new RuntimeException("Working directory for in-flight files does not exist or is not a directory: " + workingDir);
+            }
+            if (!Files.isDirectory(publishDir)) {
+                throw new RuntimeException("Directory for publishing files does not exist or is not a directory: " + publishDir);
+            }
+            try {
+                // Publishing is an atomic rename, which only works within a file system.
+                if (!Files.getFileStore(workingDir).equals(Files.getFileStore(publishDir))) {
+                    throw new RuntimeException("Working directory and publish directory must be on the same file system: " + workingDir + ", " + publishDir);
+                }
+            } catch (final IOException e) {
+                logger.error("Could not determine file system of working and publish directories.", e);
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public FileManager create() {
+            return new LocalFileManager(configuration.configuration().getSinkConfiguration(name, LocalSinkConfiguration.class), schema);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.local;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/*
+ * Writes into memory-mapped segments of the file. Each segment is mapped (and the
+ * file extended to cover it) before it's written to, so that writing a record is a
+ * memory copy without a system call. When the file is closed, it's truncated to the
+ * bytes actually written.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class MappedFileOutput implements FileOutput {
+    private final FileChannel channel;
+    private final int segmentSize;
+
+    // Segments that were filled since the last time the file was forced.
+    private final List<MappedByteBuffer> unforcedSegments = new ArrayList<>();
+    @Nullable private MappedByteBuffer segment;
+    private long mappedSize;
+    private long position;
+
+    MappedFileOutput(final FileChannel channel, final int segmentSize) {
+        this.channel = Objects.requireNonNull(channel);
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void write(final ByteBuffer... buffers) throws IOException {
+        for (final ByteBuffer buffer : buffers) {
+            while (buffer.hasRemaining()) {
+                final MappedByteBuffer target = null != segment && segment.hasRemaining() ? segment : mapNextSegment();
+                final int length = Math.min(buffer.remaining(), target.remaining());
+                final ByteBuffer source = buffer.duplicate();
+                source.limit(source.position() + length);
+                target.put(source);
+                buffer.position(buffer.position() + length);
+                position += length;
+            }
+        }
+    }
+
+    private MappedByteBuffer mapNextSegment() throws IOException {
+        if (null != segment) {
+            unforcedSegments.add(segment);
+        }
+        // Mapping beyond the end of the file extends it.
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, mappedSize, segmentSize);
+        mappedSize += segmentSize;
+        return segment;
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (final MappedByteBuffer unforced : unforcedSegments) {
+            unforced.force();
+        }
+        unforcedSegments.clear();
+        if (null != segment) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // There is no way to unmap the segments; they're unmapped once they've
+        // been garbage collected. Until then they keep referring to the file,
+        // which is fine as nothing is written to them anymore.
+        unforcedSegments.clear();
+        segment = null;
+        try {
+            channel.truncate(position);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * A write-ahead log of items that did not fit in the in-memory queue of a
+ * {@link ProcessingPool}.
+ *
+ * <p>Items are appended sequentially to segment files in a directory. Each record
+ * consists of its length and a CRC32 checksum, followed by the serialized item.
+ * Appends are buffered and written out in groups; the segment being written is
+ * forced to disk at most once every {@link #SYNC_INTERVAL_NANOS}, when it is
+ * rolled, and when the queue is closed. Segments are read back in order and
+ * deleted once all their items have been replayed.
+ *
+ * <p>Segments left behind by a previous run (for example because the server was
+ * stopped during an outage) are picked up and replayed first. A truncated or
+ * corrupt record ends replay of the segment it is in; the rest of that segment
+ * is discarded with a warning.
+ *
+ * <p>Appending and replaying use separate locks, so that producers spilling items
+ * aren't held up by the consumer reading from disk. They only coordinate on the list
+ * of segments, and when the consumer catches up with the segment being written.
+ *
+ * @param <E> the type of item payload.
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+public final class DiskSpillQueue<E> implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpillQueue.class);
+
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final SpillSerializer<E> serializer;
+
+    // Held while appending; also by the reader when it needs the segment being written to be flushed or closed.
+    private final Object writeLock = new Object();
+    // Held while replaying. When both are needed, this one is taken first.
+    private final Object readLock = new Object();
+
+    // Segments that still hold unread records, oldest first.
+    @GuardedBy("segments") private final Deque<Path> segments = new ArrayDeque<>();
+    @GuardedBy("writeLock") private long nextSegmentId;
+
+    @GuardedBy("writeLock") private final ExposedByteArrayOutputStream scratch = new ExposedByteArrayOutputStream();
+    @GuardedBy("writeLock") private final DataOutputStream scratchOutput = new DataOutputStream(scratch);
+    @GuardedBy("writeLock") private final ByteBuffer writeHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    @GuardedBy("writeLock") private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    @GuardedBy("writeLock") private final CRC32 writeChecksum = new CRC32();
+
+    @GuardedBy("writeLock") @Nullable private Path writeSegment;
+    @GuardedBy("writeLock") @Nullable private FileChannel writeChannel;
+    @GuardedBy("writeLock") private long writePosition;
+    @GuardedBy("writeLock") private long lastSyncTime = System.nanoTime();
+
+    @GuardedBy("readLock") private final ByteBuffer readHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    @GuardedBy("readLock") private ByteBuffer readBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    @GuardedBy("readLock") private final CRC32 readChecksum = new CRC32();
+    @GuardedBy("readLock") @Nullable private FileChannel readChannel;
+    @GuardedBy("readLock") private long readPosition;
+    // Set when the rest of the segment being read can't be replayed.
+    @GuardedBy("readLock") private boolean readCorrupt;
+
+    // Bytes of unread records; bounded by maxSize.
+    private final AtomicLong spilledBytes = new AtomicLong();
+    // Updated whenever the list of segments changes, but read without a lock by producers
+    // deciding where to put an item.
+    private volatile boolean empty;
+
+    public DiskSpillQueue(final Path directory,
+                          final long segmentSize,
+                          final long maxSize,
+                          final SpillSerializer<E> serializer) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.serializer = Objects.requireNonNull(serializer);
+
+        Files.createDirectories(directory);
+        final List<Path> existing = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, '*' + SEGMENT_SUFFIX)) {
+            stream.forEach(existing::add);
+        }
+        // Segment names are zero-padded, so lexical order is also the order they were written in.
+        existing.sort(null);
+        for (final Path segment : existing) {
+            final long size = Files.size(segment);
+            if (0 < size) {
+                segments.addLast(segment);
+                spilledBytes.addAndGet(size);
+            } else {
+                Files.delete(segment);
+            }
+            parseSegmentId(segment).ifPresent(id -> nextSegmentId = Math.max(nextSegmentId, id + 1));
+        }
+        if (!segments.isEmpty()) {
+            logger.info("Found {} bytes of spilled items in {} segment(s) in {}; these will be replayed first.",
+                        spilledBytes.get(), segments.size(), directory);
+        }
+        empty = segments.isEmpty();
+    }
+
+    /**
+     * @return <code>true</code> if there are no spilled items waiting to be replayed.
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Append an item to the log.
+     *
+     * @param item the item to spill.
+     * @return <code>false</code> if the item could not be spilled because the log is full
+     *      or could not be written.
+     */
+    public boolean append(final Item<E> item) {
+        synchronized (writeLock) {
+            try {
+                scratch.reset();
+                scratchOutput.writeInt(item.sourceId);
+                scratchOutput.writeInt(item.affinityHash);
+                serializer.serialize(item.payload, scratchOutput);
+                final int length = scratch.size();
+                final int recordSize = RECORD_HEADER_SIZE + length;
+                if (maxSize < spilledBytes.get() + recordSize) {
+                    return false;
+                }
+                if (null == writeChannel || 0 < writePosition && segmentSize < writePosition + recordSize) {
+                    startSegment();
+                }
+
+                writeChecksum.reset();
+                writeChecksum.update(scratch.buffer(), 0, length);
+                writeHeader.clear();
+                writeHeader.putInt(length).putInt((int) writeChecksum.getValue()).flip();
+                final ByteBuffer body = ByteBuffer.wrap(scratch.buffer(), 0, length);
+                if (writeBuffer.remaining() < recordSize) {
+                    flushWriteBuffer();
+                }
+                if (writeBuffer.remaining() < recordSize) {
+                    // Too large to buffer; write it out directly.
+                    writeFully(new ByteBuffer[] { writeHeader, body });
+                } else {
+                    writeBuffer.put(writeHeader).put(body);
+                }
+                writePosition += recordSize;
+                spilledBytes.addAndGet(recordSize);
+                return true;
+            } catch (final IOException e) {
+                logger.error("Error while spilling item to " + directory + ". Starting a new segment.", e);
+                closeWriter();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove up to a maximum number of the oldest spilled items, adding them to a collection.
+     *
+     * @param collection the collection to add the items to.
+     * @param maxElements the maximum number of items to remove.
+     * @return the number of items added to the collection.
+     */
+    public int drainTo(final Collection<? super Item<E>> collection, final int maxElements) {
+        synchronized (readLock) {
+            int count = 0;
+            try {
+                while (count < maxElements) {
+                    final Path segment;
+                    synchronized (segments) {
+                        segment = segments.peekFirst();
+                    }
+                    if (null == segment) {
+                        break;
+                    }
+                    if (null == readChannel) {
+                        readChannel = FileChannel.open(segment, StandardOpenOption.READ);
+                        readPosition = 0;
+                        readCorrupt = false;
+                    }
+                    // While a segment is being written, only the records flushed so far can be read.
+                    final long readLimit;
+                    synchronized (writeLock) {
+                        if (segment.equals(writeSegment)) {
+                            flushWriteBuffer();
+                            readLimit = writePosition;
+                        } else {
+                            readLimit = -1;
+                        }
+                    }
+                    final Optional<Item<E>> item = readRecord(segment, -1 == readLimit ? readChannel.size() : readLimit);
+                    if (item.isPresent()) {
+                        collection.add(item.get());
+                        ++count;
+                    } else {
+                        // Unless more was written in the meantime, this moves on to the next segment.
+                        finishSegment(segment, readLimit);
+                    }
+                }
+            } catch (final IOException e) {
+                logger.error("Error while replaying spilled items from " + directory + ". Skipping the current segment.", e);
+                readCorrupt = true;
+                final Path segment;
+                synchronized (segments) {
+                    segment = segments.peekFirst();
+                }
+                if (null != segment) {
+                    finishSegment(segment, -1);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Force appended items to disk if this hasn't happened for a while. This allows
+     * items spilled around the same time to share a single sync.
+     */
+    public void syncIfDue() {
+        synchronized (writeLock) {
+            if (null != writeChannel && SYNC_INTERVAL_NANOS <= System.nanoTime() - lastSyncTime) {
+                sync();
+            }
+        }
+    }
+
+    @GuardedBy("writeLock")
+    private void sync() {
+        if (null != writeChannel) {
+            try {
+                flushWriteBuffer();
+                writeChannel.force(false);
+            } catch (final IOException e) {
+                logger.error("Error while syncing spilled items to " + directory + ". Starting a new segment.", e);
+                closeWriter();
+            }
+        }
+        lastSyncTime = System.nanoTime();
+    }
+
+    @Override
+    public void close() {
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                sync();
+                closeWriter();
+            }
+            closeReader();
+        }
+        if (!empty) {
+            logger.info("Leaving {} bytes of spilled items in {}; these will be replayed on restart.",
+                        spilledBytes.get(), directory);
+        }
+    }
+
+    @GuardedBy("readLock")
+    private Optional<Item<E>> readRecord(final Path segment, final long readLimit) throws IOException {
+        final FileChannel channel = Objects.requireNonNull(readChannel);
+        final long available = readLimit - readPosition;
+        if (available < RECORD_HEADER_SIZE) {
+            if (0 < available) {
+                logger.warn("Discarding truncated record at the end of spill segment: {}", segment);
+                readCorrupt = true;
+            }
+            return Optional.empty();
+        }
+        readHeader.clear();
+        readFully(channel, readHeader, readPosition);
+        readHeader.flip();
+        final int length = readHeader.getInt();
+        final int expectedChecksum = readHeader.getInt();
+        if (length < 0 || available - RECORD_HEADER_SIZE < length) {
+            logger.warn("Discarding truncated record at the end of spill segment: {}", segment);
+            readCorrupt = true;
+            return Optional.empty();
+        }
+
+        if (readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(length);
+        }
+        readBuffer.clear().limit(length);
+        readFully(channel, readBuffer, readPosition + RECORD_HEADER_SIZE);
+        readChecksum.reset();
+        readChecksum.update(readBuffer.array(), 0, length);
+        if ((int) readChecksum.getValue() != expectedChecksum) {
+            logger.warn("Discarding corrupt record and the remainder of spill segment: {}", segment);
+            readCorrupt = true;
+            return Optional.empty();
+        }
+        readPosition += RECORD_HEADER_SIZE + length;
+        spilledBytes.addAndGet(-(RECORD_HEADER_SIZE + length));
+
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(readBuffer.array(), 0, length));
+        final int sourceId = input.readInt();
+        final int affinityHash = input.readInt();
+        return Optional.of(new Item<>(sourceId, affinityHash, serializer.deserialize(input)));
+    }
+
+    /**
+     * Stop reading a segment because everything in it has been read, or because the
+     * rest of it is corrupt, and delete it.
+     *
+     * @param segment the segment being read.
+     * @param readLimit how far the segment could be read if it was being written, or -1.
+     * @return <code>false</code> if the segment was not finished because more records
+     *      became available while reading.
+     */
+    @GuardedBy("readLock")
+    private boolean finishSegment(final Path segment, final long readLimit) {
+        synchronized (writeLock) {
+            if (!readCorrupt && -1 != readLimit && (!segment.equals(writeSegment) || writePosition != readLimit)) {
+                // Appended to or rolled since the limit was determined.
+                return false;
+            }
+            if (segment.equals(writeSegment)) {
+                // Caught up with the writer; the next append starts a new segment.
+                closeWriter();
+            }
+        }
+        try {
+            final long remaining = Files.size(segment) - readPosition;
+            if (0 < remaining) {
+                spilledBytes.addAndGet(-remaining);
+            }
+            closeReader();
+            Files.delete(segment);
+        } catch (final IOException e) {
+            logger.warn("Unable to remove spill segment: " + segment, e);
+            closeReader();
+        }
+        synchronized (segments) {
+            segments.removeFirst();
+            if (segments.isEmpty()) {
+                // Correct for any records lost to corruption.
+                spilledBytes.set(0);
+            }
+            empty = segments.isEmpty();
+        }
+        return true;
+    }
+
+    @GuardedBy("writeLock")
+    private void startSegment() throws IOException {
+        if (null != writeChannel) {
+            flushWriteBuffer();
+            writeChannel.force(false);
+            lastSyncTime = System.nanoTime();
+            writeChannel.close();
+        }
+        final Path segment = directory.resolve(String.format("%020d%s", nextSegmentId++, SEGMENT_SUFFIX));
+        writeChannel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeSegment = segment;
+        writePosition = 0;
+        synchronized (segments) {
+            segments.addLast(segment);
+            empty = false;
+        }
+    }
+
+    @GuardedBy("writeLock")
+    private void flushWriteBuffer() throws IOException {
+        if (0 < writeBuffer.position()) {
+            writeBuffer.flip();
+            writeFully(new ByteBuffer[] { writeBuffer });
+            writeBuffer.clear();
+        }
+    }
+
+    private void writeFully(final ByteBuffer[] buffers) throws IOException {
+        final FileChannel channel = Objects.requireNonNull(writeChannel);
+        final ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of spill segment.");
+            }
+            offset += read;
+        }
+    }
+
+    @GuardedBy("writeLock")
+    private void closeWriter() {
+        if (null != writeChannel) {
+            try {
+                writeChannel.close();
+            } catch (final IOException e) {
+                logger.warn("Error while closing spill segment: " + writeSegment, e);
+            }
+        }
+        writeBuffer.clear();
+        writeChannel = null;
+        writeSegment = null;
+        writePosition = 0;
+    }
+
+    @GuardedBy("readLock")
+    private void closeReader() {
+        if (null != readChannel) {
+            try {
+                readChannel.close();
+            } catch (final IOException e) {
+                logger.warn("Error while closing spill segment.", e);
+            }
+        }
+        readChannel = null;
+        readPosition = 0;
+        readCorrupt = false;
+    }
+
+    private static Optional<Long> parseSegmentId(final Path segment) {
+        final String name = segment.getFileName().toString();
+        try {
+            return Optional.of(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("directory", directory)
+                .add("segmentSize", segmentSize)
+                .add("maxSize", maxSize)
+                .toString();
+    }
+
+    /**
+     * The settings needed to create the spill queues of a {@link ProcessingPool}.
+     *
+     * @param <E> the type of item payload.
+     */
+    @ParametersAreNonnullByDefault
+    public static final class Settings<E> {
+        public final Path directory;
+        public final long segmentSize;
+        public final long maxSize;
+        public final SpillSerializer<E> serializer;
+
+        public Settings(final Path directory,
+                        final long segmentSize,
+                        final long maxSize,
+                        final SpillSerializer<E> serializer) {
+            this.directory = Objects.requireNonNull(directory);
+            this.segmentSize = segmentSize;
+            this.maxSize = maxSize;
+            this.serializer = Objects.requireNonNull(serializer);
+        }
+
+        DiskSpillQueue<E> open(final int index) throws IOException {
+            return new DiskSpillQueue<>(directory.resolve(Integer.toString(index)), segmentSize, maxSize, serializer);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("directory", directory)
+                    .add("segmentSize", segmentSize)
+                    .add("maxSize", maxSize)
+                    .toString();
+        }
+    }
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream() {
+            super(WRITE_BUFFER_SIZE);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -32,7 +32,7 @@ public final class Item<E> {
 
     private static final HashFunction HASHER = Hashing.murmur3_32(42);
 
-    private Item(final int sourceId, final int affinityHash, final E payload) {
+    Item(final int sourceId, final int affinityHash, final E payload) {
         this.sourceId = sourceId;
         this.affinityHash = affinityHash;
         this.payload = Objects.requireNonNull(payload);
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded, lock-free queue that supports multiple producers but only a single consumer.
+ *
+ * <p>
+ * Elements are stored in a ring buffer. Producers claim a slot by advancing the producer
+ * index with a CAS, and then publish their element into that slot. The consumer is the
+ * only thread that advances the consumer index, so it never needs a CAS; when draining a
+ * batch the consumer index is only published once, at the end of the batch. The producer
+ * and consumer indexes are padded onto separate cache lines to avoid false sharing.
+ *
+ * <p>
+ * All methods that remove or inspect elements ({@link #poll()}, {@link #peek()},
+ * {@link #drainTo(Collection, int)}, {@link #take()}, etc.) may only be invoked by the
+ * consumer thread. The capacity is rounded up to the nearest power of two.
+ *
+ * <p>
+ * Iterators are weakly consistent, and may be used by any thread: they return elements
+ * in order, each of which was in the queue at some point since the iterator was
+ * created. They don't support removal, so neither does {@link #remove(Object)}; the
+ * other methods that depend on iteration, such as {@link #contains(Object)} and
+ * {@link #toArray()}, work.
+ *
+ * @param <E> the type of element held in the queue.
+ */
+@ParametersAreNonnullByDefault
+public final class MpscRingBufferQueue<E> extends MpscRingBufferQueueTailPadding<E> implements BlockingQueue<E> {
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    // How long a producer waits before retrying when the queue is full and it has been asked to block.
+    private static final long PRODUCER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final int capacity;
+
+    public MpscRingBufferQueue(final int requestedCapacity) {
+        Preconditions.checkArgument(requestedCapacity > 0, "Capacity must be positive: %s", requestedCapacity);
+        Preconditions.checkArgument(requestedCapacity <= MAXIMUM_CAPACITY, "Capacity too large: %s", requestedCapacity);
+        capacity = requestedCapacity == 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+        mask = capacity - 1;
+        buffer = new AtomicReferenceArray<>(capacity);
+        producerLimit = capacity;
+    }
+
+    @Override
+    public boolean offer(final E e) {
+        Objects.requireNonNull(e);
+        long limit = producerLimit;
+        long producerIndex;
+        do {
+            producerIndex = this.producerIndex;
+            if (producerIndex >= limit) {
+                // The cached limit may be stale; refresh it from the consumer index.
+                limit = consumerIndex + capacity;
+                if (producerIndex >= limit) {
+                    return false;
+                }
+                producerLimit = limit;
+            }
+        } while (!casProducerIndex(producerIndex, producerIndex + 1));
+
+        // The slot is ours; publish the element and wake the consumer if it's waiting.
+        buffer.lazySet(offset(producerIndex), e);
+        final Thread consumer = waitingConsumer;
+        if (null != consumer) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException {
+        while (!offer(e)) {
+            backoff();
+        }
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            backoff();
+        }
+        return true;
+    }
+
+    private static void backoff() throws InterruptedException {
+        LockSupport.parkNanos(PRODUCER_BACKOFF_NANOS);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    @Nullable
+    public E poll() {
+        final long consumerIndex = this.consumerIndex;
+        final int offset = offset(consumerIndex);
+        final E e = awaitElement(consumerIndex, offset);
+        if (null != e) {
+            buffer.lazySet(offset, null);
+            lazySetConsumerIndex(consumerIndex + 1);
+        }
+        return e;
+    }
+
+    @Override
+    @Nullable
+    public E peek() {
+        final long consumerIndex = this.consumerIndex;
+        return awaitElement(consumerIndex, offset(consumerIndex));
+    }
+
+    @Nullable
+    private E awaitElement(final long consumerIndex, final int offset) {
+        E e = buffer.get(offset);
+        if (null == e && consumerIndex != producerIndex) {
+            // A producer has claimed the slot, but has not yet published its element.
+            do {
+                Thread.yield();
+                e = buffer.get(offset);
+            } while (null == e);
+        }
+        return e;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while (null == (e = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS))) {
+            // Spurious wake-up: try again.
+        }
+        return e;
+    }
+
+    @Override
+    @Nullable
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (null == e) {
+            final long timeoutNanos = unit.toNanos(timeout);
+            final long deadline = System.nanoTime() + timeoutNanos;
+            /*
+             * Producers check for a waiting consumer after advancing the producer index. Because
+             * we register ourselves before checking for an element, either we will see their
+             * element or they will see us and unpark us.
+             */
+            waitingConsumer = Thread.currentThread();
+            try {
+                while (null == (e = poll())) {
+                    final long remaining = timeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements) {
+        Objects.requireNonNull(c);
+        Preconditions.checkArgument(c != this, "Cannot drain a queue into itself.");
+        final long consumerIndex = this.consumerIndex;
+        final int available = (int) Math.min(maxElements, producerIndex - consumerIndex);
+        int drained = 0;
+        try {
+            while (drained < available) {
+                final long index = consumerIndex + drained;
+                final int offset = offset(index);
+                final E e = awaitElement(index, offset);
+                buffer.lazySet(offset, null);
+                ++drained;
+                c.add(e);
+            }
+        } finally {
+            // Release all the slots we consumed in one go.
+            if (drained > 0) {
+                lazySetConsumerIndex(consumerIndex + drained);
+            }
+        }
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        // Ensure a consistent snapshot of both indexes, in the face of concurrent updates.
+        long consumerIndex = this.consumerIndex;
+        for (;;) {
+            final long producerIndex = this.producerIndex;
+            final long currentConsumerIndex = this.consumerIndex;
+            if (consumerIndex == currentConsumerIndex) {
+                return (int) Math.min(producerIndex - consumerIndex, capacity);
+            }
+            consumerIndex = currentConsumerIndex;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new WeaklyConsistentIterator(consumerIndex, producerIndex);
+    }
+
+    private int offset(final long index) {
+        return (int) index & mask;
+    }
+
+    private final class WeaklyConsistentIterator implements Iterator<E> {
+        private final long endIndex;
+        private long index;
+        @Nullable private E next;
+
+        WeaklyConsistentIterator(final long startIndex, final long endIndex) {
+            this.index = startIndex;
+            this.endIndex = endIndex;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (null == next && index < endIndex) {
+                final E e = buffer.get(offset(index));
+                // If the consumer has moved past the slot, it may hold an element of a later lap.
+                final long consumerIndex = MpscRingBufferQueue.this.consumerIndex;
+                if (consumerIndex > index) {
+                    index = consumerIndex;
+                } else {
+                    // Empty while a producer has claimed the slot but not yet published its element.
+                    next = e;
+                    ++index;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return null != next;
+        }
+
+        @Override
+        public E next() {
+            final E e = next;
+            if (null == e) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("capacity", capacity)
+                .add("size", size())
+                .toString();
+    }
+}
+
+/*
+ * The fields below are spread over a class hierarchy so that the JVM lays them out in a
+ * predictable order: superclass fields always precede subclass fields. The padding fields
+ * keep the producer and consumer state on different cache lines.
+ */
+
+@SuppressWarnings("unused")
+abstract class MpscRingBufferQueueHeadPadding<E> extends AbstractQueue<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class MpscRingBufferQueueProducerFields<E> extends MpscRingBufferQueueHeadPadding<E> {
+    private static final AtomicLongFieldUpdater<MpscRingBufferQueueProducerFields> PRODUCER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(MpscRingBufferQueueProducerFields.class, "producerIndex");
+
+    // The index of the next slot that a producer will claim.
+    protected volatile long producerIndex;
+    // A cached lower bound on the index that producers may not reach, to avoid reading the consumer index.
+    protected volatile long producerLimit;
+
+    protected final boolean casProducerIndex(final long expected, final long update) {
+        return PRODUCER_INDEX.compareAndSet(this, expected, update);
+    }
+}
+
+@SuppressWarnings("unused")
+abstract class MpscRingBufferQueueMiddlePadding<E> extends MpscRingBufferQueueProducerFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
+
+abstract class MpscRingBufferQueueConsumerFields<E> extends MpscRingBufferQueueMiddlePadding<E> {
+    private static final AtomicLongFieldUpdater<MpscRingBufferQueueConsumerFields> CONSUMER_INDEX =
+            AtomicLongFieldUpdater.newUpdater(MpscRingBufferQueueConsumerFields.class, "consumerIndex");
+
+    // The index of the next slot that the consumer will read.
+    protected volatile long consumerIndex;
+    // The consumer thread, while it is blocked waiting for an element.
+    @Nullable
+    protected volatile Thread waitingConsumer;
+
+    protected final void lazySetConsumerIndex(final long update) {
+        CONSUMER_INDEX.lazySet(this, update);
+    }
+}
+
+@SuppressWarnings("unused")
+abstract class MpscRingBufferQueueTailPadding<E> extends MpscRingBufferQueueConsumerFields<E> {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16;
+}
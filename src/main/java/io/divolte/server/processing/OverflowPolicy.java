@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import java.util.Locale;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * What a {@link ProcessingPool} should do with an item when the queue it belongs on is full.
+ */
+@ParametersAreNonnullByDefault
+public enum OverflowPolicy {
+    /**
+     * Discard the item and log a warning. The producer is not told.
+     */
+    DROP,
+    /**
+     * Wait for space in the queue, up to a timeout. If the queue is still full after
+     * this the item is discarded as with {@link #DROP}. Note that the producer is blocked
+     * while waiting.
+     */
+    BLOCK,
+    /**
+     * Refuse the item, and tell the producer so that it can signal this upstream.
+     */
+    REJECT,
+    /**
+     * Append the item to a write-ahead log on disk. Spilled items are replayed once the
+     * queue has been drained, and items that arrive in the meantime are spilled after
+     * them. If the log is full the item is discarded as with {@link #DROP}.
+     * Only pools that are given {@link DiskSpillQueue.Settings} support this.
+     */
+    SPILL;
+
+    // Ensure that enumeration names are case-insensitive when parsing JSON.
+    @JsonCreator
+    static OverflowPolicy fromJson(final String value) {
+        return OverflowPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
@@ -18,12 +18,15 @@ package io.divolte.server.processing;
 
 import static io.divolte.server.processing.ItemProcessor.ProcessingDirective.*;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
@@ -34,6 +37,7 @@ import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import org.slf4j.Logger;
@@ -51,6 +55,10 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
 
     private final ExecutorService executorService;
     private final List<BlockingQueue<Item<E>>> queues;
+    // Either empty, or one per queue.
+    private final List<DiskSpillQueue<E>> spillQueues;
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowTimeoutNanos;
 
     private volatile boolean running;
 
@@ -62,9 +70,47 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
             final int maxQueueSize,
             final String threadBaseName,
             final Supplier<T> processorSupplier) {
+        this(numThreads, maxQueueSize, QueueType.ARRAY_BLOCKING, threadBaseName, processorSupplier);
+    }
+
+    public ProcessingPool(
+            final int numThreads,
+            final int maxQueueSize,
+            final QueueType queueType,
+            final String threadBaseName,
+            final Supplier<T> processorSupplier) {
+        this(numThreads, maxQueueSize, queueType, OverflowPolicy.DROP, Duration.ZERO, threadBaseName, processorSupplier);
+    }
+
+    public ProcessingPool(
+            final int numThreads,
+            final int maxQueueSize,
+            final QueueType queueType,
+            final OverflowPolicy overflowPolicy,
+            final Duration overflowTimeout,
+            final String threadBaseName,
+            final Supplier<T> processorSupplier) {
+        this(numThreads, maxQueueSize, queueType, overflowPolicy, overflowTimeout, Optional.empty(), threadBaseName, processorSupplier);
+    }
+
+    public ProcessingPool(
+            final int numThreads,
+            final int maxQueueSize,
+            final QueueType queueType,
+            final OverflowPolicy overflowPolicy,
+            final Duration overflowTimeout,
+            final Optional<DiskSpillQueue.Settings<E>> spillSettings,
+            final String threadBaseName,
+            final Supplier<T> processorSupplier) {
+        if (overflowPolicy == OverflowPolicy.SPILL && !spillSettings.isPresent()) {
+            throw new IllegalArgumentException("Spill settings are required for the spill overflow policy.");
+        }
 
         running = true;
 
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        this.overflowTimeoutNanos = overflowTimeout.toNanos();
+
         this.processorSupplier = processorSupplier;
 
         @SuppressWarnings("PMD.AvoidThreadGroup")
@@ -72,23 +118,124 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
         final ThreadFactory factory = createThreadFactory(threadGroup, threadBaseName + " - %d");
         executorService = Executors.newFixedThreadPool(numThreads, factory);
 
-        this.queues = Stream.<ArrayBlockingQueue<Item<E>>>
-                generate(() -> new ArrayBlockingQueue<>(maxQueueSize))
+        this.queues = Stream.<BlockingQueue<Item<E>>>
+                generate(() -> queueType.newQueue(maxQueueSize))
                 .limit(numThreads)
                 .collect(Collectors.toCollection(() -> new ArrayList<>(numThreads)));
 
-        queues.forEach((queue) -> scheduleQueueReader(
-                executorService,
-                queue,
-                processorSupplier.get()));
+        this.spillQueues = new ArrayList<>(numThreads);
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            for (int i = 0; i < numThreads; ++i) {
+                try {
+                    spillQueues.add(spillSettings.get().open(i));
+                } catch (final IOException e) {
+                    throw new UncheckedIOException("Unable to open spill queue in " + spillSettings.get().directory, e);
+                }
+            }
+        }
+
+        for (int i = 0; i < numThreads; ++i) {
+            scheduleQueueReader(
+                    executorService,
+                    queues.get(i),
+                    spillQueues.isEmpty() ? null : spillQueues.get(i),
+                    processorSupplier.get());
+        }
+
+    }
+
+    /**
+     * @return <code>true</code> if queueing an item may wait for room in the queue,
+     *      which is the case with the block overflow policy.
+     */
+    public boolean mayBlock() {
+        return overflowPolicy == OverflowPolicy.BLOCK;
+    }
 
+    /**
+     * @return <code>true</code> if queueing an item may reject it, which is the case
+     *      with the reject overflow policy.
+     */
+    public boolean mayReject() {
+        return overflowPolicy == OverflowPolicy.REJECT;
     }
 
-    public void enqueue(final Item<E> item) {
-        final BlockingQueue<Item<E>> queue = queues.get(item.affinityHash % queues.size());
-        if (!queue.offer(item)) {
-            logger.warn("Failed to enqueue item. Dropping event.");
+    /**
+     * What happened to an item offered to a pool.
+     */
+    public enum Admission {
+        /** The item was queued in memory, and is held on to until it has been processed. */
+        QUEUED,
+        /** The item was written to the spill queue; the pool doesn't hold on to it. */
+        SPILLED,
+        /** The item was discarded according to the overflow policy. */
+        DROPPED,
+        /** The item was rejected according to the overflow policy. */
+        REJECTED
+    }
+
+    /**
+     * Queue an item for processing. If the queue for the item is full, the overflow
+     * policy of this pool determines what happens.
+     *
+     * @param item the item to queue.
+     * @return <code>false</code> if the item was rejected, <code>true</code> if it was
+     *      queued or discarded according to the overflow policy.
+     */
+    public boolean enqueue(final Item<E> item) {
+        return admit(item) != Admission.REJECTED;
+    }
+
+    /**
+     * Queue an item for processing, like {@link #enqueue(Item)}, but report whether the
+     * pool holds on to the item. Callers that track references to the payload need this
+     * to know when they have to let go of the reference given to the pool.
+     *
+     * @param item the item to queue.
+     * @return what happened to the item.
+     */
+    public Admission admit(final Item<E> item) {
+        final int index = item.affinityHash % queues.size();
+        final BlockingQueue<Item<E>> queue = queues.get(index);
+        final Admission admission;
+        if (!spillQueues.isEmpty() && !spillQueues.get(index).isEmpty()) {
+            // Once items have been spilled, later items follow them so that order is preserved.
+            admission = spill(spillQueues.get(index), item);
+        } else if (queue.offer(item)) {
+            admission = Admission.QUEUED;
+        } else {
+            switch (overflowPolicy) {
+                case REJECT:
+                    logger.debug("Failed to enqueue item. Rejecting event.");
+                    admission = Admission.REJECTED;
+                    break;
+                case BLOCK:
+                    if (offerQuietly(queue, item, overflowTimeoutNanos)) {
+                        admission = Admission.QUEUED;
+                    } else {
+                        logger.warn("Failed to enqueue item within {} ms. Dropping event.",
+                                    TimeUnit.NANOSECONDS.toMillis(overflowTimeoutNanos));
+                        admission = Admission.DROPPED;
+                    }
+                    break;
+                case SPILL:
+                    admission = spill(spillQueues.get(index), item);
+                    break;
+                case DROP:
+                default:
+                    logger.warn("Failed to enqueue item. Dropping event.");
+                    admission = Admission.DROPPED;
+            }
+        }
+        return admission;
+    }
+
+    private static <E> Admission spill(final DiskSpillQueue<E> spillQueue, final Item<E> item) {
+        if (!spillQueue.append(item)) {
+            logger.warn("Failed to spill item to disk. Dropping event.");
+            return Admission.DROPPED;
         }
+        return Admission.SPILLED;
     }
 
     public void stop() {
@@ -102,21 +249,28 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
         }
     }
 
-    private void scheduleQueueReader(final ExecutorService es, final BlockingQueue<Item<E>> queue, final ItemProcessor<E> processor) {
-        CompletableFuture.runAsync(microBatchingQueueDrainerWithHeartBeat(queue, processor), es).whenComplete((voidValue, error) -> {
+    private void scheduleQueueReader(final ExecutorService es,
+                                     final BlockingQueue<Item<E>> queue,
+                                     @Nullable final DiskSpillQueue<E> spillQueue,
+                                     final ItemProcessor<E> processor) {
+        CompletableFuture.runAsync(microBatchingQueueDrainerWithHeartBeat(queue, spillQueue, processor), es).whenComplete((voidValue, error) -> {
             processor.cleanup();
 
             // In case the reader for some reason escapes its loop with an
             // exception, log any uncaught exceptions and reschedule
             if (error != null && running) {
                 logger.warn("Uncaught exception in incoming queue reader thread.", error);
-                scheduleQueueReader(es, queue, processorSupplier.get());
+                scheduleQueueReader(es, queue, spillQueue, processorSupplier.get());
+            } else if (null != spillQueue) {
+                // Anything still spilled is replayed when the pool is next started.
+                spillQueue.close();
             }
         });
     }
 
     private Runnable microBatchingQueueDrainerWithHeartBeat(
             final BlockingQueue<Item<E>> queue,
+            @Nullable final DiskSpillQueue<E> spillQueue,
             final ItemProcessor<E> processor) {
         return () -> {
             // The default item processor implementation removes items one-by-one as they
@@ -127,6 +281,13 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
                 ProcessingDirective directive;
                 do {
                     queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                    if (null != spillQueue) {
+                        if (batch.isEmpty()) {
+                            // Replay spilled items once the in-memory queue has been drained.
+                            spillQueue.drainTo(batch, MAX_BATCH_SIZE);
+                        }
+                        spillQueue.syncIfDue();
+                    }
                     if (batch.isEmpty()) {
                         // If the batch was empty, block on the queue for some time
                         // until something is available.
@@ -143,6 +304,9 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
 
                 while (directive == PAUSE && running) {
                     sleepOneSecond();
+                    if (null != spillQueue) {
+                        spillQueue.syncIfDue();
+                    }
                     directive = processor.heartbeat();
                 }
             }
@@ -166,6 +330,15 @@ public class ProcessingPool<T extends ItemProcessor<E>, E> {
         }
     }
 
+    private static <E> boolean offerQuietly(final BlockingQueue<E> queue, final E item, final long timeoutNanos) {
+        try {
+            return queue.offer(item, timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     private static ThreadFactory createThreadFactory(final ThreadGroup group, final String nameFormat) {
         return new ThreadFactoryBuilder()
             .setNameFormat(nameFormat)
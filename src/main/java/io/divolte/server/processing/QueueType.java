@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * The queue implementations that a {@link ProcessingPool} can use to hand items
+ * to each of its threads.
+ */
+@ParametersAreNonnullByDefault
+public enum QueueType {
+    /**
+     * A queue guarded by a single lock, shared by producers and the consumer.
+     */
+    ARRAY_BLOCKING {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new ArrayBlockingQueue<>(capacity);
+        }
+    },
+    /**
+     * A lock-free ring buffer that supports many producers and a single consumer.
+     */
+    MPSC_RING_BUFFER {
+        @Override
+        public <E> BlockingQueue<E> newQueue(final int capacity) {
+            return new MpscRingBufferQueue<>(capacity);
+        }
+    };
+
+    public abstract <E> BlockingQueue<E> newQueue(int capacity);
+
+    // Ensure that enumeration names are case-insensitive when parsing JSON.
+    @JsonCreator
+    static QueueType fromJson(final String value) {
+        return QueueType.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
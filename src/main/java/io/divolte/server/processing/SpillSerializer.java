@@ -0,0 +1,32 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts item payloads to and from bytes so that they can be spilled to disk
+ * by a {@link DiskSpillQueue}.
+ *
+ * @param <E> the type of payload that is serialized.
+ */
+public interface SpillSerializer<E> {
+    void serialize(E payload, DataOutput output) throws IOException;
+    E deserialize(DataInput input) throws IOException;
+}
@@ -16,7 +16,6 @@
 
 package io.divolte.server.recordmapping;
 
-import com.google.common.collect.Maps;
 import groovy.lang.Binding;
 import groovy.lang.GroovyCodeSource;
 import groovy.lang.GroovyShell;
@@ -27,7 +26,6 @@ import io.divolte.server.recordmapping.DslRecordMapping.MappingAction;
 import io.divolte.server.recordmapping.DslRecordMapping.MappingAction.MappingResult;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.generic.GenericRecordBuilder;
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +45,7 @@ public class DslRecordMapper {
 
     private final Schema schema;
     private final List<DslRecordMapping.MappingAction> actions;
+    private final MappingContext context;
 
     public DslRecordMapper(final ValidatedConfiguration vc, final String groovyFile, final Schema schema, final Optional<LookupService> geoipService) {
         this.schema = Objects.requireNonNull(schema);
@@ -65,8 +64,9 @@ public class DslRecordMapper {
             binding.setProperty("mapping", mapping);
 
             final GroovyShell shell = new GroovyShell(binding, compilerConfig);
-            shell.evaluate(groovySource);
+            mapping.build(() -> shell.evaluate(groovySource));
             actions = mapping.actions();
+            context = new MappingContext(mapping.memoizationSlotCount());
         } catch (final IOException e) {
             throw new UncheckedIOException("Could not load mapping script file: " + groovyFile, e);
         }
@@ -75,17 +75,26 @@ public class DslRecordMapper {
     public DslRecordMapper(final Schema schema, final DslRecordMapping mapping) {
         this.schema = schema;
         actions = mapping.actions();
+        context = new MappingContext(mapping.memoizationSlotCount());
     }
 
     public GenericRecord newRecordFromExchange(final DivolteEvent event) {
-        final GenericRecordBuilder builder = new GenericRecordBuilder(schema);
-        final Map<String,Optional<?>> context = Maps.newHashMapWithExpectedSize(20);
+        return newMappedRecordFromExchange(event).toGenericRecord();
+    }
+
+    /**
+     * Map an event without building a regular record. The result is intended to be
+     * serialized using a {@link MappedRecordWriter}, which encodes it directly.
+     */
+    public MappedRecord newMappedRecordFromExchange(final DivolteEvent event) {
+        final MappedRecord record = new MappedRecord(schema);
+        context.clear();
 
         for (final Iterator<MappingAction> itr = actions.iterator();
-             itr.hasNext() && itr.next().perform(event, context, builder) == MappingResult.CONTINUE;) {
+             itr.hasNext() && itr.next().perform(event, context, record) == MappingResult.CONTINUE;) {
             // Nothing needed in here.
         }
 
-        return builder.build();
+        return record;
     }
 }
@@ -43,7 +43,6 @@ import net.sf.uadetector.ReadableUserAgent;
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Field;
 import org.apache.avro.Schema.Type;
-import org.apache.avro.generic.GenericRecordBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +58,7 @@ import java.util.*;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -89,6 +89,7 @@ public final class DslRecordMapping {
     private final UserAgentParserAndCache uaParser;
     private final Optional<LookupService> geoIpService;
     private final AvroGenericRecordMapper jsonMapper = JacksonSupport.createAvroMapper();
+    private final MappingContext.Slots memoizationSlots = new MappingContext.Slots();
 
     public DslRecordMapping(final Schema schema, final UserAgentParserAndCache uaParser, final Optional<LookupService> geoIpService) {
         this.schema = Objects.requireNonNull(schema);
@@ -209,6 +210,21 @@ public final class DslRecordMapping {
         return stack.getLast().build();
     }
 
+    /**
+     * Build the mapping. Values that are memoized by producers constructed while
+     * building are kept in slots of this mapping; producers constructed outside of a
+     * build don't memoize their values.
+     *
+     * @param builder Adds the actions of the mapping.
+     */
+    public void build(final Runnable builder) {
+        memoizationSlots.build(builder);
+    }
+
+    int memoizationSlotCount() {
+        return memoizationSlots.count();
+    }
+
     /*
      * Casting and conversion
      */
@@ -413,12 +429,34 @@ public final class DslRecordMapping {
 
     public final static class MatcherValueProducer extends ValueProducer<Matcher> {
         MatcherValueProducer(final ValueProducer<String> source, final String regex) {
+            this(source, regex, compilePattern(regex));
+        }
+
+        private MatcherValueProducer(final ValueProducer<String> source, final String regex, final Pattern pattern) {
             super("match(" + regex + " against " + source.identifier + ")",
                   Matcher.class,
-                  (e, c) -> source.produce(e, c).map((s) -> Pattern.compile(regex).matcher(s)),
+                  matcherSupplier(source, pattern),
                   true);
         }
 
+        private static Pattern compilePattern(final String regex) {
+            try {
+                return Pattern.compile(regex);
+            } catch (final PatternSyntaxException e) {
+                throw new SchemaMappingException("Invalid regular expression %s: %s", regex, e.getDescription());
+            }
+        }
+
+        private static FieldSupplier<Matcher> matcherSupplier(final ValueProducer<String> source, final Pattern pattern) {
+            /*
+             * The matcher is memoized for the duration of a single event, after which it
+             * is no longer needed. Each thread can therefore reset and reuse a single
+             * matcher instead of allocating one per event.
+             */
+            final ThreadLocal<Matcher> matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+            return (e, c) -> source.produce(e, c).map((s) -> matchers.get().reset(s));
+        }
+
         public BooleanValueProducer matches() {
             return new BooleanValueProducer(identifier + ".matches()",
                                             (e,c) -> produce(e, c).map(Matcher::matches));
@@ -1022,22 +1060,23 @@ public final class DslRecordMapping {
 
     @ParametersAreNonnullByDefault
     public static abstract class ValueProducer<T> {
+        private static final int NOT_MEMOIZED = MappingContext.Slots.NONE;
 
         protected interface FieldSupplier<T> {
             Optional<T> apply(DivolteEvent eventData,
-                              Map<String,Optional<?>> context);
+                              MappingContext context);
         }
 
         protected final String identifier;
         public final TypeToken<T> producerType;
         private final FieldSupplier<T> supplier;
-        private final boolean memoize;
+        private final int memoizationSlot;
 
         ValueProducer(final String identifier, final TypeToken<T> producerType, final FieldSupplier<T> supplier, final boolean memoize) {
             this.identifier   = Objects.requireNonNull(identifier);
             this.producerType = Objects.requireNonNull(producerType);
             this.supplier     = Objects.requireNonNull(supplier);
-            this.memoize      = memoize;
+            this.memoizationSlot = memoize ? MappingContext.Slots.slotFor(identifier) : NOT_MEMOIZED;
         }
 
         ValueProducer(final String identifier, final Class<T> producerType, final FieldSupplier<T> supplier, final boolean memoize) {
@@ -1046,19 +1085,14 @@ public final class DslRecordMapping {
 
         @SuppressWarnings("unchecked")
         final Optional<T> produce(final DivolteEvent divolteEvent,
-                                  final Map<String,Optional<?>> context) {
+                                  final MappingContext context) {
             final Optional<T> result;
-            if (memoize) {
-                // We can't use context.computeIfAbsent(): in Java 9 they've made it clear that the supplier
-                // isn't allowed to modify the mapping being modified, and doing so will (often) throw
-                // ConcurrentModificationException.
-                // This makes memoization slightly more expensive since the first reference will incur an extra
-                // lookup (for the put).
+            if (NOT_MEMOIZED != memoizationSlot) {
                 // Note that recursive producers will trigger an infinite loop.
-                final Optional<?> candidate = context.get(identifier);
+                final Optional<?> candidate = context.get(memoizationSlot);
                 if (null == candidate) {
                     result = supplier.apply(divolteEvent, context);
-                    context.put(identifier, result);
+                    context.put(memoizationSlot, result);
                 } else {
                     result = (Optional<T>) candidate;
                 }
@@ -1229,7 +1263,7 @@ public final class DslRecordMapping {
             STOP, EXIT, CONTINUE
         }
         MappingResult perform(DivolteEvent divolteEvent,
-                              Map<String,Optional<?>> context,
-                              GenericRecordBuilder record);
+                              MappingContext context,
+                              MappedRecord record);
     }
 }
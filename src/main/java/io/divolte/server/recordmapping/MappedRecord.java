@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.recordmapping;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Objects;
+
+/**
+ * The values produced by a mapping, held in a slot for each field of the schema.
+ *
+ * <p>Unlike {@link org.apache.avro.generic.GenericRecordBuilder}, defaults are not
+ * copied into fields that the mapping did not set. Instead, {@link MappedRecordWriter}
+ * encodes them from a pre-encoded copy. Reading an unset field through the
+ * {@link GenericRecord} interface yields a fresh copy of its default value.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class MappedRecord implements GenericRecord {
+    private final Schema schema;
+    private final Object[] values;
+    private final boolean[] fieldSetFlags;
+
+    public MappedRecord(final Schema schema) {
+        this.schema = Objects.requireNonNull(schema);
+        final int fieldCount = schema.getFields().size();
+        this.values = new Object[fieldCount];
+        this.fieldSetFlags = new boolean[fieldCount];
+    }
+
+    void set(final Field field, @Nullable final Object value) {
+        put(field.pos(), value);
+    }
+
+    boolean isSet(final int pos) {
+        return fieldSetFlags[pos];
+    }
+
+    @Override
+    public Schema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public void put(final int pos, @Nullable final Object value) {
+        values[pos] = value;
+        fieldSetFlags[pos] = true;
+    }
+
+    @Override
+    public void put(final String key, @Nullable final Object value) {
+        final Field field = schema.getField(key);
+        if (null == field) {
+            throw new AvroRuntimeException("Not a valid schema field: " + key);
+        }
+        put(field.pos(), value);
+    }
+
+    @Override
+    @Nullable
+    public Object get(final int pos) {
+        if (fieldSetFlags[pos]) {
+            return values[pos];
+        }
+        final Field field = schema.getFields().get(pos);
+        final GenericData data = GenericData.get();
+        return data.deepCopy(field.schema(), data.getDefaultValue(field));
+    }
+
+    @Override
+    @Nullable
+    public Object get(final String key) {
+        final Field field = schema.getField(key);
+        return null == field ? null : get(field.pos());
+    }
+
+    /**
+     * Convert to a regular record, with defaults filled in for any fields that
+     * were not set.
+     *
+     * @return a new record with the same values as this one.
+     * @throws AvroRuntimeException if a field was not set and has no default.
+     */
+    public GenericData.Record toGenericRecord() {
+        final GenericData.Record record = new GenericData.Record(schema);
+        for (int pos = 0; pos < values.length; ++pos) {
+            record.put(pos, get(pos));
+        }
+        return record;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof MappedRecord)) {
+            return false;
+        }
+        final MappedRecord that = (MappedRecord) other;
+        return schema.equals(that.schema) && toGenericRecord().equals(that.toGenericRecord());
+    }
+
+    @Override
+    public int hashCode() {
+        return GenericData.get().hashCode(this, schema);
+    }
+
+    @Override
+    public String toString() {
+        return GenericData.get().toString(this);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.recordmapping;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes {@link MappedRecord} instances straight from their field slots, in schema
+ * order. The defaults for fields that a mapping did not set are encoded once, up
+ * front, and copied verbatim into the output. Any other records are written as
+ * usual.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class MappedRecordWriter extends SpecificDatumWriter<GenericRecord> {
+    private final Schema schema;
+    private final List<Field> fields;
+    // Indexed by field position; null for fields without a default.
+    private final byte[][] encodedDefaults;
+
+    public MappedRecordWriter(final Schema schema) {
+        super(schema);
+        this.schema = Objects.requireNonNull(schema);
+        this.fields = schema.getFields();
+        this.encodedDefaults = new byte[fields.size()][];
+        for (final Field field : fields) {
+            encodedDefaults[field.pos()] = encodeDefault(field);
+        }
+    }
+
+    @Nullable
+    private byte[] encodeDefault(final Field field) {
+        if (null == field.defaultVal()) {
+            return null;
+        }
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(stream, null);
+        try {
+            write(field.schema(), GenericData.get().getDefaultValue(field), encoder);
+            encoder.flush();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Could not encode default value of field: " + field.name(), e);
+        }
+        return stream.toByteArray();
+    }
+
+    @Override
+    protected void writeRecord(final Schema schema, final Object datum, final Encoder out) throws IOException {
+        if (datum instanceof MappedRecord && this.schema == schema) {
+            final MappedRecord record = (MappedRecord) datum;
+            for (final Field field : fields) {
+                final int pos = field.pos();
+                if (record.isSet(pos)) {
+                    writeField(record, field, out, null);
+                } else {
+                    final byte[] encodedDefault = encodedDefaults[pos];
+                    if (null == encodedDefault) {
+                        throw new AvroRuntimeException("Field " + field + " not set and has no default value");
+                    }
+                    out.writeFixed(encodedDefault);
+                }
+            }
+        } else {
+            super.writeRecord(schema, datum, out);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.recordmapping;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The values memoized while mapping a single event.
+ *
+ * <p>Each memoized producer is assigned a dense slot of its mapping when it is
+ * constructed, which happens while the mapping is being built. Slots are assigned by
+ * identifier, so producers with the same identifier share their memoized value. A
+ * context holds the slots of a single mapping; it is reused for consecutive events,
+ * and must be {@link #clear() cleared} in between.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class MappingContext {
+    private final Object[] values;
+
+    MappingContext(final int slotCount) {
+        values = new Object[slotCount];
+    }
+
+    @Nullable
+    Optional<?> get(final int slot) {
+        return (Optional<?>) values[slot];
+    }
+
+    void put(final int slot, final Optional<?> value) {
+        values[slot] = value;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+    }
+
+    /*
+     * The slots of a single mapping. Slots are assigned to the mapping that is being
+     * built on the current thread; producers constructed at any other time are not
+     * memoized.
+     */
+    @NotThreadSafe
+    static final class Slots {
+        static final int NONE = -1;
+
+        private static final ThreadLocal<Slots> BUILDING = new ThreadLocal<>();
+
+        private final Map<String,Integer> slots = new HashMap<>();
+
+        int count() {
+            return slots.size();
+        }
+
+        void build(final Runnable builder) {
+            Preconditions.checkState(null == BUILDING.get(), "Another mapping is being built.");
+            BUILDING.set(this);
+            try {
+                builder.run();
+            } finally {
+                BUILDING.remove();
+            }
+        }
+
+        static int slotFor(final String identifier) {
+            final Slots building = BUILDING.get();
+            return null != building
+                ? building.slots.computeIfAbsent(identifier, (i) -> building.slots.size())
+                : NONE;
+        }
+    }
+}
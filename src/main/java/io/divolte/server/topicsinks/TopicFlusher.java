@@ -77,6 +77,10 @@ public abstract class TopicFlusher<T> implements ItemProcessor<AvroRecordBuffer>
 
     @Override
     public final ProcessingDirective heartbeat() {
+        if (pendingMessages.isEmpty()) {
+            // Sends that completed since the last batch may still have failed.
+            pendingMessages = failedSends();
+        }
         if (pendingMessages.isEmpty()) {
             return CONTINUE;
         } else {
@@ -102,4 +106,14 @@ public abstract class TopicFlusher<T> implements ItemProcessor<AvroRecordBuffer>
 
     protected abstract T buildRecord(final AvroRecordBuffer record);
     protected abstract ImmutableList<T> sendBatch(final List<T> batch) throws InterruptedException;
+
+    /**
+     * Flushers that do not wait for their sends to complete can hand back messages
+     * whose send has failed since, but may succeed if retried.
+     *
+     * @return the messages that should be retried.
+     */
+    protected ImmutableList<T> failedSends() {
+        return ImmutableList.of();
+    }
 }
@@ -25,6 +25,8 @@ import java.util.Map;
 
 @ParametersAreNonnullByDefault
 class AvroRecordBufferSerializer implements Serializer<AvroRecordBuffer> {
+    static final byte[] NO_HEADER = new byte[0];
+
     @Override
     public void configure(final Map<String, ?> configs, final boolean isKey) {
         // Nothing to do.
@@ -33,11 +35,13 @@ class AvroRecordBufferSerializer implements Serializer<AvroRecordBuffer> {
     @Override
     public byte[] serialize(final String topic, final AvroRecordBuffer data) {
         // Extract the AVRO record as a byte array.
-        // (There's no way to do this without copying the array.)
-        final ByteBuffer avroBuffer = data.getByteBuffer();
-        final byte[] avroBytes = new byte[avroBuffer.remaining()];
-        avroBuffer.get(avroBytes);
-        return avroBytes;
+        // (Unless the record has an array of its own, this means copying it.)
+        return data.getFramedBytes(NO_HEADER).orElseGet(() -> {
+            final ByteBuffer avroBuffer = data.getByteBuffer();
+            final byte[] avroBytes = new byte[avroBuffer.remaining()];
+            avroBuffer.get(avroBytes);
+            return avroBytes;
+        });
     }
 
     @Override
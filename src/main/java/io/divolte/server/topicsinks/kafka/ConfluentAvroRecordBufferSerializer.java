@@ -33,7 +33,7 @@ class ConfluentAvroRecordBufferSerializer implements Serializer<AvroRecordBuffer
         this.header = createConfluentRecordHeader(schemaId);
     }
 
-    private static byte[] createConfluentRecordHeader(final int schemaId) {
+    static byte[] createConfluentRecordHeader(final int schemaId) {
         // Reference: https://docs.confluent.io/3.3.0/schema-registry/docs/serializer-formatter.html#wire-format
         // (The documentation doesn't specify the byte-order, but it's network byte order.)
         final byte[] header = new byte[5];
@@ -53,13 +53,15 @@ class ConfluentAvroRecordBufferSerializer implements Serializer<AvroRecordBuffer
     @Override
     public final byte[] serialize(final String topic, final AvroRecordBuffer data) {
         // Confluent format is the header (pre-calculated), and then the Avro record bytes.
-        // (There's no way to do this without copying the array.)
-        final ByteBuffer avroBuffer = data.getByteBuffer();
-        final int recordBodySize = avroBuffer.remaining();
-        final byte[] confluentRecordBytes = new byte[header.length + recordBodySize];
-        System.arraycopy(header, 0, confluentRecordBytes, 0, header.length);
-        avroBuffer.get(confluentRecordBytes, header.length, recordBodySize);
-        return confluentRecordBytes;
+        // (Unless the record was serialized with room for the header, this means copying it.)
+        return data.getFramedBytes(header).orElseGet(() -> {
+            final ByteBuffer avroBuffer = data.getByteBuffer();
+            final int recordBodySize = avroBuffer.remaining();
+            final byte[] confluentRecordBytes = new byte[header.length + recordBodySize];
+            System.arraycopy(header, 0, confluentRecordBytes, 0, header.length);
+            avroBuffer.get(confluentRecordBytes, header.length, recordBodySize);
+            return confluentRecordBytes;
+        });
     }
 
     @Override
@@ -16,6 +16,7 @@
 
 package io.divolte.server.topicsinks.kafka;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.DivolteIdentifier;
@@ -27,13 +28,17 @@ import org.apache.kafka.common.errors.RetriableException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 
 @ParametersAreNonnullByDefault
@@ -44,9 +49,24 @@ public final class KafkaFlusher extends TopicFlusher<ProducerRecord<DivolteIdent
     private final String topic;
     private final Producer<DivolteIdentifier, AvroRecordBuffer> producer;
 
+    // When pipelining: the sends still in flight, and those that failed but may be retried.
+    // (Both are updated by the producer's I/O thread as sends complete.)
+    @Nullable private final Semaphore inFlight;
+    private final Queue<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> failedSends = new ConcurrentLinkedQueue<>();
+
     KafkaFlusher(final String topic, final Producer<DivolteIdentifier, AvroRecordBuffer> producer) {
+        this(topic, producer, 0);
+    }
+
+    /**
+     * @param maxInFlight the maximum number of records that may be in flight. If zero,
+     *                    each batch is flushed and waited for before the next is sent.
+     */
+    KafkaFlusher(final String topic, final Producer<DivolteIdentifier, AvroRecordBuffer> producer, final int maxInFlight) {
+        Preconditions.checkArgument(0 <= maxInFlight, "Maximum number of records in flight must not be negative: %s", maxInFlight);
         this.topic = Objects.requireNonNull(topic);
         this.producer = Objects.requireNonNull(producer);
+        this.inFlight = 0 < maxInFlight ? new Semaphore(maxInFlight) : null;
     }
 
     @Override
@@ -56,6 +76,61 @@ public final class KafkaFlusher extends TopicFlusher<ProducerRecord<DivolteIdent
 
     @Override
     protected ImmutableList<ProducerRecord<DivolteIdentifier,AvroRecordBuffer>> sendBatch(final List<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> batch) throws InterruptedException {
+        return null != inFlight ? sendBatchPipelined(batch, inFlight) : sendBatchAndWait(batch);
+    }
+
+    @Override
+    protected ImmutableList<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> failedSends() {
+        final ImmutableList.Builder<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> failed = ImmutableList.builder();
+        ProducerRecord<DivolteIdentifier, AvroRecordBuffer> record;
+        while (null != (record = failedSends.poll())) {
+            failed.add(record);
+        }
+        return failed.build();
+    }
+
+    private ImmutableList<ProducerRecord<DivolteIdentifier,AvroRecordBuffer>> sendBatchPipelined(final List<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> batch,
+                                                                                                  final Semaphore inFlight) throws InterruptedException {
+        // Start sending the messages, without waiting for them to complete. The producer
+        // batches them according to its own (user-configured) policy. We only block if
+        // too many are still in flight.
+        for (final ProducerRecord<DivolteIdentifier, AvroRecordBuffer> record : batch) {
+            inFlight.acquire();
+            try {
+                producer.send(record, (metadata, exception) -> {
+                    inFlight.release();
+                    onCompletion(record, metadata, exception);
+                });
+            } catch (final RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+        // Sends that have already failed, but may succeed if retried.
+        return failedSends();
+    }
+
+    private void onCompletion(final ProducerRecord<DivolteIdentifier, AvroRecordBuffer> record,
+                              @Nullable final RecordMetadata metadata,
+                              @Nullable final Exception exception) {
+        if (null == exception) {
+            record.value().release();
+            if (logger.isDebugEnabled() && null != metadata) {
+                logger.debug("Finished sending event (partyId={}) to Kafka: topic/partition/offset = {}/{}/{}",
+                             record.key(), metadata.topic(), metadata.partition(), metadata.offset());
+            }
+        } else if (exception instanceof RetriableException) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Transient error sending event (partyId=" + record.key() + ") to Kafka. Will retry.", exception);
+            }
+            failedSends.add(record);
+        } else {
+            logger.error("Error sending event (partyId=" + record.key() + ") to Kafka; abandoning.", exception);
+            record.value().release();
+        }
+    }
+
+    private ImmutableList<ProducerRecord<DivolteIdentifier,AvroRecordBuffer>> sendBatchAndWait(final List<ProducerRecord<DivolteIdentifier, AvroRecordBuffer>> batch) throws InterruptedException {
         // First start sending the messages.
         // (This will serialize them, determine the partition and then assign them to a per-partition buffer.)
         final int batchSize = batch.size();
@@ -77,6 +152,7 @@ public final class KafkaFlusher extends TopicFlusher<ProducerRecord<DivolteIdent
             final Future<RecordMetadata> result = sendResults.get(i);
             try {
                 final RecordMetadata metadata = result.get();
+                batch.get(i).value().release();
                 if (logger.isDebugEnabled()) {
                     final ProducerRecord<DivolteIdentifier, AvroRecordBuffer> record = batch.get(i);
                     logger.debug("Finished sending event (partyId={}) to Kafka: topic/partition/offset = {}/{}/{}",
@@ -94,6 +170,7 @@ public final class KafkaFlusher extends TopicFlusher<ProducerRecord<DivolteIdent
                 } else {
                     // Fatal error.
                     logger.error("Error sending event (partyId=" + record.key() + ") to Kafka; abandoning.", cause);
+                    record.value().release();
                 }
             }
         }
@@ -18,11 +18,16 @@ package io.divolte.server.topicsinks.kafka;
 
 import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.DivolteIdentifier;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
 import io.divolte.server.processing.ProcessingPool;
+import io.divolte.server.processing.QueueType;
 import org.apache.kafka.clients.producer.Producer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.Optional;
 
 @ParametersAreNonnullByDefault
 public class KafkaFlushingPool extends ProcessingPool<KafkaFlusher, AvroRecordBuffer> {
@@ -32,12 +37,20 @@ public class KafkaFlushingPool extends ProcessingPool<KafkaFlusher, AvroRecordBu
     public KafkaFlushingPool(final String name,
                              final int numThreads,
                              final int maxWriteQueue,
+                             final OverflowPolicy overflowPolicy,
+                             final Duration overflowTimeout,
+                             final Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> spillSettings,
+                             final int maxInFlight,
                              final String topic,
                              final Producer<DivolteIdentifier, AvroRecordBuffer> producer ) {
         super(numThreads,
               maxWriteQueue,
+              QueueType.ARRAY_BLOCKING,
+              overflowPolicy,
+              overflowTimeout,
+              spillSettings,
               String.format("Kafka Flusher [%s]", Objects.requireNonNull(name)),
-              () -> new KafkaFlusher(topic, producer));
+              () -> new KafkaFlusher(topic, producer, maxInFlight));
         this.producer = Objects.requireNonNull(producer);
     }
 
@@ -22,6 +22,7 @@ import io.divolte.server.DivolteSchema;
 import org.apache.kafka.common.serialization.Serializer;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Optional;
 
 @ParametersAreNonnullByDefault
 public final class Serializers {
@@ -37,6 +38,20 @@ public final class Serializers {
         return new AvroRecordBufferSerializer();
     }
 
+    /**
+     * The header that the serializers expect in front of records, so that they can be
+     * handed to Kafka without copying.
+     *
+     * @param confluent whether the records are written in Confluent format.
+     * @param confluentId the Confluent schema registry id, required in Confluent format.
+     */
+    static public byte[] recordHeader(final boolean confluent, final Optional<Integer> confluentId) {
+        return confluent
+            ? ConfluentAvroRecordBufferSerializer.createConfluentRecordHeader(
+                    confluentId.orElseThrow(() -> new IllegalArgumentException("Cannot create Confluent-compatible header without registry id")))
+            : AvroRecordBufferSerializer.NO_HEADER.clone();
+    }
+
     static public Serializer<AvroRecordBuffer> createConfluentAvroSerializer(final DivolteSchema schema) {
         return schema.confluentId
             .map(ConfluentAvroRecordBufferSerializer::new)
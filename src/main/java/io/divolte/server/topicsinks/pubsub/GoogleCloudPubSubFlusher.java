@@ -17,10 +17,15 @@
 package io.divolte.server.topicsinks.pubsub;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.api.gax.rpc.ApiException;
 import com.google.cloud.pubsub.v1.Publisher;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.protobuf.ByteString;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.UnsafeByteOperations;
 import com.google.pubsub.v1.PubsubMessage;
 import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.DivolteSchema;
@@ -30,17 +35,20 @@ import org.apache.avro.SchemaNormalization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
 import java.security.NoSuchAlgorithmException;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @ParametersAreNonnullByDefault
 @NotThreadSafe
-public final class GoogleCloudPubSubFlusher extends TopicFlusher<PubsubMessage> {
+public final class GoogleCloudPubSubFlusher extends TopicFlusher<GoogleCloudPubSubFlusher.PendingMessage> {
     private final static Logger logger = LoggerFactory.getLogger(GoogleCloudPubSubFlusher.class);
     private final static String MESSAGE_ATTRIBUTE_PARTYID = "partyIdentifier";
     private final static String MESSAGE_ATTRIBUTE_EVENTID = "eventIdentifier";
@@ -53,13 +61,40 @@ public final class GoogleCloudPubSubFlusher extends TopicFlusher<PubsubMessage>
     private final static Base64.Encoder FINGERPRINT_ENCODER = Base64.getUrlEncoder().withoutPadding();
 
     private final Publisher publisher;
-    private final String schemaFingerprint;
-    private final Optional<String> schemaConfluentId;
+    // The attributes that are the same for every message.
+    private final ImmutableMap<String, String> schemaAttributes;
+    private final PubsubMessage.Builder messageBuilder = PubsubMessage.newBuilder();
+    private final InstantFormatter timestampFormatter = new InstantFormatter();
+
+    // When publishing asynchronously: the messages still in flight, and those that failed
+    // but may be retried. (Both are updated by the publisher's threads as messages complete.)
+    @Nullable private final InFlightWindow inFlight;
+    private final Queue<PendingMessage> failedSends = new ConcurrentLinkedQueue<>();
 
     GoogleCloudPubSubFlusher(final Publisher publisher, final DivolteSchema schema) {
+        this(publisher, schema, 0, 0);
+    }
+
+    /**
+     * @param maxInFlight the maximum number of messages that may be in flight. If zero,
+     *                    each batch is waited for before the next is published.
+     * @param maxInFlightBytes the maximum number of bytes that may be in flight, if
+     *                         publishing asynchronously. If zero, there is no limit.
+     */
+    GoogleCloudPubSubFlusher(final Publisher publisher,
+                             final DivolteSchema schema,
+                             final int maxInFlight,
+                             final long maxInFlightBytes) {
+        Preconditions.checkArgument(0 <= maxInFlight, "Maximum number of messages in flight must not be negative: %s", maxInFlight);
+        Preconditions.checkArgument(0 <= maxInFlightBytes, "Maximum number of bytes in flight must not be negative: %s", maxInFlightBytes);
         this.publisher = Objects.requireNonNull(publisher);
-        this.schemaFingerprint = schemaFingerprint(schema);
-        this.schemaConfluentId = schema.confluentId.map(i -> "0x" + Integer.toHexString(i));
+        final ImmutableMap.Builder<String, String> schemaAttributes = ImmutableMap.builder();
+        schemaAttributes.put(MESSAGE_ATTRIBUTE_SCHEMA_FINGERPRINT, schemaFingerprint(schema));
+        schema.confluentId.ifPresent(i -> schemaAttributes.put(MESSAGE_ATTRIBUTE_SCHEMA_CONFLUENT_ID, "0x" + Integer.toHexString(i)));
+        this.schemaAttributes = schemaAttributes.build();
+        this.inFlight = 0 < maxInFlight
+            ? new InFlightWindow(maxInFlight, 0 < maxInFlightBytes ? maxInFlightBytes : Long.MAX_VALUE)
+            : null;
     }
 
     private static String schemaFingerprint(final DivolteSchema schema) {
@@ -75,21 +110,73 @@ public final class GoogleCloudPubSubFlusher extends TopicFlusher<PubsubMessage>
     }
 
     @Override
-    protected PubsubMessage buildRecord(final AvroRecordBuffer record) {
-        final PubsubMessage.Builder builder = PubsubMessage.newBuilder()
-            .putAttributes(MESSAGE_ATTRIBUTE_SCHEMA_FINGERPRINT, schemaFingerprint)
-            .putAttributes(MESSAGE_ATTRIBUTE_PARTYID, record.getPartyId().toString())
+    protected PendingMessage buildRecord(final AvroRecordBuffer record) {
+        // The message refers to the record's memory instead of copying it, so the
+        // record is only released once the message has been published or abandoned.
+        final PubsubMessage message = messageBuilder
+            .clear()
+            .putAllAttributes(schemaAttributes)
+            .putAttributes(MESSAGE_ATTRIBUTE_PARTYID, record.getPartyId().value)
             .putAttributes(MESSAGE_ATTRIBUTE_EVENTID, record.getEventId())
-            .putAttributes(MESSAGE_ATTRIBUTE_TIMESTAMP, DateTimeFormatter.ISO_INSTANT.format(record.getTimestamp()))
-            .setData(ByteString.copyFrom(record.getByteBuffer()));
-        return schemaConfluentId
-            .map(id -> builder.putAttributes(MESSAGE_ATTRIBUTE_SCHEMA_CONFLUENT_ID, id))
-            .orElse(builder)
+            .putAttributes(MESSAGE_ATTRIBUTE_TIMESTAMP, timestampFormatter.format(record.getTimestamp()))
+            .setData(UnsafeByteOperations.unsafeWrap(record.getByteBuffer()))
             .build();
+        return new PendingMessage(message, record);
+    }
+
+    @Override
+    protected ImmutableList<PendingMessage> sendBatch(final List<PendingMessage> batch) throws InterruptedException {
+        return null != inFlight ? sendBatchAsync(batch, inFlight) : sendBatchAndWait(batch);
     }
 
     @Override
-    protected ImmutableList<PubsubMessage> sendBatch(final List<PubsubMessage> batch) throws InterruptedException {
+    protected ImmutableList<PendingMessage> failedSends() {
+        final ImmutableList.Builder<PendingMessage> failed = ImmutableList.builder();
+        PendingMessage message;
+        while (null != (message = failedSends.poll())) {
+            failed.add(message);
+        }
+        return failed.build();
+    }
+
+    private ImmutableList<PendingMessage> sendBatchAsync(final List<PendingMessage> batch,
+                                                         final InFlightWindow inFlight) throws InterruptedException {
+        // Publish the messages without waiting for them to complete; we only block if
+        // too many messages (or bytes) are still in flight.
+        for (final PendingMessage message : batch) {
+            final int size = message.message.getSerializedSize();
+            inFlight.acquire(size);
+            final ApiFuture<String> result;
+            try {
+                result = publisher.publish(message.message);
+            } catch (final RuntimeException e) {
+                inFlight.release(size);
+                throw e;
+            }
+            ApiFutures.addCallback(result, new ApiFutureCallback<String>() {
+                @Override
+                public void onSuccess(final String messageId) {
+                    inFlight.release(size);
+                    onPublished(message.message, messageId);
+                    message.record.release();
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    inFlight.release(size);
+                    if (onPublishFailure(message.message, cause)) {
+                        failedSends.add(message);
+                    } else {
+                        message.record.release();
+                    }
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        // Messages that have already failed, but may succeed if retried.
+        return failedSends();
+    }
+
+    private ImmutableList<PendingMessage> sendBatchAndWait(final List<PendingMessage> batch) throws InterruptedException {
         // For Pub/Sub we assume the following:
         //  - Batching behaviour is set to flush everything ASAP.
         //  - Retry behaviour will retry indefinitely, so long as it seems likely to succeed.
@@ -99,7 +186,7 @@ public final class GoogleCloudPubSubFlusher extends TopicFlusher<PubsubMessage>
         final int batchSize = batch.size();
         final List<ApiFuture<String>> sendResults =
             batch.stream()
-                .map(publisher::publish)
+                .map(pending -> publisher.publish(pending.message))
                 .collect(Collectors.toCollection(() -> new ArrayList<>(batchSize)));
 
         // At this point the messages are in flight, and we assume being flushed.
@@ -107,45 +194,106 @@ public final class GoogleCloudPubSubFlusher extends TopicFlusher<PubsubMessage>
         //  - Completed.
         //  - An error occurred, but a retry may succeed.
         //  - A fatal error occurred.
-        final ImmutableList.Builder<PubsubMessage> remaining = ImmutableList.builder();
+        final ImmutableList.Builder<PendingMessage> remaining = ImmutableList.builder();
         for (int i = 0; i < batchSize; ++i) {
             final ApiFuture<String> pendingResult = sendResults.get(i);
+            final PendingMessage message = batch.get(i);
             try {
-                final String messageId = pendingResult.get();
-                if (logger.isDebugEnabled()) {
-                    final PubsubMessage message = batch.get(i);
-                    logger.debug("Finished sending event (partyId={}, eventId={}) to Pub/Sub: messageId = {}",
-                                 message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
-                                 message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
-                                 messageId);
-                }
+                onPublished(message.message, pendingResult.get());
+                message.record.release();
             } catch (final ExecutionException e) {
-                final PubsubMessage message = batch.get(i);
-                // The Pub/Sub publisher internally has a retry policy, but outside that we also
-                // retry indefinitely unless it's a cause that we don't understand.
-                final Throwable cause = e.getCause();
-                if (cause instanceof ApiException) {
-                    final ApiException apiException = (ApiException) cause;
-                    if (apiException.isRetryable()) {
-                        logger.debug("Transient error sending event (partyId={}, eventId={}) to Pub/Sub; retrying.",
-                                     message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
-                                     message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
-                                     cause);
-                        remaining.add(message);
-                    } else {
-                        logger.warn("Permanent error sending event (partyId={}, eventId={}) to Pub/Sub; abandoning.",
-                                    message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
-                                    message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
-                                    cause);
-                    }
+                if (onPublishFailure(message.message, e.getCause())) {
+                    remaining.add(message);
                 } else {
-                    logger.error("Unknown error sending event (partyId={}, eventId={}) to Pub/Sub; abandoning.",
-                                 message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
-                                 message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
-                                 cause);
+                    message.record.release();
                 }
             }
         }
         return remaining.build();
     }
+
+    private static void onPublished(final PubsubMessage message, final String messageId) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Finished sending event (partyId={}, eventId={}) to Pub/Sub: messageId = {}",
+                         message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
+                         message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
+                         messageId);
+        }
+    }
+
+    /**
+     * @return whether the message should be retried.
+     */
+    private static boolean onPublishFailure(final PubsubMessage message, final Throwable cause) {
+        // The Pub/Sub publisher internally has a retry policy, but outside that we also
+        // retry indefinitely unless it's a cause that we don't understand.
+        if (cause instanceof ApiException) {
+            final ApiException apiException = (ApiException) cause;
+            if (apiException.isRetryable()) {
+                logger.debug("Transient error sending event (partyId={}, eventId={}) to Pub/Sub; retrying.",
+                             message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
+                             message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
+                             cause);
+                return true;
+            } else {
+                logger.warn("Permanent error sending event (partyId={}, eventId={}) to Pub/Sub; abandoning.",
+                            message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
+                            message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
+                            cause);
+            }
+        } else {
+            logger.error("Unknown error sending event (partyId={}, eventId={}) to Pub/Sub; abandoning.",
+                         message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_PARTYID, "N/A"),
+                         message.getAttributesOrDefault(MESSAGE_ATTRIBUTE_EVENTID, "N/A"),
+                         cause);
+        }
+        return false;
+    }
+
+    /**
+     * A message, and the record whose memory holds its data.
+     */
+    @ParametersAreNonnullByDefault
+    static final class PendingMessage {
+        final PubsubMessage message;
+        final AvroRecordBuffer record;
+
+        private PendingMessage(final PubsubMessage message, final AvroRecordBuffer record) {
+            this.message = Objects.requireNonNull(message);
+            this.record = Objects.requireNonNull(record);
+        }
+    }
+
+    /**
+     * Bounds the number of messages, and their bytes, that are in flight. A single
+     * message is always admitted if nothing else is in flight, even if it is larger
+     * than the byte limit.
+     */
+    @ThreadSafe
+    private static final class InFlightWindow {
+        private final int maxMessages;
+        private final long maxBytes;
+
+        @GuardedBy("this") private int messages;
+        @GuardedBy("this") private long bytes;
+
+        InFlightWindow(final int maxMessages, final long maxBytes) {
+            this.maxMessages = maxMessages;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized void acquire(final int size) throws InterruptedException {
+            while (maxMessages <= messages || (0 < messages && maxBytes - size < bytes)) {
+                wait();
+            }
+            ++messages;
+            bytes += size;
+        }
+
+        synchronized void release(final int size) {
+            --messages;
+            bytes -= size;
+            notifyAll();
+        }
+    }
 }
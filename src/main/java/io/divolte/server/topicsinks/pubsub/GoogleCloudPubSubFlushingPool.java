@@ -19,10 +19,14 @@ package io.divolte.server.topicsinks.pubsub;
 import com.google.cloud.pubsub.v1.Publisher;
 import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.DivolteSchema;
+import io.divolte.server.processing.DiskSpillQueue;
+import io.divolte.server.processing.OverflowPolicy;
 import io.divolte.server.processing.ProcessingPool;
+import io.divolte.server.processing.QueueType;
 import io.grpc.ManagedChannel;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -35,13 +39,22 @@ public class GoogleCloudPubSubFlushingPool extends ProcessingPool<GoogleCloudPub
     public GoogleCloudPubSubFlushingPool(final String name,
                                          final int numThreads,
                                          final int maxWriteQueue,
+                                         final OverflowPolicy overflowPolicy,
+                                         final Duration overflowTimeout,
+                                         final Optional<DiskSpillQueue.Settings<AvroRecordBuffer>> spillSettings,
                                          final Publisher publisher,
                                          final Optional<ManagedChannel> channel,
-                                         final DivolteSchema schema) {
+                                         final DivolteSchema schema,
+                                         final int maxInFlight,
+                                         final long maxInFlightBytes) {
         super(numThreads,
               maxWriteQueue,
+              QueueType.ARRAY_BLOCKING,
+              overflowPolicy,
+              overflowTimeout,
+              spillSettings,
               String.format("Google Cloud Pub/Sub Flusher [%s]", Objects.requireNonNull(name)),
-              () -> new GoogleCloudPubSubFlusher(publisher, schema));
+              () -> new GoogleCloudPubSubFlusher(publisher, schema, maxInFlight, maxInFlightBytes));
         this.publisher = Objects.requireNonNull(publisher);
         this.channel = Objects.requireNonNull(channel);
     }
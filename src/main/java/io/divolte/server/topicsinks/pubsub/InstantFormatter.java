@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.topicsinks.pubsub;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats instants exactly like {@link DateTimeFormatter#ISO_INSTANT}, but without
+ * the intermediate objects that the general-purpose formatter creates. Only the
+ * resulting string is allocated.
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class InstantFormatter {
+    private static final int SECONDS_PER_DAY = 86400;
+    // The range of instants for which the year has exactly 4 digits: 0000-01-01 up to 9999-12-31.
+    private static final long MIN_SECOND = -62167219200L;
+    private static final long MAX_SECOND = 253402300799L;
+
+    // Large enough for: yyyy-MM-ddTHH:mm:ss.nnnnnnnnnZ
+    private final char[] buffer = new char[30];
+
+    String format(final Instant instant) {
+        final long epochSecond = instant.getEpochSecond();
+        if (epochSecond < MIN_SECOND || MAX_SECOND < epochSecond) {
+            // Rare enough to not bother: years that need a sign or more digits.
+            return DateTimeFormatter.ISO_INSTANT.format(instant);
+        }
+        final long epochDay = Math.floorDiv(epochSecond, SECONDS_PER_DAY);
+        final int secondOfDay = (int) Math.floorMod(epochSecond, SECONDS_PER_DAY);
+
+        // Convert the day to a civil date; the year is taken to start on March 1st,
+        // so that the leap day is at the end of it.
+        final long shiftedDay = epochDay + 719468;
+        final long era = Math.floorDiv(shiftedDay, 146097);
+        final int dayOfEra = (int) (shiftedDay - era * 146097);
+        final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        int length = 0;
+        length = appendDigits(year, 4, length);
+        buffer[length++] = '-';
+        length = appendDigits(month, 2, length);
+        buffer[length++] = '-';
+        length = appendDigits(day, 2, length);
+        buffer[length++] = 'T';
+        length = appendDigits(secondOfDay / 3600, 2, length);
+        buffer[length++] = ':';
+        length = appendDigits(secondOfDay / 60 % 60, 2, length);
+        buffer[length++] = ':';
+        length = appendDigits(secondOfDay % 60, 2, length);
+
+        // Like ISO_INSTANT, the fraction is written in as many groups of 3 digits as needed.
+        final int nanos = instant.getNano();
+        if (0 != nanos) {
+            buffer[length++] = '.';
+            if (0 == nanos % 1_000_000) {
+                length = appendDigits(nanos / 1_000_000, 3, length);
+            } else if (0 == nanos % 1000) {
+                length = appendDigits(nanos / 1000, 6, length);
+            } else {
+                length = appendDigits(nanos, 9, length);
+            }
+        }
+        buffer[length++] = 'Z';
+        return new String(buffer, 0, length);
+    }
+
+    private int appendDigits(int value, final int digits, final int offset) {
+        for (int i = offset + digits - 1; offset <= i; --i) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + digits;
+    }
+}
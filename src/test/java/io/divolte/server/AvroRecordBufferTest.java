@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class AvroRecordBufferTest {
+    private static final Schema SCHEMA = SchemaBuilder.record("Test").fields()
+                                                      .requiredString("value")
+                                                      .endRecord();
+
+    private static AvroRecordBuffer bufferOf(final String value) {
+        final GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("value", value);
+        return AvroRecordBuffer.fromRecord(DivolteIdentifier.generate(),
+                                           DivolteIdentifier.generate(),
+                                           "event",
+                                           Instant.now(),
+                                           record);
+    }
+
+    private static String valueOf(final AvroRecordBuffer buffer) throws IOException {
+        final ByteBuffer bytes = buffer.getByteBuffer();
+        final byte[] array = new byte[bytes.remaining()];
+        bytes.get(array);
+        final GenericRecord record =
+                new GenericDatumReader<GenericRecord>(SCHEMA).read(null, DecoderFactory.get().binaryDecoder(array, null));
+        return record.get("value").toString();
+    }
+
+    @Test
+    public void shouldSerializeRecordsOfAnySize() throws IOException {
+        for (final int length : new int[] { 0, 10, 1000, 100_000 }) {
+            final String value = Strings.repeat("x", length);
+            final AvroRecordBuffer buffer = bufferOf(value);
+            assertEquals(value, valueOf(buffer));
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void shouldReuseMemoryOnlyOnceReleased() throws IOException {
+        // Enough records to fill several slabs, some of which we hang on to.
+        final List<AvroRecordBuffer> kept = new ArrayList<>();
+        for (int i = 0; i < 10_000; ++i) {
+            final AvroRecordBuffer buffer = bufferOf("value" + i);
+            if (0 == i % 7) {
+                kept.add(buffer);
+            } else {
+                buffer.release();
+            }
+        }
+        for (int i = 0; i < kept.size(); ++i) {
+            assertEquals("value" + 7 * i, valueOf(kept.get(i)));
+        }
+    }
+
+    @Test
+    public void shouldKeepContentsWhileRetained() throws IOException {
+        final AvroRecordBuffer buffer = bufferOf("retained").retain();
+        buffer.release();
+        for (int i = 0; i < 10_000; ++i) {
+            bufferOf("value" + i).release();
+        }
+        assertEquals("retained", valueOf(buffer));
+        buffer.release();
+    }
+
+    @Test
+    public void shouldReserveRoomForHeader() throws IOException {
+        final byte[] header = { 1, 2, 3 };
+        final GenericRecord record = new GenericData.Record(SCHEMA);
+        record.put("value", "framed");
+        final AvroRecordBuffer buffer = AvroRecordBuffer.fromRecord(DivolteIdentifier.generate(),
+                                                                    DivolteIdentifier.generate(),
+                                                                    "event",
+                                                                    Instant.now(),
+                                                                    record,
+                                                                    new GenericDatumWriter<>(SCHEMA),
+                                                                    Optional.of(header));
+        assertEquals("framed", valueOf(buffer));
+        final byte[] framed = buffer.getFramedBytes(header).orElseThrow(AssertionError::new);
+        assertEquals(header.length + buffer.size(), framed.length);
+        assertArrayEquals(header, Arrays.copyOf(framed, header.length));
+        assertFalse(buffer.getFramedBytes(new byte[] { 1, 2, 4 }).isPresent());
+        assertFalse(buffer.getFramedBytes(new byte[0]).isPresent());
+        assertFalse(bufferOf("pooled").getFramedBytes(new byte[0]).isPresent());
+    }
+
+    @Test
+    public void shouldSurviveSpilling() throws IOException {
+        // The second record is not at the start of its slab.
+        bufferOf("first").release();
+        final AvroRecordBuffer buffer = bufferOf("spilled");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AvroRecordBuffer.spillSerializer().serialize(buffer, new DataOutputStream(bytes));
+
+        final AvroRecordBuffer restored = AvroRecordBuffer.spillSerializer()
+                .deserialize(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("spilled", valueOf(restored));
+        assertEquals(buffer.getPartyId(), restored.getPartyId());
+        assertEquals(buffer.getSessionId(), restored.getSessionId());
+        assertEquals(buffer.getEventId(), restored.getEventId());
+        assertEquals(buffer.getTimestamp(), restored.getTimestamp());
+        buffer.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAllowReleasingTooOften() {
+        final AvroRecordBuffer buffer = bufferOf("value");
+        buffer.release();
+        buffer.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotAllowRetainingAfterRelease() {
+        final AvroRecordBuffer buffer = bufferOf("value");
+        buffer.release();
+        buffer.retain();
+    }
+}
@@ -207,6 +207,11 @@ public class DslRecordMapperTest {
         assertEquals("about", event.record.get("pageview"));
     }
 
+    @Test(expected=SchemaMappingException.class)
+    public void shouldFailOnStartupIfRegexIsInvalid() throws IOException {
+        setupServer("invalid-regex-mapping.groovy");
+    }
+
     @Test
     public void shouldParseUriComponents() throws IOException, InterruptedException {
         setupServer("uri-mapping.groovy");
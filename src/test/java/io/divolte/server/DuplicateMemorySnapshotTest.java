@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class DuplicateMemorySnapshotTest {
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("duplicate-memory-test");
+        file = directory.resolve("snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRestoreEventsSeenBeforeSnapshot() throws IOException {
+        final ImmutableList<DuplicateMemory> memories = ImmutableList.of(new ShortTermDuplicateMemory(1000),
+                                                                         new ShortTermDuplicateMemory(1000));
+        memories.get(0).isProbableDuplicate("party", "session", "event 1");
+        memories.get(1).isProbableDuplicate("party", "session", "event 2");
+        DuplicateMemorySnapshot.save(file, memories);
+
+        final ImmutableList<DuplicateMemory> restored = ImmutableList.of(new ShortTermDuplicateMemory(1000),
+                                                                         new ShortTermDuplicateMemory(1000));
+        assertTrue(DuplicateMemorySnapshot.restore(file, restored));
+        assertTrue(restored.get(0).isProbableDuplicate("party", "session", "event 1"));
+        assertTrue(restored.get(1).isProbableDuplicate("party", "session", "event 2"));
+        assertFalse(restored.get(0).isProbableDuplicate("party", "session", "event 2"));
+    }
+
+    @Test
+    public void shouldRestoreWindowedMemory() throws IOException {
+        final DuplicateMemory memory = new WindowedDuplicateMemory(1000, Duration.ofMinutes(10), Clock.systemUTC());
+        memory.isProbableDuplicate("party", "session", "event");
+        DuplicateMemorySnapshot.save(file, ImmutableList.of(memory));
+
+        final DuplicateMemory restored = new WindowedDuplicateMemory(1000, Duration.ofMinutes(10), Clock.systemUTC());
+        assertTrue(DuplicateMemorySnapshot.restore(file, ImmutableList.of(restored)));
+        assertTrue(restored.isProbableDuplicate("party", "session", "event"));
+    }
+
+    @Test
+    public void shouldStartEmptyWhenSizeChanged() throws IOException {
+        final DuplicateMemory memory = new ShortTermDuplicateMemory(1000);
+        memory.isProbableDuplicate("party", "session", "event");
+        DuplicateMemorySnapshot.save(file, ImmutableList.of(memory));
+
+        final DuplicateMemory resized = new ShortTermDuplicateMemory(2000);
+        assertFalse(DuplicateMemorySnapshot.restore(file, ImmutableList.of(resized)));
+        assertFalse(resized.isProbableDuplicate("party", "session", "event"));
+    }
+
+    @Test
+    public void shouldStartEmptyWhenMemoryTypeOrCountChanged() throws IOException {
+        DuplicateMemorySnapshot.save(file, ImmutableList.of(new ShortTermDuplicateMemory(1000)));
+
+        assertFalse(DuplicateMemorySnapshot.restore(file, ImmutableList.of(new ShortTermDuplicateMemory(1000),
+                                                                           new ShortTermDuplicateMemory(1000))));
+        assertFalse(DuplicateMemorySnapshot.restore(file, ImmutableList.of(new WindowedDuplicateMemory(2000, Duration.ofMinutes(10), Clock.systemUTC()))));
+    }
+
+    @Test
+    public void shouldStartEmptyWithoutSnapshot() throws IOException {
+        assertFalse(DuplicateMemorySnapshot.restore(file, ImmutableList.of(new ShortTermDuplicateMemory(1000))));
+    }
+
+    @Test
+    public void shouldReplacePreviousSnapshot() throws IOException {
+        final DuplicateMemory memory = new ShortTermDuplicateMemory(1000);
+        DuplicateMemorySnapshot.save(file, ImmutableList.of(memory));
+        memory.isProbableDuplicate("party", "session", "event");
+        DuplicateMemorySnapshot.save(file, ImmutableList.of(memory));
+
+        final DuplicateMemory restored = new ShortTermDuplicateMemory(1000);
+        assertTrue(DuplicateMemorySnapshot.restore(file, ImmutableList.of(restored)));
+        assertTrue(restored.isProbableDuplicate("party", "session", "event"));
+        try (final Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+    }
+}
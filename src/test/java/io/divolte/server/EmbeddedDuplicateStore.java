@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for a Redis server that supports just enough of it for the
+ * {@link RedisDuplicateStore}: <code>SET key value NX PX milliseconds</code>.
+ */
+final class EmbeddedDuplicateStore implements Closeable {
+    // Keys and the time at which they expire.
+    private final Map<String, Long> keys = new ConcurrentHashMap<>();
+    private final AtomicInteger commandCount = new AtomicInteger();
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final ServerSocket serverSocket;
+    // While stalled, commands are read but not replied to, as with a half-open connection.
+    private volatile boolean stalled;
+
+    EmbeddedDuplicateStore() throws IOException {
+        this(0);
+    }
+
+    EmbeddedDuplicateStore(final int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        final Thread acceptor = new Thread(this::acceptConnections, "Embedded duplicate store");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    int commandCount() {
+        return commandCount.get();
+    }
+
+    int connectionCount() {
+        return connections.size();
+    }
+
+    void stall(final boolean stalled) {
+        this.stalled = stalled;
+    }
+
+    private void acceptConnections() {
+        try {
+            for (;;) {
+                final Socket connection = serverSocket.accept();
+                connections.add(connection);
+                final Thread handler = new Thread(() -> handleCommands(connection), "Embedded duplicate store connection");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (final IOException e) {
+            // Closed.
+        }
+    }
+
+    private void handleCommands(final Socket connection) {
+        try (final Socket socket = connection) {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            for (;;) {
+                final List<String> command = readCommand(input);
+                commandCount.incrementAndGet();
+                if (stalled) {
+                    continue;
+                }
+                output.write(execute(command).getBytes(StandardCharsets.UTF_8));
+                // Like Redis, replies to pipelined commands are written together.
+                if (0 == input.available()) {
+                    output.flush();
+                }
+            }
+        } catch (final IOException e) {
+            // Closed.
+        }
+    }
+
+    private String execute(final List<String> command) {
+        if (5 != command.size()
+                || !"SET".equals(command.get(0).toUpperCase(Locale.ROOT))
+                || !"NX".equals(command.get(3).toUpperCase(Locale.ROOT))) {
+            return "-ERR unsupported command\r\n";
+        }
+        final long now = System.currentTimeMillis();
+        final long expiry = now + Long.parseLong(command.get(4));
+        final boolean[] set = new boolean[1];
+        keys.compute(command.get(1), (key, previousExpiry) -> {
+            set[0] = null == previousExpiry || previousExpiry <= now;
+            return set[0] ? expiry : previousExpiry;
+        });
+        return set[0] ? "+OK\r\n" : "$-1\r\n";
+    }
+
+    private static List<String> readCommand(final DataInputStream input) throws IOException {
+        final int count = Integer.parseInt(readLine(input, '*'));
+        final List<String> arguments = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            final byte[] argument = new byte[Integer.parseInt(readLine(input, '$'))];
+            input.readFully(argument);
+            readLine(input, -1);
+            arguments.add(new String(argument, StandardCharsets.UTF_8));
+        }
+        // Only PX is supported, so its name is dropped.
+        if (6 == count && "PX".equals(arguments.get(4).toUpperCase(Locale.ROOT))) {
+            arguments.remove(4);
+        }
+        return arguments;
+    }
+
+    private static String readLine(final InputStream input, final int type) throws IOException {
+        if (-1 != type && type != input.read()) {
+            throw new IOException("Unexpected command.");
+        }
+        final StringBuilder line = new StringBuilder();
+        for (int c = input.read(); '\r' != c; c = input.read()) {
+            if (-1 == c) {
+                throw new IOException("Connection closed.");
+            }
+            line.append((char) c);
+        }
+        input.read();
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (final Socket connection : connections) {
+            connection.close();
+        }
+    }
+}
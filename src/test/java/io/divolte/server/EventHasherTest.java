@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+
+public class EventHasherTest {
+    @Test
+    public void shouldHashLikeGuavaMurmur3() {
+        final Random random = new Random(42);
+        final EventHasher eventHasher = new EventHasher();
+        // Lengths around block boundaries, with and without characters outside of ASCII.
+        for (int length = 0; length < 40; ++length) {
+            final String party = randomString(random, length, 0x80);
+            final String session = randomString(random, (length + 3) % 11, 0x10000);
+            final String event = randomString(random, length / 2, 0x80);
+
+            final Hasher hasher = Hashing.murmur3_128().newHasher();
+            hasher.putUnencodedChars(party);
+            hasher.putUnencodedChars(session);
+            hasher.putUnencodedChars(event);
+            final HashCode expected = hasher.hash();
+
+            eventHasher.hash(party, session, event);
+            assertEquals(expected.asLong(), eventHasher.low());
+            assertEquals(Long.reverseBytes(Longs.fromByteArray(Arrays.copyOfRange(expected.asBytes(), 8, 16))),
+                         eventHasher.high());
+        }
+    }
+
+    @Test
+    public void shouldHashAnyNumberOfProperties() {
+        final EventHasher eventHasher = new EventHasher();
+        eventHasher.hash("first", "second", "third");
+        final long low = eventHasher.low();
+        final long high = eventHasher.high();
+
+        eventHasher.hash("first", "sec", "ond", "third");
+        // Only the characters matter, not how they're split into properties.
+        assertEquals(low, eventHasher.low());
+        assertEquals(high, eventHasher.high());
+
+        eventHasher.hash("first", "second", "third", "fourth");
+        assertNotEquals(low, eventHasher.low());
+    }
+
+    private static String randomString(final Random random, final int length, final int maxChar) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            builder.append((char) random.nextInt(maxChar));
+        }
+        return builder.toString();
+    }
+}
@@ -307,6 +307,18 @@ public class JsonSourceTest {
         return root;
     }
 
+    @Test
+    public void shouldReceiveEventsWhenMapperMayBlock() throws IOException, InterruptedException {
+        startServer(ImmutableMap.of("divolte.global.mapper.overflow_policy", "block"));
+
+        final HttpURLConnection conn = request(buildCompleteJsonEvent());
+        assertEquals(HTTP_NO_CONTENT, conn.getResponseCode());
+
+        final ServerTestUtils.EventPayload eventPayload =
+                testServer.orElseThrow(IllegalStateException::new).waitForEvent();
+        assertEquals("3c54b1491693aa646914e6feeb4a47d1", eventPayload.event.eventId);
+    }
+
     @Test
     public void shouldReceiveCompleteJsonEvent() throws IOException, InterruptedException {
         startServer();
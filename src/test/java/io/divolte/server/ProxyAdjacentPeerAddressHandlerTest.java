@@ -28,6 +28,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+
 @SuppressWarnings("PMD.AvoidUsingHardCodedIP")
 public class ProxyAdjacentPeerAddressHandlerTest {
     private static final String URL_STRING = "http://%s:%d/csc-event";
@@ -102,6 +104,38 @@ public class ProxyAdjacentPeerAddressHandlerTest {
         assertEquals("192.168.13.23", payload.event.exchange.getSourceAddress().getHostString());
     }
 
+    @Test
+    public void shouldObtainAddressWhenHandledByWorkerThread() throws IOException, InterruptedException {
+        // With the block overflow policy, requests are handed from the I/O thread to a worker thread.
+        server.shutdown();
+        server = new TestServer("x-forwarded-for-test.conf", ImmutableMap.of("divolte.global.mapper.overflow_policy", "block"));
+        final URL url = new URL(String.format(URL_STRING, server.host, server.port) + URL_QUERY_STRING);
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.addRequestProperty("X-Forwarded-For", "127.0.0.1,192.168.13.23");
+        conn.setRequestMethod("GET");
+
+        assertEquals(200, conn.getResponseCode());
+
+        final EventPayload payload = server.waitForEvent();
+        assertEquals("192.168.13.23", payload.event.exchange.getSourceAddress().getHostString());
+    }
+
+    @Test
+    public void shouldObtainAddressWhenRespondingAfterQueueing() throws IOException, InterruptedException {
+        // With the reject overflow policy, the event is queued before the response is sent.
+        server.shutdown();
+        server = new TestServer("x-forwarded-for-test.conf", ImmutableMap.of("divolte.global.mapper.overflow_policy", "reject"));
+        final URL url = new URL(String.format(URL_STRING, server.host, server.port) + URL_QUERY_STRING);
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.addRequestProperty("X-Forwarded-For", "127.0.0.1,192.168.13.23");
+        conn.setRequestMethod("GET");
+
+        assertEquals(200, conn.getResponseCode());
+
+        final EventPayload payload = server.waitForEvent();
+        assertEquals("192.168.13.23", payload.event.exchange.getSourceAddress().getHostString());
+    }
+
     @Before
     public void setUp() {
         server = new TestServer("x-forwarded-for-test.conf");
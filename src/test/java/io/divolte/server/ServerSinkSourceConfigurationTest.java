@@ -333,6 +333,36 @@ public class ServerSinkSourceConfigurationTest {
                      1, explicitAvroFileLocator2.listNewRecords().count());
     }
 
+    @Test
+    public void shouldSupportParallelMappingsPerSource() throws IOException, InterruptedException {
+        // Test that a single source can send events to multiple mappings that each have their own threads.
+        final Path avroDirectory1 = createTempDirectory();
+        final Path avroDirectory2 = createTempDirectory();
+        startServer("mapping-configuration-shared-source.conf", ImmutableMap.of(
+                "divolte.global.mapper.mapping_threads", 2,
+                "divolte.sinks.sink-1.file_strategy.working_dir", avroDirectory1.toString(),
+                "divolte.sinks.sink-1.file_strategy.publish_dir", avroDirectory1.toString(),
+                "divolte.sinks.sink-2.file_strategy.working_dir", avroDirectory2.toString(),
+                "divolte.sinks.sink-2.file_strategy.publish_dir", avroDirectory2.toString()
+        ));
+        Preconditions.checkState(null != testServer);
+        final AvroFileLocator explicitAvroFileLocator1 = new AvroFileLocator(avroDirectory1);
+        final AvroFileLocator explicitAvroFileLocator2 = new AvroFileLocator(avroDirectory2);
+        request();
+        request();
+        for (int i = 0; i < 4; ++i) {
+            testServer.waitForEvent();
+        }
+        // Stopping the server flushes any HDFS files.
+        stopServer(true);
+        // Now we can check:
+        //   - Both sinks should have both events.
+        assertEquals("Wrong number of new events logged in first location",
+                     2, explicitAvroFileLocator1.listNewRecords().count());
+        assertEquals("Wrong number of new events logged in second location",
+                     2, explicitAvroFileLocator2.listNewRecords().count());
+    }
+
     @Test
     public void shouldSupportMultipleMappingsPerSink() throws IOException, InterruptedException {
         // Test that a multiple mappings can send events to the same sink.
@@ -162,7 +162,7 @@ public final class ServerTestUtils {
             final ValidatedConfiguration vc = new ValidatedConfiguration(() -> this.config);
             Preconditions.checkArgument(vc.isValid(),
                                         "Invalid test server configuration: %s", vc.errors());
-            server = new Server(vc, (event, buffer, record) -> events.add(new EventPayload(event, buffer, record)));
+            server = new Server(vc, (event, buffer, record) -> events.add(new EventPayload(event, buffer.retain(), record)));
             try {
                 server.run();
             } catch (final RuntimeException e) {
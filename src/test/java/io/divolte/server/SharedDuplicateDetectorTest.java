@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedDuplicateDetectorTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration RETRY_INTERVAL = Duration.ofMillis(50);
+
+    private final List<RedisDuplicateStore> clients = new ArrayList<>();
+    private EmbeddedDuplicateStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new EmbeddedDuplicateStore();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        clients.forEach(RedisDuplicateStore::close);
+        store.close();
+    }
+
+    private RedisDuplicateStore connect(final int port, final Duration window) {
+        return connect(port, window, TIMEOUT);
+    }
+
+    private RedisDuplicateStore connect(final int port, final Duration window, final Duration timeout) {
+        final RedisDuplicateStore client = new RedisDuplicateStore(InetAddress.getLoopbackAddress().getHostAddress(), port, "test:", window, timeout, RETRY_INTERVAL);
+        clients.add(client);
+        return client;
+    }
+
+    private static void awaitConnection(final RedisDuplicateStore client) throws Exception {
+        final long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        for (;;) {
+            final CompletableFuture<boolean[]> claim = client.claim(new long[] { 0 }, new long[] { 0 }, 1);
+            // While disconnected, claims fail immediately.
+            if (!claim.isCompletedExceptionally()) {
+                claim.get(TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+                return;
+            }
+            if (deadline < System.nanoTime()) {
+                throw new TimeoutException("Not connected to duplicate store.");
+            }
+            Thread.sleep(RETRY_INTERVAL.toMillis());
+        }
+    }
+
+    private static DuplicateDetector detector(final RedisDuplicateStore client) {
+        return new SharedDuplicateDetector(new ShortTermDuplicateMemory(1000), client, TIMEOUT);
+    }
+
+    private static boolean[] detect(final DuplicateDetector detector, final String... eventIds) {
+        final long[] hashLows = new long[eventIds.length];
+        final long[] hashHighs = new long[eventIds.length];
+        final EventHasher hasher = new EventHasher();
+        for (int i = 0; i < eventIds.length; ++i) {
+            hasher.hash("party", "session", eventIds[i]);
+            hashLows[i] = hasher.low();
+            hashHighs[i] = hasher.high();
+        }
+        final boolean[] duplicates = new boolean[eventIds.length];
+        detector.detectDuplicates(hashLows, hashHighs, eventIds.length, duplicates);
+        return duplicates;
+    }
+
+    @Test
+    public void shouldDetectDuplicatesSeenByOtherServers() throws Exception {
+        final RedisDuplicateStore client1 = connect(store.port(), Duration.ofMinutes(10));
+        final RedisDuplicateStore client2 = connect(store.port(), Duration.ofMinutes(10));
+        awaitConnection(client1);
+        awaitConnection(client2);
+
+        assertArrayEquals(new boolean[] { false, false }, detect(detector(client1), "event 1", "event 2"));
+        assertArrayEquals(new boolean[] { true, false, true }, detect(detector(client2), "event 1", "event 3", "event 2"));
+    }
+
+    @Test
+    public void shouldDetectDuplicatesWithinBatch() throws Exception {
+        final RedisDuplicateStore client = connect(store.port(), Duration.ofMinutes(10));
+        awaitConnection(client);
+
+        assertArrayEquals(new boolean[] { false, true }, detect(detector(client), "event", "event"));
+    }
+
+    @Test
+    public void shouldForgetEventsAfterWindow() throws Exception {
+        final RedisDuplicateStore client = connect(store.port(), Duration.ofMillis(100));
+        awaitConnection(client);
+
+        assertArrayEquals(new boolean[] { false }, detect(detector(client), "event"));
+        Thread.sleep(200);
+        assertArrayEquals(new boolean[] { false }, detect(detector(client), "event"));
+    }
+
+    @Test
+    public void shouldFallBackToLocalMemoryWhenStoreIsUnreachable() throws Exception {
+        final int port = unusedPort();
+        final DuplicateDetector detector = detector(connect(port, Duration.ofMinutes(10)));
+
+        assertArrayEquals(new boolean[] { false, false }, detect(detector, "event 1", "event 2"));
+        assertArrayEquals(new boolean[] { true, false }, detect(detector, "event 1", "event 3"));
+    }
+
+    @Test
+    public void shouldReconnectWhenStoreIsBack() throws Exception {
+        final int port = unusedPort();
+        final RedisDuplicateStore client1 = connect(port, Duration.ofMinutes(10));
+        assertArrayEquals(new boolean[] { false }, detect(detector(client1), "event"));
+
+        try (final EmbeddedDuplicateStore lateStore = new EmbeddedDuplicateStore(port)) {
+            final RedisDuplicateStore client2 = connect(port, Duration.ofMinutes(10));
+            awaitConnection(client1);
+            awaitConnection(client2);
+
+            assertArrayEquals(new boolean[] { false }, detect(detector(client1), "other event"));
+            assertArrayEquals(new boolean[] { true }, detect(detector(client2), "other event"));
+        }
+    }
+
+    @Test
+    public void shouldReconnectWhenStoreStopsReplying() throws Exception {
+        final RedisDuplicateStore client = connect(store.port(), Duration.ofMinutes(10), Duration.ofMillis(200));
+        awaitConnection(client);
+        assertEquals(1, store.connectionCount());
+
+        store.stall(true);
+        final CompletableFuture<boolean[]> claim = client.claim(new long[] { 1 }, new long[] { 1 }, 1);
+        try {
+            claim.get(TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+            fail("Claim should fail when the store doesn't reply.");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        store.stall(false);
+        awaitConnection(client);
+        assertEquals(2, store.connectionCount());
+    }
+
+    @Test
+    public void shouldPipelineBatchesFromMultipleThreads() throws Exception {
+        final RedisDuplicateStore client = connect(store.port(), Duration.ofMinutes(10));
+        awaitConnection(client);
+        final int commandsBefore = store.commandCount();
+
+        final int threadCount = 4;
+        final int batchCount = 100;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < threadCount; ++thread) {
+                final String prefix = "thread " + thread + " event ";
+                results.add(executor.submit(() -> {
+                    // Each thread has its own local memory, as mapper threads do.
+                    final DuplicateDetector detector = detector(client);
+                    for (int batch = 0; batch < batchCount; ++batch) {
+                        assertArrayEquals(new boolean[] { false, false },
+                                          detect(detector, prefix + batch, prefix + batch + " other"));
+                    }
+                    final DuplicateDetector otherDetector = detector(client);
+                    for (int batch = 0; batch < batchCount; ++batch) {
+                        assertArrayEquals(new boolean[] { true, true },
+                                          detect(otherDetector, prefix + batch, prefix + batch + " other"));
+                    }
+                }));
+            }
+            for (final Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (final ExecutionException e) {
+                    throw new AssertionError(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        assertEquals(threadCount * batchCount * 2 * 2, store.commandCount() - commandsBefore);
+    }
+
+    private static int unusedPort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
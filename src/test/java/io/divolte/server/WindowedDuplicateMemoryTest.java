@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server;
+
+import static org.junit.Assert.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class WindowedDuplicateMemoryTest {
+    private final TestClock clock = new TestClock();
+
+    @Test
+    public void shouldFlagDuplicatesWithinWindow() {
+        final WindowedDuplicateMemory memory = new WindowedDuplicateMemory(1000, Duration.ofMinutes(10), clock);
+
+        assertFalse(memory.isProbableDuplicate("party", "session", "event 1"));
+        assertFalse(memory.isProbableDuplicate("party", "session", "event 2"));
+        clock.advance(Duration.ofMinutes(9));
+        assertTrue(memory.isProbableDuplicate("party", "session", "event 1"));
+        assertTrue(memory.isProbableDuplicate("party", "session", "event 2"));
+    }
+
+    @Test
+    public void shouldForgetEventsAfterWindow() {
+        final WindowedDuplicateMemory memory = new WindowedDuplicateMemory(1000, Duration.ofMinutes(10), clock);
+
+        assertFalse(memory.isProbableDuplicate("party", "session", "event"));
+        clock.advance(Duration.ofMinutes(10));
+        assertFalse(memory.isProbableDuplicate("party", "session", "event"));
+        // Seen again, so remembered again.
+        assertTrue(memory.isProbableDuplicate("party", "session", "event"));
+    }
+
+    @Test
+    public void shouldRememberAsManyEventsAsBucketHasEntries() {
+        // A single bucket.
+        final WindowedDuplicateMemory memory = new WindowedDuplicateMemory(4, Duration.ofMinutes(10), clock);
+
+        for (int i = 0; i < 4; ++i) {
+            assertFalse(memory.isProbableDuplicate("event " + i));
+            clock.advance(Duration.ofSeconds(1));
+        }
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(memory.isProbableDuplicate("event " + i));
+            clock.advance(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test
+    public void shouldReplaceEventSeenLongestAgo() {
+        final WindowedDuplicateMemory memory = new WindowedDuplicateMemory(4, Duration.ofMinutes(10), clock);
+
+        for (int i = 0; i < 4; ++i) {
+            memory.isProbableDuplicate("event " + i);
+            clock.advance(Duration.ofSeconds(1));
+        }
+        // Seeing event 0 again makes event 1 the one seen longest ago.
+        assertTrue(memory.isProbableDuplicate("event 0"));
+        clock.advance(Duration.ofSeconds(1));
+        assertFalse(memory.isProbableDuplicate("event 4"));
+
+        assertFalse(memory.isProbableDuplicate("event 1"));
+        assertTrue(memory.isProbableDuplicate("event 4"));
+        assertTrue(memory.isProbableDuplicate("event 3"));
+    }
+
+    @Test
+    public void shouldFlagDuplicatesSeenByOtherThreads() throws InterruptedException {
+        final WindowedDuplicateMemory memory = new WindowedDuplicateMemory(1_000_000, Duration.ofMinutes(10), clock);
+        final int eventsPerThread = 2500;
+
+        final AtomicInteger duplicates = new AtomicInteger();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final String thread = Integer.toString(t);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < eventsPerThread; ++i) {
+                    if (memory.isProbableDuplicate(thread, Integer.toString(i))) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, duplicates.get());
+
+        for (int t = 0; t < threads.length; ++t) {
+            for (int i = 0; i < eventsPerThread; ++i) {
+                assertTrue(memory.isProbableDuplicate(Integer.toString(t), Integer.toString(i)));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRefuseMoreEntriesThanFitInBuffer() {
+        new WindowedDuplicateMemory(WindowedDuplicateMemory.MAX_ENTRY_COUNT + 1, Duration.ofMinutes(10), clock);
+    }
+
+    private static final class TestClock extends Clock {
+        private Instant now = Instant.parse("2018-06-01T12:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
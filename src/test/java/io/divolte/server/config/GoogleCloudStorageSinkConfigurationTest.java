@@ -16,6 +16,7 @@
 
 package io.divolte.server.config;
 
+import com.google.common.collect.ImmutableMap;
 import com.typesafe.config.ConfigFactory;
 import net.jodah.failsafe.RetryPolicy;
 import net.jodah.failsafe.util.Duration;
@@ -75,4 +76,27 @@ public class GoogleCloudStorageSinkConfigurationTest {
         assertEquals(new Duration(25, TimeUnit.SECONDS), retryPolicy.getMaxDelay());
         assertEquals(1925, retryPolicy.getJitter().toMillis(), DEFAULT_DELTA);
     }
+
+    @Test
+    public void testUploadsAreSynchronousByDefault() {
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> ConfigFactory.parseResources("gcs-sink.conf"));
+
+        final GoogleCloudStorageSinkConfiguration sinkConfiguration = vc.configuration().getSinkConfiguration("gcs", GoogleCloudStorageSinkConfiguration.class);
+        assertEquals(0, sinkConfiguration.uploadThreads);
+        assertEquals(java.time.Duration.ofMinutes(5), sinkConfiguration.checkpointEvery);
+        assertEquals(16 * 1024 * 1024, sinkConfiguration.maxPartSize);
+    }
+
+    @Test
+    public void testBackgroundUploadConfiguration() {
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> ConfigFactory
+            .parseMap(ImmutableMap.of("divolte.sinks.gcs.upload_threads", 3,
+                                      "divolte.sinks.gcs.checkpoint_every", "90 seconds"))
+            .withFallback(ConfigFactory.parseResources("gcs-sink.conf")));
+        assertTrue(vc.isValid());
+
+        final GoogleCloudStorageSinkConfiguration sinkConfiguration = vc.configuration().getSinkConfiguration("gcs", GoogleCloudStorageSinkConfiguration.class);
+        assertEquals(3, sinkConfiguration.uploadThreads);
+        assertEquals(java.time.Duration.ofSeconds(90), sinkConfiguration.checkpointEvery);
+    }
 }
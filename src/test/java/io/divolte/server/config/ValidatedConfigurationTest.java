@@ -25,6 +25,7 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
 import java.time.Duration;
+import java.util.Optional;
 
 public class ValidatedConfigurationTest {
     @Test
@@ -75,6 +76,49 @@ public class ValidatedConfigurationTest {
         assertTrue(vc.errors().isEmpty());
     }
 
+    @Test
+    public void shouldMapDuplicateMemoryWindow() {
+        final Config config = ConfigFactory.parseMap(ImmutableMap.of("divolte.global.mapper.duplicate_memory_window", "10 minutes"))
+                                           .withFallback(ConfigFactory.parseResources("base-test-server.conf"))
+                                           .withFallback(ConfigFactory.parseResources("reference-test.conf"));
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> config);
+
+        assertTrue(vc.errors().isEmpty());
+        assertEquals(Optional.of(Duration.ofMinutes(10)), vc.configuration().global.mapper.duplicateMemoryWindow);
+        assertEquals(Optional.empty(), new ValidatedConfiguration(ConfigFactory::load).configuration().global.mapper.duplicateMemoryWindow);
+    }
+
+    @Test
+    public void shouldMapDuplicateMemorySnapshot() {
+        final Config config = ConfigFactory.parseMap(ImmutableMap.of("divolte.global.mapper.duplicate_memory_snapshot", "/tmp/duplicate-memory"))
+                                           .withFallback(ConfigFactory.parseResources("base-test-server.conf"))
+                                           .withFallback(ConfigFactory.parseResources("reference-test.conf"));
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> config);
+
+        assertTrue(vc.errors().isEmpty());
+        assertEquals(Optional.of("/tmp/duplicate-memory"), vc.configuration().global.mapper.duplicateMemorySnapshot);
+        assertEquals(Optional.empty(), new ValidatedConfiguration(ConfigFactory::load).configuration().global.mapper.duplicateMemorySnapshot);
+    }
+
+    @Test
+    public void shouldMapDuplicateDetector() {
+        final Config config = ConfigFactory.parseMap(ImmutableMap.of("divolte.global.mapper.duplicate_detector.type", "redis",
+                                                                     "divolte.global.mapper.duplicate_detector.host", "redis.example.com"))
+                                           .withFallback(ConfigFactory.parseResources("base-test-server.conf"))
+                                           .withFallback(ConfigFactory.parseResources("reference-test.conf"));
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> config);
+
+        assertTrue(vc.errors().isEmpty());
+        final DuplicateDetectorConfiguration detector = vc.configuration().global.mapper.duplicateDetector;
+        assertEquals(DuplicateDetectorConfiguration.DetectorType.REDIS, detector.type);
+        assertEquals("redis.example.com", detector.host);
+        assertEquals(6379, detector.port);
+        assertEquals(Duration.ofMinutes(10), detector.window);
+        assertEquals(Duration.ofMillis(50), detector.timeout);
+        assertEquals(DuplicateDetectorConfiguration.DetectorType.LOCAL,
+                     new ValidatedConfiguration(ConfigFactory::load).configuration().global.mapper.duplicateDetector.type);
+    }
+
     @Test
     public void shouldReportMissingSourcesAndSinks() {
         final ValidatedConfiguration vc = new ValidatedConfiguration(() -> ConfigFactory.parseResources("missing-sources-sinks.conf"));
@@ -180,4 +224,16 @@ public class ValidatedConfigurationTest {
         assertTrue(vc.isValid());
         assertEquals(Duration.ofMinutes(3), vc.configuration().global.server.shutdownTimeout);
     }
+
+    @Test
+    public void mapperCannotSpill() {
+        final Config config = ConfigFactory.parseMap(ImmutableMap.of("divolte.global.mapper.overflow_policy", "spill"))
+                                           .withFallback(ConfigFactory.parseResources("base-test-server.conf"))
+                                           .withFallback(ConfigFactory.parseResources("reference-test.conf"));
+
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> config);
+        assertFalse(vc.isValid());
+        assertEquals("Property 'divolte.global.mapper' The spill overflow policy is only supported by sinks, not by the mapper.. Found: 'MapperConfiguration{",
+                     vc.errors().get(0).substring(0, vc.errors().get(0).indexOf('{') + 1));
+    }
 }
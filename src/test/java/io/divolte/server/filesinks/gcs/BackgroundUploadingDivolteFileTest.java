@@ -0,0 +1,319 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.gcs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.DivolteIdentifier;
+import io.divolte.server.filesinks.RecordFileWriter;
+
+@ParametersAreNonnullByDefault
+public class BackgroundUploadingDivolteFileTest {
+    private static final String INFLIGHT_NAME = "inflight/file.avro";
+    private static final String PUBLISH_NAME = "publish/file.avro";
+    private static final Duration NO_CHECKPOINT = Duration.ofHours(1);
+
+    private Schema schema;
+    private FakeObjectStore store;
+    private PartBuffer.Pool partBuffers;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        try (final InputStream resourceStream = getClass().getResourceAsStream("/MinimalRecord.avsc")) {
+            schema = new Schema.Parser().parse(resourceStream);
+        }
+        store = new FakeObjectStore();
+        partBuffers = new PartBuffer.Pool(64);
+        // Uploads happen as they are submitted, unless a test needs them in the background.
+        executor = MoreExecutors.newDirectExecutorService();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldPublishRecordsInOrder() throws IOException {
+        final BackgroundUploadingDivolteFile file = createFile(NO_CHECKPOINT);
+        file.append(record("a"));
+        file.sync();
+        file.append(record("b"));
+        file.append(record("c"));
+        file.sync();
+        // Nothing was appended, so no part.
+        file.sync();
+        file.append(record("d"));
+        file.closeAndPublish();
+
+        assertEquals(ImmutableSet.of(PUBLISH_NAME), store.objects.keySet());
+        assertEquals("header;a;b;c;d;trailer", store.contents(PUBLISH_NAME));
+        assertEquals(ImmutableList.of(ImmutableList.of(INFLIGHT_NAME + ".part-1",
+                                                       INFLIGHT_NAME + ".part-2",
+                                                       INFLIGHT_NAME + ".part-3")),
+                     store.composedSources);
+        // Uploads run as they're submitted, so two buffers take turns.
+        assertEquals(2, partBuffers.availableCount());
+    }
+
+    @Test
+    public void shouldComposeBeforeReachingSourceLimit() throws IOException {
+        final BackgroundUploadingDivolteFile file = createFile(NO_CHECKPOINT);
+        final StringBuilder expected = new StringBuilder("header;");
+        for (int i = 0; i < 40; ++i) {
+            file.append(record(Integer.toString(i)));
+            file.sync();
+            expected.append(i).append(';');
+        }
+        // The inflight file and the parts since fill up a compose.
+        assertEquals(1, store.composedSources.size());
+        assertEquals(BackgroundUploadingDivolteFile.MAX_COMPOSE_SOURCES - 1, store.composedSources.get(0).size());
+        assertTrue(store.objects.containsKey(INFLIGHT_NAME));
+
+        file.closeAndPublish();
+        assertEquals(ImmutableSet.of(PUBLISH_NAME), store.objects.keySet());
+        assertEquals(expected.append("trailer").toString(), store.contents(PUBLISH_NAME));
+        assertEquals(INFLIGHT_NAME, store.composedSources.get(1).get(0));
+        store.composedSources.forEach(sources ->
+            assertTrue(sources.size() <= BackgroundUploadingDivolteFile.MAX_COMPOSE_SOURCES));
+    }
+
+    @Test
+    public void shouldComposeInflightFileAtCheckpoint() throws IOException {
+        final BackgroundUploadingDivolteFile file = createFile(Duration.ZERO);
+        file.append(record("a"));
+        file.sync();
+        assertEquals(ImmutableSet.of(INFLIGHT_NAME), store.objects.keySet());
+        assertEquals("header;a;", store.contents(INFLIGHT_NAME));
+
+        file.append(record("b"));
+        file.sync();
+        assertEquals(ImmutableSet.of(INFLIGHT_NAME), store.objects.keySet());
+        assertEquals("header;a;b;", store.contents(INFLIGHT_NAME));
+
+        file.closeAndPublish();
+        assertEquals(ImmutableSet.of(PUBLISH_NAME), store.objects.keySet());
+        assertEquals("header;a;b;trailer", store.contents(PUBLISH_NAME));
+    }
+
+    @Test
+    public void shouldFailSyncAfterUploadFailed() throws IOException {
+        store.failingUpload = INFLIGHT_NAME + ".part-1";
+        final BackgroundUploadingDivolteFile file = createFile(NO_CHECKPOINT);
+        file.append(record("a"));
+        // The upload happens in the background; its failure surfaces later.
+        file.sync();
+        file.append(record("b"));
+        try {
+            file.sync();
+            fail("Sync should fail after an upload failed.");
+        } catch (final IOException e) {
+            assertEquals("Upload failed.", e.getCause().getMessage());
+        }
+        file.discard();
+        assertEquals(ImmutableSet.of(), store.objects.keySet());
+        assertEquals(2, partBuffers.availableCount());
+    }
+
+    @Test
+    public void shouldFailRollAfterUploadFailed() throws IOException {
+        store.failingUpload = INFLIGHT_NAME + ".part-1";
+        final BackgroundUploadingDivolteFile file = createFile(NO_CHECKPOINT);
+        file.append(record("a"));
+        file.sync();
+        try {
+            file.closeAndPublish();
+            fail("Closing should fail after an upload failed.");
+        } catch (final IOException e) {
+            assertEquals("Upload failed.", e.getCause().getMessage());
+        }
+        // A file that failed to close is discarded, which mustn't release its buffer again.
+        file.discard();
+        assertEquals(ImmutableSet.of(), store.objects.keySet());
+        assertEquals(2, partBuffers.availableCount());
+    }
+
+    @Test
+    public void shouldReleaseBuffersOfUploadsDiscardedWhileQueuedOrRunning() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        store.uploadsBlocked = new CountDownLatch(1);
+        final BackgroundUploadingDivolteFile file = createFile(NO_CHECKPOINT);
+        file.append(record("a"));
+        file.sync();
+        // With a single upload thread, the second part waits for the first.
+        file.append(record("b"));
+        file.sync();
+        assertTrue(store.uploadsStarted.tryAcquire(10, TimeUnit.SECONDS));
+
+        file.discard();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(ImmutableSet.of(), store.objects.keySet());
+        assertEquals(0, store.uploadsStarted.availablePermits());
+        assertEquals(3, partBuffers.availableCount());
+    }
+
+    @Test
+    public void shouldDeleteUploadedPartsWhenDiscarded() throws IOException {
+        final BackgroundUploadingDivolteFile file = createFile(NO_CHECKPOINT);
+        file.append(record("a"));
+        file.sync();
+        file.append(record("b"));
+        file.sync();
+        assertEquals(2, store.objects.size());
+
+        file.discard();
+        assertEquals(ImmutableSet.of(), store.objects.keySet());
+        assertEquals(2, partBuffers.availableCount());
+    }
+
+    private BackgroundUploadingDivolteFile createFile(final Duration checkpointEvery) throws IOException {
+        return new BackgroundUploadingDivolteFile(INFLIGHT_NAME, PUBLISH_NAME, store, executor, partBuffers,
+                                                  FakeRecordFileWriter::new, 1024 * 1024, 2, checkpointEvery);
+    }
+
+    private AvroRecordBuffer record(final String eventId) {
+        return AvroRecordBuffer.fromRecord(DivolteIdentifier.generate(),
+                                           DivolteIdentifier.generate(),
+                                           eventId,
+                                           Instant.EPOCH,
+                                           new GenericRecordBuilder(schema).set("ts", 0L).set("remoteHost", "127.0.0.1").build());
+    }
+
+    /*
+     * Writes the event identifiers of records as text, so that files are easy to check.
+     */
+    private static final class FakeRecordFileWriter implements RecordFileWriter {
+        private final OutputStream stream;
+
+        FakeRecordFileWriter(final OutputStream stream) throws IOException {
+            this.stream = stream;
+            write("header;");
+        }
+
+        private void write(final String text) throws IOException {
+            stream.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void append(final AvroRecordBuffer record) throws IOException {
+            write(record.getEventId() + ';');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            stream.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            write("trailer");
+            stream.flush();
+        }
+
+        @Override
+        public boolean hasTrailer() {
+            return true;
+        }
+    }
+
+    /*
+     * Keeps objects in memory; like GCS, composing concatenates the sources.
+     */
+    private static final class FakeObjectStore implements ObjectStore {
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final List<List<String>> composedSources = new CopyOnWriteArrayList<>();
+        final Semaphore uploadsStarted = new Semaphore(0);
+        volatile CountDownLatch uploadsBlocked = new CountDownLatch(0);
+        volatile String failingUpload = "";
+
+        String contents(final String name) {
+            return new String(objects.get(name), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void upload(final String name, final PartBuffer contents) throws IOException {
+            uploadsStarted.release();
+            try {
+                uploadsBlocked.await();
+            } catch (final InterruptedException e) {
+                throw new InterruptedIOException("Upload interrupted.");
+            }
+            if (failingUpload.equals(name)) {
+                throw new IOException("Upload failed.");
+            }
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            contents.writeTo(stream);
+            objects.put(name, stream.toByteArray());
+        }
+
+        @Override
+        public void compose(final String destinationName, final List<String> sourceNames) throws IOException {
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            for (final String sourceName : sourceNames) {
+                final byte[] source = objects.get(sourceName);
+                if (null == source) {
+                    throw new IOException("Not found: " + sourceName);
+                }
+                stream.write(source);
+            }
+            composedSources.add(ImmutableList.copyOf(sourceNames));
+            objects.put(destinationName, stream.toByteArray());
+        }
+
+        @Override
+        public void delete(final String name) throws IOException {
+            if (null == objects.remove(name)) {
+                throw new IOException("Not found: " + name);
+            }
+        }
+    }
+}
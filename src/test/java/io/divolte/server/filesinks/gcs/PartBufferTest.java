@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.gcs;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PartBufferTest {
+    @Test
+    public void shouldGrowToHoldAllWrittenData() throws IOException {
+        final byte[] data = new byte[1024 * 1024];
+        new Random(42).nextBytes(data);
+
+        final PartBuffer buffer = new PartBuffer.Pool(1).acquire();
+        buffer.write(data[0]);
+        buffer.write(data, 1, data.length - 1);
+        assertEquals(data.length, buffer.size());
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        buffer.writeTo(stream);
+        assertArrayEquals(data, stream.toByteArray());
+    }
+
+    @Test
+    public void shouldWriteSameContentsAgain() throws IOException {
+        final PartBuffer buffer = new PartBuffer.Pool(1).acquire();
+        buffer.write(new byte[] { 1, 2, 3 });
+
+        final ByteArrayOutputStream first = new ByteArrayOutputStream();
+        buffer.writeTo(first);
+        final ByteArrayOutputStream second = new ByteArrayOutputStream();
+        buffer.writeTo(second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+        assertEquals(3, buffer.size());
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffersEmpty() throws IOException {
+        final PartBuffer.Pool pool = new PartBuffer.Pool(1);
+        final PartBuffer buffer = pool.acquire();
+        buffer.write(new byte[] { 1, 2, 3 });
+        pool.release(buffer);
+
+        final PartBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.size());
+        assertNotSame(reused, pool.acquire());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectBufferReleasedTwice() {
+        final PartBuffer.Pool pool = new PartBuffer.Pool(2);
+        final PartBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void shouldPoolLimitedNumberOfBuffers() {
+        final PartBuffer.Pool pool = new PartBuffer.Pool(1);
+        final PartBuffer first = pool.acquire();
+        final PartBuffer second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+
+        assertSame(first, pool.acquire());
+        final PartBuffer other = pool.acquire();
+        assertNotSame(first, other);
+        assertNotSame(second, other);
+    }
+}
@@ -25,6 +25,7 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
@@ -36,9 +37,14 @@ import org.apache.avro.Schema;
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.generic.GenericData.Record;
 import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.generic.GenericRecordBuilder;
 import org.apache.avro.io.DatumReader;
 import org.apache.commons.lang.mutable.MutableInt;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.avro.AvroParquetReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -169,30 +175,137 @@ public class FileFlusherLocalHdfsTest {
         assertEquals(2, count.intValue());
     }
 
+    @Test
+    public void shouldCreateAndPopulateParquetFile() throws IOException, InterruptedException {
+        setupFlusher("1 second", 5, ImmutableMap.of("divolte.sinks.hdfs.format", "parquet"));
+        processRecords();
+
+        for (int c = 0; c < 2; c++) {
+            Thread.sleep(500);
+            flusher.heartbeat();
+        }
+
+        processRecords();
+
+        flusher.cleanup();
+
+        final MutableInt count = new MutableInt(0);
+        Files.walk(tempPublishDir)
+             .filter((p) -> p.toString().endsWith(".parquet"))
+             .forEach((p) -> {
+                 verifyParquetFile(records, p);
+                 count.increment();
+             });
+        assertEquals(2, count.intValue());
+    }
+
+    @Test
+    public void shouldCompressAvroFilesWithConfiguredCodec() throws IOException {
+        setupFlusher("1 day", 10, ImmutableMap.of("divolte.sinks.hdfs.avro.codec", "deflate",
+                                                  "divolte.sinks.hdfs.avro.compression_level", 9,
+                                                  "divolte.sinks.hdfs.avro.block_size", 64));
+        processRecords();
+
+        flusher.cleanup();
+
+        final List<Path> files = Files.walk(tempPublishDir)
+                                      .filter((p) -> p.toString().endsWith(".avro"))
+                                      .collect(Collectors.toList());
+        assertEquals(1, files.size());
+        verifyAvroFile(records, schema, files.get(0));
+        try (final DataFileReader<Record> reader = readAvroFile(schema, files.get(0).toFile())) {
+            assertEquals("deflate", reader.getMetaString("avro.codec"));
+        }
+    }
+
+    @Test
+    public void shouldWriteRecordsIntoTheirPartitions() throws IOException {
+        setupFlusher("1 day", 0, ImmutableMap.of("divolte.sinks.hdfs.file_strategy.partition_pattern", "'dt='yyyy-MM-dd/'hour='HH"));
+        // Two records in each of three consecutive hours.
+        records = recordsAt(0, 1_800_000, 3_600_000, 5_400_000, 7_200_000, 9_000_000);
+        processRecords();
+
+        flusher.cleanup();
+
+        for (int hour = 0; hour < 3; ++hour) {
+            final Path partition = tempPublishDir.resolve(String.format("dt=1970-01-01/hour=%02d", hour));
+            final List<Path> files = Files.list(partition)
+                                          .filter((p) -> p.toString().endsWith(".avro"))
+                                          .collect(Collectors.toList());
+            assertEquals(1, files.size());
+            verifyAvroFile(records.subList(2 * hour, 2 * hour + 2), schema, files.get(0));
+        }
+    }
+
+    @Test
+    public void shouldCloseLeastRecentlyUsedFileWhenTooManyAreOpen() throws IOException {
+        setupFlusher("1 day", 0, ImmutableMap.of("divolte.sinks.hdfs.file_strategy.partition_pattern", "'hour='HH",
+                                                 "divolte.sinks.hdfs.file_strategy.max_open_files", 1));
+        // Alternating between two partitions, with room for only one open file.
+        records = recordsAt(0, 3_600_000, 0, 3_600_000);
+        processRecords();
+
+        flusher.cleanup();
+
+        final List<Path> files = Files.walk(tempPublishDir)
+                                      .filter((p) -> p.toString().endsWith(".avro"))
+                                      .collect(Collectors.toList());
+        assertEquals(4, files.size());
+        assertEquals(2, files.stream().filter((p) -> p.getParent().endsWith("hour=00")).count());
+    }
+
+    @Test
+    public void shouldCloseLeastRecentlyUsedFileWhenOpenFilesAreTooLarge() throws IOException {
+        setupFlusher("1 day", 0, ImmutableMap.of("divolte.sinks.hdfs.file_strategy.partition_pattern", "'hour='HH",
+                                                 "divolte.sinks.hdfs.file_strategy.max_open_bytes", 1));
+        // Alternating between two partitions, with room for a single record.
+        records = recordsAt(0, 3_600_000, 0, 3_600_000);
+        processRecords();
+
+        flusher.cleanup();
+
+        final List<Path> files = Files.walk(tempPublishDir)
+                                      .filter((p) -> p.toString().endsWith(".avro"))
+                                      .collect(Collectors.toList());
+        assertEquals(4, files.size());
+        assertEquals(2, files.stream().filter((p) -> p.getParent().endsWith("hour=00")).count());
+    }
+
     private void setupFlusher(final String rollEvery, final int recordCount) throws IOException {
+        setupFlusher(rollEvery, recordCount, ImmutableMap.of());
+    }
+
+    private void setupFlusher(final String rollEvery, final int recordCount, final ImmutableMap<String, Object> sinkSettings) throws IOException {
         final Config config = ConfigFactory
-                .parseMap(ImmutableMap.of(
+                .parseMap(sinkSettings)
+                .withFallback(ConfigFactory.parseMap(ImmutableMap.of(
                         "divolte.sinks.hdfs.file_strategy.roll_every", rollEvery,
                         "divolte.sinks.hdfs.file_strategy.working_dir", tempInflightDir.toString(),
-                        "divolte.sinks.hdfs.file_strategy.publish_dir", tempPublishDir.toString()))
+                        "divolte.sinks.hdfs.file_strategy.publish_dir", tempPublishDir.toString())))
                 .withFallback(ConfigFactory.parseResources("hdfs-flusher-test.conf"))
                 .withFallback(ConfigFactory.parseResources("reference-test.conf"));
         final ValidatedConfiguration vc = new ValidatedConfiguration(() -> config);
 
-        records = LongStream.range(0, recordCount)
-                            .mapToObj((time) ->
-                                    new GenericRecordBuilder(schema)
-                                      .set("ts", time)
-                                      .set("remoteHost", ARBITRARY_IP)
-                                      .build())
-                            .collect(Collectors.toList());
+        records = recordsAt(LongStream.range(0, recordCount).toArray());
 
+        final FileSinkConfiguration sinkConfiguration = vc.configuration().getSinkConfiguration("hdfs", FileSinkConfiguration.class);
         flusher = new FileFlusher(
-                vc.configuration().getSinkConfiguration("hdfs", FileSinkConfiguration.class).fileStrategy,
-                HdfsFileManager.newFactory(vc, "hdfs", schema).create()
+                sinkConfiguration.fileStrategy,
+                HdfsFileManager.newFactory(vc, "hdfs", schema).create(),
+                sinkConfiguration.format.extension
                 );
     }
 
+    private List<Record> recordsAt(final long... times) {
+        return LongStream.of(times)
+                         .mapToObj((time) ->
+                                 new GenericRecordBuilder(schema)
+                                   .set("ts", time)
+                                   .set("remoteHost", ARBITRARY_IP)
+                                   .build())
+                         .collect(Collectors.toList());
+    }
+
     private void processRecords() {
         records.stream().map(
                 (record) -> AvroRecordBuffer.fromRecord(DivolteIdentifier.generate(),
@@ -219,6 +332,21 @@ public class FileFlusherLocalHdfsTest {
         assertEquals(expected, result);
     }
 
+    private void verifyParquetFile(final List<Record> expected, final Path parquetFile) {
+        final List<GenericRecord> result = new ArrayList<>();
+        final org.apache.hadoop.fs.Path path = new org.apache.hadoop.fs.Path(parquetFile.toUri());
+        try (final ParquetReader<GenericRecord> reader =
+                 AvroParquetReader.<GenericRecord>builder(HadoopInputFile.fromPath(path, new Configuration())).build()) {
+            GenericRecord record;
+            while (null != (record = reader.read())) {
+                result.add(record);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        assertEquals(expected, result);
+    }
+
     private DataFileReader<Record> readAvroFile(final Schema schema, final File file) {
         final DatumReader<Record> dr = new GenericDatumReader<>(schema);
         try {
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.filesinks.local;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData.Record;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.DivolteIdentifier;
+import io.divolte.server.config.ValidatedConfiguration;
+import io.divolte.server.filesinks.FileManager;
+import io.divolte.server.filesinks.FileManager.DivolteFile;
+
+@ParametersAreNonnullByDefault
+public class LocalFileManagerTest {
+    @SuppressWarnings("PMD.AvoidUsingHardCodedIP")
+    private static final String ARBITRARY_IP = "8.8.8.8";
+
+    private Schema schema;
+    private Path tempInflightDir;
+    private Path tempPublishDir;
+
+    @Before
+    public void setup() throws IOException {
+        try (final InputStream resourceStream = getClass().getResourceAsStream("/MinimalRecord.avsc")) {
+            schema = new Schema.Parser().parse(resourceStream);
+        }
+        tempInflightDir = Files.createTempDirectory("local-sink-test-inflight");
+        tempPublishDir = Files.createTempDirectory("local-sink-test-publish");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        for (final Path dir : new Path[] { tempInflightDir, tempPublishDir }) {
+            try (final Stream<Path> files = Files.list(dir)) {
+                for (final Path file : files.collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldWriteBlocksThroughChannel() throws IOException {
+        verifyRoundTrip(ImmutableMap.of());
+    }
+
+    @Test
+    public void shouldWriteBlocksIntoMappedSegments() throws IOException {
+        // Small enough for blocks, and even records, to span segments.
+        verifyRoundTrip(ImmutableMap.of("divolte.sinks.local.memory_mapped", true,
+                                        "divolte.sinks.local.segment_size", 50));
+    }
+
+    @Test
+    public void shouldWriteSmallBlocks() throws IOException {
+        verifyRoundTrip(ImmutableMap.of("divolte.sinks.local.avro.block_size", 32));
+    }
+
+    @Test
+    public void shouldWriteCompressedFilesIntoMappedSegments() throws IOException {
+        verifyRoundTrip(ImmutableMap.of("divolte.sinks.local.memory_mapped", true,
+                                        "divolte.sinks.local.segment_size", 50,
+                                        "divolte.sinks.local.avro.codec", "deflate"));
+    }
+
+    @Test
+    public void shouldDeleteDiscardedFiles() throws IOException {
+        final DivolteFile file = createManager(ImmutableMap.of()).createFile("discarded.avro");
+        final AvroRecordBuffer record = toBuffer(records(1).get(0));
+        file.append(record);
+        file.discard();
+
+        assertEquals(0, Files.list(tempInflightDir).count());
+        assertEquals(0, Files.list(tempPublishDir).count());
+    }
+
+    private void verifyRoundTrip(final ImmutableMap<String, Object> sinkSettings) throws IOException {
+        final DivolteFile file = createManager(sinkSettings).createFile("test.avro");
+        final List<Record> records = records(10);
+        for (int i = 0; i < records.size(); ++i) {
+            file.append(toBuffer(records.get(i)));
+            if (i % 3 == 0) {
+                file.sync();
+            }
+        }
+        assertTrue(Files.exists(tempInflightDir.resolve("test.avro.partial")));
+        file.closeAndPublish();
+
+        assertFalse(Files.exists(tempInflightDir.resolve("test.avro.partial")));
+        try (final DataFileReader<Record> reader =
+                 new DataFileReader<>(tempPublishDir.resolve("test.avro").toFile(), new GenericDatumReader<>(schema))) {
+            assertEquals(records, StreamSupport.stream(reader.spliterator(), false).collect(Collectors.toList()));
+        }
+    }
+
+    private FileManager createManager(final ImmutableMap<String, Object> sinkSettings) {
+        final Config config = ConfigFactory
+                .parseMap(sinkSettings)
+                .withFallback(ConfigFactory.parseMap(ImmutableMap.of(
+                        "divolte.sinks.local.file_strategy.working_dir", tempInflightDir.toString(),
+                        "divolte.sinks.local.file_strategy.publish_dir", tempPublishDir.toString())))
+                .withFallback(ConfigFactory.parseResources("local-sink-test.conf"))
+                .withFallback(ConfigFactory.parseResources("reference-test.conf"));
+        final ValidatedConfiguration vc = new ValidatedConfiguration(() -> config);
+        assertTrue(vc.errors().toString(), vc.isValid());
+
+        final FileManager.FileManagerFactory factory = LocalFileManager.newFactory(vc, "local", schema);
+        factory.verifyFileSystemConfiguration();
+        return factory.create();
+    }
+
+    private List<Record> records(final int count) {
+        return LongStream.range(0, count)
+                         .mapToObj((time) -> new GenericRecordBuilder(schema)
+                                 .set("ts", time)
+                                 .set("remoteHost", ARBITRARY_IP)
+                                 .build())
+                         .collect(Collectors.toList());
+    }
+
+    private static AvroRecordBuffer toBuffer(final Record record) {
+        return AvroRecordBuffer.fromRecord(DivolteIdentifier.generate(),
+                                           DivolteIdentifier.generate(),
+                                           "anEventId",
+                                           Instant.ofEpochMilli((long) record.get("ts")),
+                                           record);
+    }
+}
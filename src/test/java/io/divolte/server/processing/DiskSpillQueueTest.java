@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiskSpillQueueTest {
+    private static final SpillSerializer<String> STRING_SERIALIZER = new SpillSerializer<String>() {
+        @Override
+        public void serialize(final String payload, final DataOutput output) throws IOException {
+            output.writeUTF(payload);
+        }
+
+        @Override
+        public String deserialize(final DataInput input) throws IOException {
+            return input.readUTF();
+        }
+    };
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spill-queue-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private DiskSpillQueue<String> openQueue(final long segmentSize, final long maxSize) throws IOException {
+        return new DiskSpillQueue<>(directory, segmentSize, maxSize, STRING_SERIALIZER);
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (final Stream<Path> paths = Files.list(directory)) {
+            return paths.sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<Item<String>> drainAll(final DiskSpillQueue<String> queue) {
+        final List<Item<String>> items = new ArrayList<>();
+        while (0 < queue.drainTo(items, 128)) {
+            // Keep going until nothing is left.
+        }
+        return items;
+    }
+
+    @Test
+    public void shouldReplayItemsInOrderAcrossSegments() throws IOException {
+        try (final DiskSpillQueue<String> queue = openQueue(1024, Long.MAX_VALUE)) {
+            assertTrue(queue.isEmpty());
+            for (int i = 0; i < 1000; ++i) {
+                assertTrue(queue.append(Item.of(i % 3, "party" + i, "item" + i)));
+            }
+            assertFalse(queue.isEmpty());
+            assertTrue(1 < segmentFiles().size());
+
+            final List<Item<String>> items = drainAll(queue);
+            assertEquals(1000, items.size());
+            for (int i = 0; i < 1000; ++i) {
+                final Item<String> item = items.get(i);
+                assertEquals("item" + i, item.payload);
+                assertEquals(i % 3, item.sourceId);
+                assertEquals(Item.of(0, "party" + i, "").affinityHash, item.affinityHash);
+            }
+            assertTrue(queue.isEmpty());
+            assertTrue(segmentFiles().isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldAllowAppendingWhileReplaying() throws IOException {
+        try (final DiskSpillQueue<String> queue = openQueue(1024, Long.MAX_VALUE)) {
+            final List<Item<String>> items = new ArrayList<>();
+            int next = 0;
+            for (int round = 0; round < 10; ++round) {
+                for (int i = 0; i < 50; ++i) {
+                    queue.append(Item.of(0, "party", "item" + next++));
+                }
+                queue.drainTo(items, 30);
+            }
+            items.addAll(drainAll(queue));
+            assertEquals(next, items.size());
+            for (int i = 0; i < next; ++i) {
+                assertEquals("item" + i, items.get(i).payload);
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldReplayConcurrentlyWithAppending() throws Exception {
+        try (final DiskSpillQueue<String> queue = openQueue(1024, Long.MAX_VALUE)) {
+            final int count = 20000;
+            final Thread producer = new Thread(() -> {
+                for (int i = 0; i < count; ++i) {
+                    assertTrue(queue.append(Item.of(0, "party", "item" + i)));
+                }
+            });
+            producer.start();
+            final List<Item<String>> items = new ArrayList<>();
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (items.size() < count && System.nanoTime() < deadline) {
+                queue.drainTo(items, 128);
+            }
+            producer.join();
+            assertEquals(count, items.size());
+            for (int i = 0; i < count; ++i) {
+                assertEquals("item" + i, items.get(i).payload);
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldRefuseItemsWhenFull() throws IOException {
+        try (final DiskSpillQueue<String> queue = openQueue(1024, 100)) {
+            int accepted = 0;
+            while (queue.append(Item.of(0, "party", "item" + accepted))) {
+                ++accepted;
+            }
+            assertTrue(0 < accepted);
+            assertEquals(accepted, drainAll(queue).size());
+            // Replaying frees up space again.
+            assertTrue(queue.append(Item.of(0, "party", "another")));
+        }
+    }
+
+    @Test
+    public void shouldReplayItemsAfterReopening() throws IOException {
+        try (final DiskSpillQueue<String> queue = openQueue(1024, Long.MAX_VALUE)) {
+            for (int i = 0; i < 100; ++i) {
+                queue.append(Item.of(0, "party", "item" + i));
+            }
+        }
+        try (final DiskSpillQueue<String> queue = openQueue(1024, Long.MAX_VALUE)) {
+            assertFalse(queue.isEmpty());
+            queue.append(Item.of(0, "party", "item100"));
+
+            final List<Item<String>> items = drainAll(queue);
+            assertEquals(101, items.size());
+            for (int i = 0; i < 101; ++i) {
+                assertEquals("item" + i, items.get(i).payload);
+            }
+        }
+    }
+
+    @Test
+    public void shouldDiscardCorruptRecords() throws IOException {
+        try (final DiskSpillQueue<String> queue = openQueue(Long.MAX_VALUE, Long.MAX_VALUE)) {
+            for (int i = 0; i < 3; ++i) {
+                queue.append(Item.of(0, "party", "item" + i));
+            }
+        }
+        final List<Path> segments = segmentFiles();
+        assertEquals(1, segments.size());
+        try (final RandomAccessFile file = new RandomAccessFile(segments.get(0).toFile(), "rw")) {
+            // Flip the last byte of the last record.
+            file.seek(file.length() - 1);
+            final int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        try (final DiskSpillQueue<String> queue = openQueue(Long.MAX_VALUE, Long.MAX_VALUE)) {
+            final List<Item<String>> items = drainAll(queue);
+            assertEquals(2, items.size());
+            assertEquals("item1", items.get(1).payload);
+            assertTrue(queue.isEmpty());
+            assertTrue(segmentFiles().isEmpty());
+        }
+    }
+}
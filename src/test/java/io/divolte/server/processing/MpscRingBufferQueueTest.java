@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class MpscRingBufferQueueTest {
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertEquals(1, new MpscRingBufferQueue<>(1).remainingCapacity());
+        assertEquals(8, new MpscRingBufferQueue<>(5).remainingCapacity());
+        assertEquals(16, new MpscRingBufferQueue<>(16).remainingCapacity());
+    }
+
+    @Test
+    public void shouldRejectElementsWhenFull() {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(4);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.remainingCapacity());
+
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+    }
+
+    @Test
+    public void shouldPollInOrderAndWrapAround() {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(4);
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(queue.offer(i));
+            assertEquals(Integer.valueOf(i), queue.peek());
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        assertNull(queue.peek());
+    }
+
+    @Test
+    public void shouldDrainAtMostMaximumElements() {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(8);
+        for (int i = 0; i < 6; ++i) {
+            queue.offer(i);
+        }
+        final List<Integer> batch = new ArrayList<>();
+        assertEquals(4, queue.drainTo(batch, 4));
+        assertEquals(4, batch.size());
+        assertEquals(2, queue.drainTo(batch, 4));
+        assertEquals(0, queue.drainTo(batch, 4));
+        for (int i = 0; i < 6; ++i) {
+            assertEquals(Integer.valueOf(i), batch.get(i));
+        }
+        // All slots should be available again.
+        assertEquals(8, queue.remainingCapacity());
+    }
+
+    @Test
+    public void shouldIterateOverQueuedElements() {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(4);
+        // Wrap around, so that iteration doesn't start at the first slot.
+        for (int i = 0; i < 4; ++i) {
+            queue.offer(i);
+        }
+        for (int i = 4; i < 7; ++i) {
+            queue.poll();
+            queue.offer(i);
+        }
+
+        assertArrayEquals(new Object[] { 3, 4, 5, 6 }, queue.toArray());
+        assertTrue(queue.contains(5));
+        assertFalse(queue.contains(2));
+        assertEquals("[3, 4, 5, 6]", new ArrayList<>(queue).toString());
+    }
+
+    @Test
+    public void shouldSkipElementsConsumedWhileIterating() {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(4);
+        for (int i = 0; i < 4; ++i) {
+            queue.offer(i);
+        }
+        final Iterator<Integer> iterator = queue.iterator();
+        assertEquals(Integer.valueOf(0), iterator.next());
+        // Slots are reused for later elements, which the iterator must not return.
+        for (int i = 4; i < 7; ++i) {
+            queue.poll();
+            queue.offer(i);
+        }
+        // The element after the one returned has already been read.
+        assertEquals(Integer.valueOf(1), iterator.next());
+        assertEquals(Integer.valueOf(3), iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void shouldTimeOutWhenPollingEmptyQueue() throws InterruptedException {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(4);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldTimeOutWhenOfferingToFullQueue() throws InterruptedException {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(1);
+        assertTrue(queue.offer(0, 10, TimeUnit.MILLISECONDS));
+        assertFalse(queue.offer(1, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldWakeWaitingConsumer() throws InterruptedException {
+        final MpscRingBufferQueue<Integer> queue = new MpscRingBufferQueue<>(4);
+        final Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer(42);
+        });
+        producer.start();
+        assertEquals(Integer.valueOf(42), queue.poll(1, TimeUnit.MINUTES));
+        producer.join();
+    }
+
+    @Test(timeout = 60000)
+    public void shouldDeliverAllElementsFromConcurrentProducers() throws InterruptedException {
+        final int producers = 8;
+        final int elementsPerProducer = 100000;
+        final MpscRingBufferQueue<Long> queue = new MpscRingBufferQueue<>(1024);
+        final ExecutorService executor = Executors.newFixedThreadPool(producers);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int p = 0; p < producers; ++p) {
+            final long producer = p;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (long i = 0; i < elementsPerProducer; ++i) {
+                        queue.put(producer << 32 | i);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+
+        // Each producer's elements must arrive in the order that they were produced.
+        final long[] nextExpected = new long[producers];
+        final List<Long> batch = new ArrayList<>(128);
+        int received = 0;
+        while (received < producers * elementsPerProducer) {
+            if (queue.drainTo(batch, 128) == 0) {
+                final Long element = queue.poll(1, TimeUnit.SECONDS);
+                assertNotNull("Timed out waiting for element.", element);
+                batch.add(element);
+            }
+            for (final long element : batch) {
+                final int producer = (int) (element >>> 32);
+                assertEquals(nextExpected[producer]++, element & 0xffffffffL);
+            }
+            received += batch.size();
+            batch.clear();
+        }
+        assertTrue(queue.isEmpty());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.processing;
+
+import static io.divolte.server.processing.ItemProcessor.ProcessingDirective.*;
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ProcessingPoolTest {
+    private final CountDownLatch processingStarted = new CountDownLatch(1);
+    private final CountDownLatch processingReleased = new CountDownLatch(1);
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+
+    private ProcessingPool<ItemProcessor<String>, String> pool;
+
+    @After
+    public void tearDown() {
+        processingReleased.countDown();
+        if (null != pool) {
+            pool.stop();
+        }
+    }
+
+    private void startPool(final OverflowPolicy overflowPolicy, final Duration overflowTimeout) throws InterruptedException {
+        startPool(overflowPolicy, overflowTimeout, Optional.empty());
+    }
+
+    private void startPool(final OverflowPolicy overflowPolicy,
+                           final Duration overflowTimeout,
+                           final Optional<DiskSpillQueue.Settings<String>> spillSettings) throws InterruptedException {
+        pool = new ProcessingPool<>(1, 1, QueueType.ARRAY_BLOCKING, overflowPolicy, overflowTimeout, spillSettings, "Test pool", () -> item -> {
+            processingStarted.countDown();
+            try {
+                processingReleased.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(item.payload);
+            return CONTINUE;
+        });
+        // Occupy the processing thread, and then fill the queue behind it.
+        assertTrue(pool.enqueue(Item.of(0, "party", "first")));
+        assertTrue(processingStarted.await(10, TimeUnit.SECONDS));
+        assertTrue(pool.enqueue(Item.of(0, "party", "second")));
+    }
+
+    private void awaitProcessed(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (processed.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void shouldDropItemsWhenFull() throws InterruptedException {
+        startPool(OverflowPolicy.DROP, Duration.ZERO);
+        assertEquals(ProcessingPool.Admission.DROPPED, pool.admit(Item.of(0, "party", "third")));
+
+        processingReleased.countDown();
+        awaitProcessed(2);
+        pool.stop();
+        assertEquals(2, processed.size());
+        assertFalse(processed.contains("third"));
+    }
+
+    @Test
+    public void shouldRejectItemsWhenFull() throws InterruptedException {
+        startPool(OverflowPolicy.REJECT, Duration.ZERO);
+        assertFalse(pool.enqueue(Item.of(0, "party", "third")));
+        assertEquals(ProcessingPool.Admission.REJECTED, pool.admit(Item.of(0, "party", "fourth")));
+
+        processingReleased.countDown();
+        awaitProcessed(2);
+        pool.stop();
+        assertEquals(2, processed.size());
+    }
+
+    @Test
+    public void shouldBlockUntilSpaceIsAvailable() throws InterruptedException {
+        startPool(OverflowPolicy.BLOCK, Duration.ofSeconds(10));
+        final Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processingReleased.countDown();
+        });
+        releaser.start();
+        assertEquals(ProcessingPool.Admission.QUEUED, pool.admit(Item.of(0, "party", "third")));
+
+        awaitProcessed(3);
+        pool.stop();
+        assertTrue(processed.contains("third"));
+    }
+
+    @Test
+    public void shouldSpillItemsWhenFullAndReplayThemInOrder() throws InterruptedException, IOException {
+        final Path directory = Files.createTempDirectory("processing-pool-test");
+        try {
+            final SpillSerializer<String> serializer = new SpillSerializer<String>() {
+                @Override
+                public void serialize(final String payload, final DataOutput output) throws IOException {
+                    output.writeUTF(payload);
+                }
+
+                @Override
+                public String deserialize(final DataInput input) throws IOException {
+                    return input.readUTF();
+                }
+            };
+            startPool(OverflowPolicy.SPILL, Duration.ZERO,
+                      Optional.of(new DiskSpillQueue.Settings<>(directory, 1024, Long.MAX_VALUE, serializer)));
+            for (int i = 3; i <= 10; ++i) {
+                assertEquals(ProcessingPool.Admission.SPILLED, pool.admit(Item.of(0, "party", "item" + i)));
+            }
+
+            processingReleased.countDown();
+            awaitProcessed(10);
+            pool.stop();
+            assertEquals(10, processed.size());
+            assertEquals("first", processed.get(0));
+            assertEquals("second", processed.get(1));
+            for (int i = 3; i <= 10; ++i) {
+                assertEquals("item" + i, processed.get(i - 1));
+            }
+        } finally {
+            try (final Stream<Path> paths = Files.walk(directory)) {
+                for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireSpillSettingsForSpilling() {
+        new ProcessingPool<ItemProcessor<String>, String>(1, 1, QueueType.ARRAY_BLOCKING, OverflowPolicy.SPILL, Duration.ZERO, "Test pool", () -> item -> CONTINUE);
+    }
+
+    @Test
+    public void shouldDropItemsWhenBlockingTimesOut() throws InterruptedException {
+        startPool(OverflowPolicy.BLOCK, Duration.ofMillis(50));
+        assertEquals(ProcessingPool.Admission.DROPPED, pool.admit(Item.of(0, "party", "third")));
+
+        processingReleased.countDown();
+        awaitProcessed(2);
+        pool.stop();
+        assertEquals(2, processed.size());
+        assertFalse(processed.contains("third"));
+    }
+}
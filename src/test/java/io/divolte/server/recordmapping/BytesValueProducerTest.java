@@ -21,7 +21,6 @@ import io.divolte.server.recordmapping.DslRecordMapping.ValueProducer;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -41,7 +40,7 @@ public class BytesValueProducerTest {
     }
 
     private static <T> Optional<T> produce(final ValueProducer<T> producer) {
-        return producer.produce(ServerTestUtils.createMockBrowserEvent(), new HashMap<>());
+        return producer.produce(ServerTestUtils.createMockBrowserEvent(), new MappingContext(0));
     }
 
     private static BytesValueProducer bytesProducer(final ByteBuffer buffer) {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.recordmapping;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MappedRecordWriterTest {
+    private static final Schema SCHEMA = new Schema.Parser().parse(
+            "{\"type\": \"record\", \"name\": \"Test\", \"fields\": ["
+            + "{\"name\": \"required\", \"type\": \"string\"},"
+            + "{\"name\": \"optional\", \"type\": [\"null\", \"string\"], \"default\": null},"
+            + "{\"name\": \"number\", \"type\": \"long\", \"default\": 42},"
+            + "{\"name\": \"list\", \"type\": {\"type\": \"array\", \"items\": \"string\"}, \"default\": [\"a\", \"b\"]},"
+            + "{\"name\": \"nested\", \"type\": {\"type\": \"record\", \"name\": \"Nested\", \"fields\": ["
+            + "    {\"name\": \"count\", \"type\": \"int\"}]}, \"default\": {\"count\": 7}}"
+            + "]}");
+
+    private static byte[] encode(final DatumWriter<GenericRecord> writer, final GenericRecord record) throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(stream, null);
+        writer.write(record, encoder);
+        encoder.flush();
+        return stream.toByteArray();
+    }
+
+    @Test
+    public void shouldEncodeLikeRegularRecordsWithDefaults() throws IOException {
+        final MappedRecord record = new MappedRecord(SCHEMA);
+        record.put("required", "value");
+
+        assertArrayEquals(encode(new GenericDatumWriter<>(SCHEMA), record.toGenericRecord()),
+                          encode(new MappedRecordWriter(SCHEMA), record));
+    }
+
+    @Test
+    public void shouldEncodeLikeRegularRecordsWithoutDefaults() throws IOException {
+        final MappedRecord record = new MappedRecord(SCHEMA);
+        record.put("required", "value");
+        record.put("optional", "present");
+        record.put("number", 1L);
+        record.put("list", ImmutableList.of());
+
+        assertArrayEquals(encode(new GenericDatumWriter<>(SCHEMA), record.toGenericRecord()),
+                          encode(new MappedRecordWriter(SCHEMA), record));
+    }
+
+    @Test
+    public void shouldExposeDefaultsForUnsetFields() {
+        final MappedRecord record = new MappedRecord(SCHEMA);
+        assertEquals(42L, record.get("number"));
+        assertEquals("[a, b]", String.valueOf(record.get("list")));
+        assertEquals(7, ((GenericRecord) record.get("nested")).get("count"));
+    }
+
+    @Test(expected = AvroRuntimeException.class)
+    public void shouldRefuseUnsetFieldsWithoutDefault() throws IOException {
+        encode(new MappedRecordWriter(SCHEMA), new MappedRecord(SCHEMA));
+    }
+}
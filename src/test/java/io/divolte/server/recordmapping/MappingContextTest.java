@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.recordmapping;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappingContextTest {
+    @Test
+    public void shouldAssignDenseSlotsForEachMapping() {
+        final MappingContext.Slots first = new MappingContext.Slots();
+        first.build(() -> {
+            assertEquals(0, MappingContext.Slots.slotFor("a"));
+            assertEquals(1, MappingContext.Slots.slotFor("b"));
+            assertEquals(0, MappingContext.Slots.slotFor("a"));
+        });
+        final MappingContext.Slots second = new MappingContext.Slots();
+        second.build(() -> assertEquals(0, MappingContext.Slots.slotFor("b")));
+
+        assertEquals(2, first.count());
+        assertEquals(1, second.count());
+    }
+
+    @Test
+    public void shouldNotAssignSlotsOutsideBuild() {
+        assertEquals(MappingContext.Slots.NONE, MappingContext.Slots.slotFor("a"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotBuildMappingsWithinEachOther() {
+        new MappingContext.Slots().build(() -> new MappingContext.Slots().build(() -> {}));
+    }
+}
@@ -21,12 +21,17 @@ import io.divolte.server.AvroRecordBuffer;
 import io.divolte.server.DivolteIdentifier;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.junit.Test;
 
 import java.time.Instant;
 import java.util.Collections;
+import java.util.Optional;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class ConfluentAvroRecordBufferSerializerTest {
@@ -50,7 +55,32 @@ public class ConfluentAvroRecordBufferSerializerTest {
         assertTrue(5 < serializedRecord.length);
     }
 
+    @Test
+    public void recordsSerializedWithHeaderAreNotCopied() {
+        final int schemaId = 0x1DEFACED;
+        final AvroRecordBuffer buffer = generateAvroRecord(Optional.of(Serializers.recordHeader(true, Optional.of(schemaId))));
+        try (final ConfluentAvroRecordBufferSerializer serializer = new ConfluentAvroRecordBufferSerializer(schemaId)) {
+            final byte[] serializedRecord = serializer.serialize("atopical", buffer);
+            assertSame(serializedRecord, serializer.serialize("atopical", buffer));
+            assertArrayEquals(serializer.serialize("atopical", generateAvroRecord()), serializedRecord);
+        }
+    }
+
+    @Test
+    public void recordsSerializedWithOtherHeaderAreCopied() {
+        final AvroRecordBuffer buffer = generateAvroRecord(Optional.of(Serializers.recordHeader(true, Optional.of(1))));
+        try (final ConfluentAvroRecordBufferSerializer serializer = new ConfluentAvroRecordBufferSerializer(2)) {
+            final byte[] serializedRecord = serializer.serialize("atopical", buffer);
+            assertNotSame(serializedRecord, serializer.serialize("atopical", buffer));
+            assertEquals((byte)0x02, serializedRecord[4]);
+        }
+    }
+
     private static AvroRecordBuffer generateAvroRecord() {
+        return generateAvroRecord(Optional.empty());
+    }
+
+    private static AvroRecordBuffer generateAvroRecord(final Optional<byte[]> header) {
         final GenericRecord record = new GenericRecordBuilder(DefaultEventRecord.getClassSchema())
             .set("detectedDuplicate", false)
             .set("detectedCorruption", false)
@@ -63,6 +93,8 @@ public class ConfluentAvroRecordBufferSerializerTest {
                                            DivolteIdentifier.generate(1L),
                                            "-",
                                            Instant.EPOCH,
-                                           record);
+                                           record,
+                                           new SpecificDatumWriter<>(record.getSchema()),
+                                           header);
     }
 }
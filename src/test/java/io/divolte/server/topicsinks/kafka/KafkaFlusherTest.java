@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.topicsinks.kafka;
+
+import io.divolte.server.AvroRecordBuffer;
+import io.divolte.server.DivolteIdentifier;
+import io.divolte.server.processing.Item;
+import io.divolte.server.processing.ItemProcessor.ProcessingDirective;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+public class KafkaFlusherTest {
+    private static final Schema MINIMAL_SCHEMA =
+        SchemaBuilder.record("test")
+                     .fields().requiredLong("counter")
+                     .endRecord();
+
+    private MockProducer<DivolteIdentifier, AvroRecordBuffer> producer;
+    private KafkaFlusher flusher;
+    private long generatedEventCounter;
+
+    @Before
+    public void setup() {
+        // Sends only complete when the test says so.
+        producer = new MockProducer<>(false, Serializers.createKeySerializer(), new AvroRecordBufferSerializer());
+        flusher = new KafkaFlusher("topic", producer, 100);
+        generatedEventCounter = 0;
+    }
+
+    private AvroRecordBuffer generateMessage() {
+        final DivolteIdentifier partyId = DivolteIdentifier.generate();
+        final GenericRecord record = new GenericRecordBuilder(MINIMAL_SCHEMA)
+            .set("counter", generatedEventCounter++)
+            .build();
+        return AvroRecordBuffer.fromRecord(partyId, DivolteIdentifier.generate(), "event", Instant.now(), record);
+    }
+
+    private static boolean isReleased(final AvroRecordBuffer buffer) {
+        try {
+            buffer.retain().release();
+            return false;
+        } catch (final IllegalStateException e) {
+            return true;
+        }
+    }
+
+    private ProcessingDirective processBatch(final AvroRecordBuffer... buffers) {
+        final Queue<Item<AvroRecordBuffer>> batch = new ArrayDeque<>();
+        for (final AvroRecordBuffer buffer : buffers) {
+            batch.add(Item.of(0, buffer.getPartyId().value, buffer));
+        }
+        return flusher.process(batch);
+    }
+
+    @Test
+    public void shouldNotWaitForSendsToComplete() {
+        final AvroRecordBuffer first = generateMessage();
+        final AvroRecordBuffer second = generateMessage();
+        assertEquals(ProcessingDirective.CONTINUE, processBatch(first, second));
+        assertEquals(2, producer.history().size());
+        assertFalse(isReleased(first));
+
+        assertTrue(producer.completeNext());
+        assertTrue(isReleased(first));
+        assertFalse(isReleased(second));
+        assertTrue(producer.completeNext());
+        assertTrue(isReleased(second));
+    }
+
+    @Test
+    public void shouldRetryTransientFailures() {
+        final AvroRecordBuffer buffer = generateMessage();
+        assertEquals(ProcessingDirective.CONTINUE, processBatch(buffer, generateMessage()));
+        assertTrue(producer.errorNext(new TimeoutException("Transient")));
+        assertTrue(producer.completeNext());
+        assertFalse(isReleased(buffer));
+
+        // The failed send is retried when idle.
+        assertEquals(ProcessingDirective.CONTINUE, flusher.heartbeat());
+        assertEquals(3, producer.history().size());
+        assertSame(buffer, producer.history().get(2).value());
+        assertTrue(producer.completeNext());
+        assertTrue(isReleased(buffer));
+    }
+
+    @Test
+    public void shouldPauseWhileTransientFailuresArePending() {
+        final AvroRecordBuffer buffer = generateMessage();
+        assertEquals(ProcessingDirective.CONTINUE, processBatch(buffer, generateMessage()));
+        assertTrue(producer.errorNext(new TimeoutException("Transient")));
+        assertEquals(ProcessingDirective.PAUSE, processBatch(generateMessage(), generateMessage()));
+    }
+
+    @Test
+    public void shouldAbandonFatalFailures() {
+        final AvroRecordBuffer buffer = generateMessage();
+        assertEquals(ProcessingDirective.CONTINUE, processBatch(buffer, generateMessage()));
+        assertTrue(producer.errorNext(new RecordTooLargeException("Fatal")));
+        assertTrue(isReleased(buffer));
+
+        assertEquals(ProcessingDirective.CONTINUE, flusher.heartbeat());
+        assertEquals(2, producer.history().size());
+    }
+}
@@ -54,10 +54,15 @@ import java.time.ZonedDateTime;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
@@ -278,4 +283,91 @@ public class GoogleCloudPubSubFlusherTest {
         verify(publisher).publish(any(PubsubMessage.class));
         verifyNoMoreInteractions(publisher);
     }
+
+    @Test
+    public void testAsyncMessagesDoNotWaitForCompletion() {
+        final Publisher publisher = mockPublisher.orElseThrow(IllegalStateException::new);
+        final SettableApiFuture<String> pendingResult = SettableApiFuture.create();
+        when(publisher.publish(any(PubsubMessage.class))).thenReturn(pendingResult);
+
+        final DivolteSchema schema = new DivolteSchema(MINIMAL_SCHEMA, Optional.empty());
+        final GoogleCloudPubSubFlusher flusher = new GoogleCloudPubSubFlusher(publisher, schema, 10, 0);
+        assertEquals(ItemProcessor.ProcessingDirective.CONTINUE,
+                     flusher.process(itemFromAvroRecordBuffer(generateMessage())));
+        assertEquals(ItemProcessor.ProcessingDirective.CONTINUE,
+                     flusher.process(itemFromAvroRecordBuffer(generateMessage())));
+        assertFalse(pendingResult.isDone());
+        verify(publisher, times(2)).publish(any(PubsubMessage.class));
+    }
+
+    @Test
+    public void testAsyncMessagesAreRetriedOnRetriableFailure() {
+        final Publisher publisher = mockPublisher.orElseThrow(IllegalStateException::new);
+        when(publisher.publish(any(PubsubMessage.class)))
+            .thenReturn(failedFuture(new ApiException("simulated transient failure",
+                                                      new IOException(),
+                                                      GrpcStatusCode.of(Status.Code.INTERNAL),
+                                                      true)))
+            .thenAnswer(invocationOnMock -> completedFuture(String.valueOf(messageIdCounter++)));
+
+        final DivolteSchema schema = new DivolteSchema(MINIMAL_SCHEMA, Optional.empty());
+        final GoogleCloudPubSubFlusher flusher = new GoogleCloudPubSubFlusher(publisher, schema, 10, 0);
+        assertEquals(ItemProcessor.ProcessingDirective.PAUSE,
+                     flusher.process(itemFromAvroRecordBuffer(generateMessage())));
+        assertEquals(ItemProcessor.ProcessingDirective.CONTINUE, flusher.heartbeat());
+
+        verify(publisher, times(2)).publish(any(PubsubMessage.class));
+        verifyNoMoreInteractions(publisher);
+    }
+
+    @Test
+    public void testAsyncMessagesAreAbandonedOnNonRetriableFailure() {
+        final Publisher publisher = mockPublisher.orElseThrow(IllegalStateException::new);
+        when(publisher.publish(any(PubsubMessage.class)))
+            .thenReturn(failedFuture(new ApiException("simulated permanent failure",
+                                                      new IOException(),
+                                                      GrpcStatusCode.of(Status.Code.NOT_FOUND),
+                                                      false)));
+
+        final DivolteSchema schema = new DivolteSchema(MINIMAL_SCHEMA, Optional.empty());
+        final GoogleCloudPubSubFlusher flusher = new GoogleCloudPubSubFlusher(publisher, schema, 10, 0);
+        assertEquals(ItemProcessor.ProcessingDirective.CONTINUE,
+                     flusher.process(itemFromAvroRecordBuffer(generateMessage())));
+        assertEquals(ItemProcessor.ProcessingDirective.CONTINUE, flusher.heartbeat());
+
+        verify(publisher).publish(any(PubsubMessage.class));
+        verifyNoMoreInteractions(publisher);
+    }
+
+    @Test
+    public void testAsyncMessagesInFlightAreLimited() {
+        final Publisher publisher = mockPublisher.orElseThrow(IllegalStateException::new);
+        final SettableApiFuture<String> firstResult = SettableApiFuture.create();
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            when(publisher.publish(any(PubsubMessage.class)))
+                .thenAnswer(invocationOnMock -> {
+                    // Only complete the first message some time after it has been published.
+                    executor.schedule(() -> firstResult.set("first"), 100, TimeUnit.MILLISECONDS);
+                    return firstResult;
+                })
+                .thenAnswer(invocationOnMock -> {
+                    // With a window of one message, the first must have completed by now.
+                    assertTrue(firstResult.isDone());
+                    return completedFuture("second");
+                });
+
+            final DivolteSchema schema = new DivolteSchema(MINIMAL_SCHEMA, Optional.empty());
+            final GoogleCloudPubSubFlusher flusher = new GoogleCloudPubSubFlusher(publisher, schema, 1, 0);
+            final Queue<Item<AvroRecordBuffer>> items =
+                Stream.generate(this::generateMessage)
+                      .limit(2)
+                      .map(this::itemFromAvroRecordBuffer)
+                      .collect(Collectors.toCollection(() -> new ArrayBlockingQueue<>(2)));
+            assertEquals(ItemProcessor.ProcessingDirective.CONTINUE, flusher.process(items));
+            verify(publisher, times(2)).publish(any(PubsubMessage.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 GoDataDriven B.V.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divolte.server.topicsinks.pubsub;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class InstantFormatterTest {
+    private final InstantFormatter formatter = new InstantFormatter();
+
+    private void assertFormattedLikeIsoInstant(final Instant instant) {
+        assertEquals(DateTimeFormatter.ISO_INSTANT.format(instant), formatter.format(instant));
+    }
+
+    @Test
+    public void shouldFormatFractionsInGroupsOfThreeDigits() {
+        assertEquals("2018-09-14T13:32:10Z", formatter.format(Instant.parse("2018-09-14T13:32:10Z")));
+        assertEquals("2018-09-14T13:32:10.030Z", formatter.format(Instant.parse("2018-09-14T13:32:10.03Z")));
+        assertEquals("2018-09-14T13:32:10.034261Z", formatter.format(Instant.parse("2018-09-14T13:32:10.034261Z")));
+        assertEquals("2018-09-14T13:32:10.034261025Z", formatter.format(Instant.parse("2018-09-14T13:32:10.034261025Z")));
+    }
+
+    @Test
+    public void shouldFormatBoundariesLikeIsoInstant() {
+        assertFormattedLikeIsoInstant(Instant.EPOCH);
+        assertFormattedLikeIsoInstant(Instant.EPOCH.minusNanos(1));
+        assertFormattedLikeIsoInstant(Instant.parse("2000-02-29T23:59:59.999Z"));
+        assertFormattedLikeIsoInstant(Instant.parse("2100-03-01T00:00:00Z"));
+        assertFormattedLikeIsoInstant(Instant.parse("0000-01-01T00:00:00Z"));
+        assertFormattedLikeIsoInstant(Instant.parse("9999-12-31T23:59:59.999999999Z"));
+        assertFormattedLikeIsoInstant(Instant.parse("9999-12-31T23:59:59Z").plusSeconds(1));
+        assertFormattedLikeIsoInstant(Instant.parse("0000-01-01T00:00:00Z").minusNanos(1));
+        assertFormattedLikeIsoInstant(Instant.MIN);
+        assertFormattedLikeIsoInstant(Instant.MAX);
+    }
+
+    @Test
+    public void shouldFormatArbitraryInstantsLikeIsoInstant() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 100_000; ++i) {
+            final long epochSecond = -62167219200L + (long) (random.nextDouble() * 315569520000L);
+            assertFormattedLikeIsoInstant(Instant.ofEpochSecond(epochSecond, random.nextInt(1_000_000_000)));
+        }
+    }
+}